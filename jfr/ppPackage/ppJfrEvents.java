@@ -0,0 +1,232 @@
+package ppPackage;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event types of the game. Only used through
+ * ppFlightEvents, which loads this class by reflection once it has made sure
+ * the jdk.jfr API is present.
+ * 
+ * The jdk.jfr API is not part of the Java 8 platform the rest of the project
+ * is compiled for, so this file lives outside the main source tree and is
+ * compiled on its own, against the compiled project, by a JDK that has the
+ * API, into the same output directory:
+ * 
+ * <pre>
+ * javac --release 11 -cp bin:acm.jar -d bin jfr/ppPackage/ppJfrEvents.java
+ * </pre>
+ * 
+ * Without it (or on a JVM older than the class file), the game runs without
+ * events.
+ * 
+ * Stack traces are turned off: the events mark moments of the game, and are
+ * emitted from the game loop, whose stack is always the same.
+ */
+final class ppJfrEvents implements ppFlightEvents.Sink
+{
+	/**
+	 * Created by ppFlightEvents only.
+	 */
+	ppJfrEvents()
+	{
+	}
+
+	@Name("ppPackage.Rally")
+	@Label("Rally")
+	@Category({ "Ping Pong" })
+	@Description("From the serve to the end of a rally")
+	@StackTrace(false)
+	static class RallyEvent extends Event
+	{
+		@Label("Serve Height (m)")
+		double serveY;
+
+		@Label("Serve X-Velocity (m/s)")
+		double serveVx;
+
+		@Label("Serve Y-Velocity (m/s)")
+		double serveVy;
+
+		@Label("Energy Loss")
+		double loss;
+
+		@Label("End State")
+		String endState;
+
+		@Label("Agent Scores")
+		boolean agentScores;
+
+		@Label("Ticks")
+		long ticks;
+
+		@Label("Hits")
+		long hits;
+	}
+
+	@Name("ppPackage.Contact")
+	@Label("Paddle Contact")
+	@Category({ "Ping Pong" })
+	@Description("The ball bounced off a paddle")
+	@StackTrace(false)
+	static class ContactEvent extends Event
+	{
+		@Label("Agent")
+		boolean agent;
+
+		@Label("Height (m)")
+		double y;
+
+		@Label("Paddle Y-Velocity (m/s)")
+		double paddleVy;
+
+		@Label("X-Velocity Before (m/s)")
+		double preVx;
+
+		@Label("Y-Velocity Before (m/s)")
+		double preVy;
+
+		@Label("X-Velocity After (m/s)")
+		double postVx;
+
+		@Label("Y-Velocity After (m/s)")
+		double postVy;
+	}
+
+	@Name("ppPackage.Prediction")
+	@Label("Agent Prediction")
+	@Category({ "Ping Pong" })
+	@Description("The agent updated its prediction of where to intercept the ball")
+	@StackTrace(false)
+	static class PredictionEvent extends Event
+	{
+		@Label("Strategy")
+		String strategy;
+
+		@Label("Time To Collision (s)")
+		double timeToCollision;
+
+		@Label("Target Height (m)")
+		double targetY;
+
+		@Label("Ball X (m)")
+		double ballX;
+
+		@Label("Ball Y (m)")
+		double ballY;
+	}
+
+	@Name("ppPackage.TickOverrun")
+	@Label("Tick Overrun")
+	@Category({ "Ping Pong" })
+	@Description("A tick of the game loop was still running at its deadline")
+	@StackTrace(false)
+	static class TickOverrunEvent extends Event
+	{
+		@Label("Tick")
+		long tick;
+
+		@Label("Compute Time (ns)")
+		long computeNs;
+
+		@Label("Period (ns)")
+		long periodNs;
+
+		@Label("Lateness (ns)")
+		long lateNs;
+	}
+
+	/**
+	 * See ppFlightEvents.rallyStart().
+	 * 
+	 * @param s The state of the ball just after the serve
+	 * @return The started event, or null if the event type is not enabled
+	 */
+	public Object rallyStart(ppSimState s)
+	{
+		RallyEvent event = new RallyEvent();
+
+		if (!event.isEnabled())
+			return null;
+		event.begin();
+		event.serveY = s.y;
+		event.serveVx = s.vx;
+		event.serveVy = s.vy;
+		event.loss = s.loss;
+		return event;
+	}
+
+	/**
+	 * See ppFlightEvents.rallyEnd().
+	 * 
+	 * @param handle The event returned by rallyStart()
+	 * @param s      The state of the ball at the end of the rally
+	 */
+	public void rallyEnd(Object handle, ppSimState s)
+	{
+		RallyEvent event = (RallyEvent) handle;
+
+		event.end();
+		event.endState = ppFlightEvents.name(s.endState);
+		event.agentScores = (s.endState != null && s.endState.agentScores());
+		event.ticks = s.tick;
+		event.hits = s.volley - 1; // The serve counts as the first volley
+		event.commit();
+	}
+
+	/**
+	 * See ppFlightEvents.contact().
+	 */
+	public void contact(boolean agent, double preVx, double preVy, double postVx, double postVy, double paddleVy, double y)
+	{
+		ContactEvent event = new ContactEvent();
+
+		if (!event.isEnabled())
+			return;
+		event.agent = agent;
+		event.y = y;
+		event.paddleVy = paddleVy;
+		event.preVx = preVx;
+		event.preVy = preVy;
+		event.postVx = postVx;
+		event.postVy = postVy;
+		event.commit();
+	}
+
+	/**
+	 * See ppFlightEvents.prediction().
+	 */
+	public void prediction(String strategy, double timeToCollision, double targetY, double ballX, double ballY)
+	{
+		PredictionEvent event = new PredictionEvent();
+
+		if (!event.isEnabled())
+			return;
+		event.strategy = strategy;
+		event.timeToCollision = timeToCollision;
+		event.targetY = targetY;
+		event.ballX = ballX;
+		event.ballY = ballY;
+		event.commit();
+	}
+
+	/**
+	 * See ppFlightEvents.tickOverrun().
+	 */
+	public void tickOverrun(long tick, long computeNs, long periodNs, long lateNs)
+	{
+		TickOverrunEvent event = new TickOverrunEvent();
+
+		if (!event.isEnabled())
+			return;
+		event.tick = tick;
+		event.computeNs = computeNs;
+		event.periodNs = periodNs;
+		event.lateNs = lateNs;
+		event.commit();
+	}
+}
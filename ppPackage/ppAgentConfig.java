@@ -0,0 +1,175 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+
+/**
+ * The parameters of a computer-controlled paddle, so that variants of the agent
+ * can be played against each other by ppSimEngine on either side of the table.
+ * 
+ * Instances are immutable, and equal when all their parameters are.
+ */
+public final class ppAgentConfig
+{
+	private final double maxSpeed;
+	private final int reactMillis;
+	private final double vyFactor;
+	private final ppInterceptPredictor.Strategy strategy;
+	private final double horizon;
+
+	/**
+	 * Creates a configuration with no prediction horizon.
+	 * 
+	 * @param maxSpeed    Highest y-velocity the paddle moves at (in m/s, see
+	 *                    AGENT_MAX_SPEED)
+	 * @param reactMillis Time between two updates of the paddle's prediction (in
+	 *                    ms, rounded to a whole number of ticks)
+	 * @param vyFactor    Fraction of the paddle's y-velocity passed on to the ball
+	 *                    on contact (see AGENT_VY_FACTOR)
+	 * @param strategy    How the paddle predicts where to intercept the ball
+	 */
+	public ppAgentConfig(double maxSpeed, int reactMillis, double vyFactor, ppInterceptPredictor.Strategy strategy)
+	{
+		this(maxSpeed, reactMillis, vyFactor, strategy, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @param maxSpeed    Highest y-velocity the paddle moves at (in m/s, see
+	 *                    AGENT_MAX_SPEED)
+	 * @param reactMillis Time between two updates of the paddle's prediction (in
+	 *                    ms, rounded to a whole number of ticks)
+	 * @param vyFactor    Fraction of the paddle's y-velocity passed on to the ball
+	 *                    on contact (see AGENT_VY_FACTOR)
+	 * @param strategy    How the paddle predicts where to intercept the ball
+	 * @param horizon     The paddle ignores a ball predicted to reach it later than
+	 *                    this, and waits at the center instead (in sec)
+	 */
+	public ppAgentConfig(double maxSpeed, int reactMillis, double vyFactor, ppInterceptPredictor.Strategy strategy, double horizon)
+	{
+		this.maxSpeed = maxSpeed;
+		this.reactMillis = reactMillis;
+		this.vyFactor = vyFactor;
+		this.strategy = strategy;
+		this.horizon = horizon;
+	}
+
+	/**
+	 * @param reactMillis Time between two updates of the prediction (in ms)
+	 * @return The agent of ppSimParams, with the given reaction time
+	 */
+	public static ppAgentConfig getDefault(int reactMillis)
+	{
+		return new ppAgentConfig(AGENT_MAX_SPEED, reactMillis, AGENT_VY_FACTOR, AGENT_STRATEGY);
+	}
+
+	/**
+	 * @param reactMillis Time between two updates of the prediction (in ms)
+	 * @return The player's paddle controlled like the agent, as the reference
+	 *         opponent of ppBatchRunner
+	 */
+	public static ppAgentConfig getReference(int reactMillis)
+	{
+		return new ppAgentConfig(AGENT_MAX_SPEED, reactMillis, PLAYER_VY_FACTOR, AGENT_STRATEGY);
+	}
+
+	/**
+	 * Makes the agent on the left side of the table play with this configuration.
+	 * 
+	 * @param s The state to update
+	 */
+	public void applyLeft(ppSimState s)
+	{
+		ppSimEngine.setReactTime(s, reactMillis);
+		s.agentMaxSpeed = maxSpeed;
+		s.agentVyFactor = vyFactor;
+		s.agentPredictor.setStrategy(strategy);
+		s.agentHorizon = horizon;
+	}
+
+	/**
+	 * Makes the player's paddle, on the right side of the table, play like an
+	 * agent with this configuration. The TABLE strategy is only available on the
+	 * left side; on the right side it predicts like PHYSICS.
+	 * 
+	 * @param s The state to update
+	 */
+	public void applyRight(ppSimState s)
+	{
+		ppSimEngine.setPaddleAgent(s, reactMillis);
+		s.paddleMaxSpeed = maxSpeed;
+		s.paddleVyFactor = vyFactor;
+		s.paddlePredictor.setStrategy(strategy);
+		s.paddleHorizon = horizon;
+	}
+
+	/**
+	 * @return Highest y-velocity the paddle moves at (in m/s)
+	 */
+	public double getMaxSpeed()
+	{
+		return maxSpeed;
+	}
+
+	/**
+	 * @return Time between two updates of the paddle's prediction (in ms)
+	 */
+	public int getReactMillis()
+	{
+		return reactMillis;
+	}
+
+	/**
+	 * @return Fraction of the paddle's y-velocity passed on to the ball
+	 */
+	public double getVyFactor()
+	{
+		return vyFactor;
+	}
+
+	/**
+	 * @return How the paddle predicts where to intercept the ball
+	 */
+	public ppInterceptPredictor.Strategy getStrategy()
+	{
+		return strategy;
+	}
+
+	/**
+	 * @return Time beyond which the paddle ignores the ball (in sec)
+	 */
+	public double getHorizon()
+	{
+		return horizon;
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof ppAgentConfig))
+			return false;
+		ppAgentConfig other = (ppAgentConfig) o;
+		return Double.compare(maxSpeed, other.maxSpeed) == 0 && reactMillis == other.reactMillis && Double.compare(vyFactor, other.vyFactor) == 0 && strategy == other.strategy
+				&& Double.compare(horizon, other.horizon) == 0;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		long h = Double.doubleToLongBits(maxSpeed);
+		h = 31 * h + reactMillis;
+		h = 31 * h + Double.doubleToLongBits(vyFactor);
+		h = 31 * h + strategy.ordinal();
+		h = 31 * h + Double.doubleToLongBits(horizon);
+		return (int) (h ^ h >>> 32);
+	}
+
+	/**
+	 * @return A short name for the configuration (e.g. "PHYSICS v6.0 d200 f0.40",
+	 *         followed by e.g. " h1.50" if the horizon is finite)
+	 */
+	@Override
+	public String toString()
+	{
+		String name = String.format("%s v%.1f d%d f%.2f", strategy, maxSpeed, reactMillis, vyFactor);
+		return (horizon == Double.POSITIVE_INFINITY ? name : name + String.format(" h%.2f", horizon));
+	}
+}
@@ -0,0 +1,387 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Searches the parameters of the agent (max speed, reaction time, y-velocity
+ * factor and prediction horizon) for the agent that comes closest to a target
+ * win rate or mean rally length against a reference opponent, e.g. to set up
+ * difficulty levels.
+ * 
+ * Each iteration is a round of successive halving: a set of candidates is
+ * played on a few blocks of serves, the better half is kept and played on twice
+ * as many blocks, and so on until one candidate is left or the largest budget
+ * is reached. On top of the halving, a candidate is dropped as soon as it is
+ * clearly worse than the current best (its error is more than Z standard
+ * errors apart), or when aiming for a win rate, as soon as it has no win rate
+ * (none of its rallies ended before MAX_TICKS). The first iteration samples
+ * candidates at random in the whole space; the next ones sample half of them
+ * around the best agent found so far, in a neighborhood that shrinks every
+ * iteration.
+ * 
+ * Every candidate is played on the same blocks of serves (block i always has
+ * the same seed), so candidates are compared on the same serves, and the
+ * outcome of each block only has to be played once: evaluations are cached
+ * across rungs and iterations, and a candidate seen before only plays the
+ * blocks it has not played yet. Parameters are rounded to a grid so that
+ * nearby samples share their cache entry. The blocks of all the candidates of
+ * a rung are played in parallel on all cores.
+ */
+public class ppAgentTuner
+{
+	/**
+	 * What the tuner aims for
+	 */
+	public enum Objective
+	{
+		WIN_RATE, RALLY_TIME
+	}
+
+	static final int ETA = 2; // Fraction of the candidates (1/ETA) kept at each rung, and factor by which the budget grows
+	static final double Z = 3; // Number of standard errors by which a candidate must lose to be dropped early
+
+	// Search space (and the grid its points are rounded to)
+	static final double SPEED_MIN = 1, SPEED_MAX = 12, SPEED_STEP = 0.1; // Max speed (in m/s)
+	static final int REACT_MIN = 10, REACT_MAX = 500; // Reaction time (in ms, rounded to TICK)
+	static final double VY_FACTOR_MIN = 0, VY_FACTOR_MAX = 1, VY_FACTOR_STEP = 0.01;
+	static final double HORIZON_MIN = 0.1, HORIZON_MAX = 3, HORIZON_STEP = 0.05; // Prediction horizon (in sec)
+
+	private final Objective objective;
+	private final double target;
+	private final ppAgentConfig opponent;
+	private final long[] blockSeeds;
+	private final ForkJoinPool pool;
+	private final Map<ppAgentConfig, Evaluation> cache = new HashMap<ppAgentConfig, Evaluation>();
+	private long blocksPlayed; // Blocks played so far
+	private long blocksReused; // Blocks that were needed again and found in the cache
+
+	/**
+	 * The outcome of the blocks a candidate has played so far.
+	 */
+	private static class Evaluation
+	{
+		final ppBatchRunner.Result result = new ppBatchRunner.Result();
+		int blocks; // Blocks 0 to blocks - 1 have been played
+	}
+
+	/**
+	 * @param objective What to aim for
+	 * @param target    The win rate (in [0, 1]) or mean rally length (in sec) to
+	 *                  aim for
+	 * @param opponent  The opponent on the player's side
+	 * @param seed      Seed of the blocks of serves
+	 * @param maxBlocks The largest number of blocks a candidate is played on
+	 * @param pool      The pool in which to play the blocks
+	 */
+	public ppAgentTuner(Objective objective, double target, ppAgentConfig opponent, long seed, int maxBlocks, ForkJoinPool pool)
+	{
+		this.objective = objective;
+		this.target = target;
+		this.opponent = opponent;
+		this.blockSeeds = ppBatchRunner.blockSeeds(seed, maxBlocks * ppBatchRunner.BLOCK_SIZE);
+		this.pool = pool;
+	}
+
+	/**
+	 * Runs a number of iterations of successive halving.
+	 * 
+	 * @param iterations The number of iterations
+	 * @param candidates The number of candidates sampled at each iteration
+	 * @param minBlocks  The number of blocks the candidates are first played on
+	 * @param rgen       The random stream the candidates are sampled from
+	 * @return The best agent found
+	 */
+	public ppAgentConfig tune(int iterations, int candidates, int minBlocks, ppRandom rgen)
+	{
+		ppAgentConfig best = null;
+
+		for (int it = 0; it < iterations; it++)
+		{
+			List<ppAgentConfig> sample = new ArrayList<ppAgentConfig>();
+			double scale = Math.pow(0.5, it);
+
+			if (best != null)
+				sample.add(best);
+			while (sample.size() < candidates)
+				sample.add(best == null || sample.size() % 2 == 0 ? sample(rgen) : perturb(best, scale, rgen));
+
+			ppAgentConfig winner = halve(sample, minBlocks);
+			if (best == null || compare(winner, best) < 0)
+				best = winner;
+			System.out.printf("Iteration %d: best %s (%s), %d blocks played, %d reused\n", it + 1, best, describe(best), blocksPlayed, blocksReused);
+		}
+		return best;
+	}
+
+	/**
+	 * One round of successive halving.
+	 * 
+	 * @param candidates The candidates
+	 * @param minBlocks  The number of blocks they are first played on
+	 * @return The candidate left at the end
+	 */
+	ppAgentConfig halve(List<ppAgentConfig> candidates, int minBlocks)
+	{
+		List<ppAgentConfig> alive = new ArrayList<ppAgentConfig>(candidates);
+		int blocks = Math.min(minBlocks, blockSeeds.length);
+
+		while (true)
+		{
+			evaluate(alive, blocks);
+			Collections.sort(alive, new Comparator<ppAgentConfig>()
+			{
+				public int compare(ppAgentConfig a, ppAgentConfig b)
+				{
+					return ppAgentTuner.this.compare(a, b);
+				}
+			});
+			if (alive.size() == 1 || blocks == blockSeeds.length)
+				return alive.get(0);
+
+			// Keep the better part, minus those that are already clearly worse than the best
+			double bound = error(alive.get(0)) + Z * standardError(alive.get(0));
+			List<ppAgentConfig> kept = new ArrayList<ppAgentConfig>();
+			for (ppAgentConfig c : alive.subList(0, Math.max(1, alive.size() / ETA)))
+				if (kept.isEmpty() || measured(c) && error(c) - Z * standardError(c) <= bound)
+					kept.add(c);
+			alive = kept;
+			blocks = Math.min(blocks * ETA, blockSeeds.length);
+		}
+	}
+
+	/**
+	 * Makes sure every candidate has played at least a number of blocks, playing
+	 * the missing blocks of all of them in parallel.
+	 * 
+	 * @param candidates The candidates
+	 * @param blocks     The number of blocks
+	 */
+	private void evaluate(List<ppAgentConfig> candidates, int blocks)
+	{
+		List<ForkJoinTask<ppBatchRunner.Result>> tasks = new ArrayList<ForkJoinTask<ppBatchRunner.Result>>();
+		List<Evaluation> evaluations = new ArrayList<Evaluation>();
+		int serves = blockSeeds.length * ppBatchRunner.BLOCK_SIZE;
+
+		for (ppAgentConfig c : candidates)
+		{
+			Evaluation e = cache.get(c);
+			if (e == null)
+			{
+				e = new Evaluation();
+				cache.put(c, e);
+			}
+			blocksReused += Math.min(e.blocks, blocks);
+			if (e.blocks >= blocks)
+				continue;
+			tasks.add(pool.submit(ppBatchRunner.batch(ppSimConfig.DEFAULT, c, opponent, blockSeeds, e.blocks, blocks, serves)));
+			evaluations.add(e);
+			blocksPlayed += blocks - e.blocks;
+		}
+		for (int i = 0; i < tasks.size(); i++)
+		{
+			evaluations.get(i).result.merge(tasks.get(i).join());
+			evaluations.get(i).blocks = blocks;
+		}
+	}
+
+	/**
+	 * @param c An evaluated candidate
+	 * @return Whether its estimate means anything: a win rate needs at least one
+	 *         rally that ended, as rallies cut off after MAX_TICKS are not counted
+	 */
+	boolean measured(ppAgentConfig c)
+	{
+		return (objective != Objective.WIN_RATE || cache.get(c).result.getFinished() > 0);
+	}
+
+	/**
+	 * @param c An evaluated candidate
+	 * @return The estimate of what the tuner aims for (win rate or mean rally
+	 *         length)
+	 */
+	double estimate(ppAgentConfig c)
+	{
+		ppBatchRunner.Result r = cache.get(c).result;
+		return (objective == Objective.WIN_RATE ? r.getAgentWinRate() : r.getMeanRallyTime());
+	}
+
+	/**
+	 * @param c An evaluated candidate
+	 * @return The distance of its estimate from the target
+	 */
+	double error(ppAgentConfig c)
+	{
+		return Math.abs(estimate(c) - target);
+	}
+
+	/**
+	 * @param c An evaluated candidate
+	 * @return The standard error of its estimate (infinite if it is not measured)
+	 */
+	double standardError(ppAgentConfig c)
+	{
+		ppBatchRunner.Result r = cache.get(c).result;
+
+		if (!measured(c))
+			return Double.POSITIVE_INFINITY;
+		if (objective == Objective.WIN_RATE)
+		{
+			double p = r.getAgentWinRate();
+			return Math.sqrt(p * (1 - p) / r.getFinished());
+		}
+		return r.getRallyTimeStdDev() / Math.sqrt(r.getFinished() + r.getUnfinished());
+	}
+
+	/**
+	 * Orders candidates by error, then by the number of blocks played (an error
+	 * measured on more serves is more trustworthy), then by name so that the
+	 * order never depends on the order of the list. Candidates that are not
+	 * measured come after all the others.
+	 * 
+	 * @param a An evaluated candidate
+	 * @param b Another one
+	 * @return A negative number if <code>a</code> is better
+	 */
+	private int compare(ppAgentConfig a, ppAgentConfig b)
+	{
+		if (measured(a) != measured(b))
+			return (measured(a) ? -1 : 1);
+		int byError = Double.compare(error(a), error(b));
+		if (byError != 0)
+			return byError;
+		int byBlocks = Integer.compare(cache.get(b).blocks, cache.get(a).blocks);
+		return (byBlocks != 0 ? byBlocks : a.toString().compareTo(b.toString()));
+	}
+
+	/**
+	 * @param c An evaluated candidate
+	 * @return Its estimate, standard error and number of serves
+	 */
+	String describe(ppAgentConfig c)
+	{
+		Evaluation e = cache.get(c);
+		return String.format("%s %.4f +/- %.4f over %d serves", objective == Objective.WIN_RATE ? "win rate" : "rally", estimate(c), standardError(c), e.blocks * ppBatchRunner.BLOCK_SIZE);
+	}
+
+	/**
+	 * @param rgen The random stream to draw from
+	 * @return A candidate drawn uniformly from the search space
+	 */
+	static ppAgentConfig sample(ppRandom rgen)
+	{
+		return candidate(rgen.nextDouble(SPEED_MIN, SPEED_MAX), rgen.nextDouble(REACT_MIN, REACT_MAX), rgen.nextDouble(VY_FACTOR_MIN, VY_FACTOR_MAX), rgen.nextDouble(HORIZON_MIN, HORIZON_MAX));
+	}
+
+	/**
+	 * @param c     A candidate
+	 * @param scale Size of the neighborhood, as a fraction of each range
+	 * @param rgen  The random stream to draw from
+	 * @return A candidate drawn uniformly around <code>c</code>
+	 */
+	static ppAgentConfig perturb(ppAgentConfig c, double scale, ppRandom rgen)
+	{
+		return candidate(c.getMaxSpeed() + scale * (SPEED_MAX - SPEED_MIN) * rgen.nextDouble(-0.5, 0.5), c.getReactMillis() + scale * (REACT_MAX - REACT_MIN) * rgen.nextDouble(-0.5, 0.5),
+				c.getVyFactor() + scale * (VY_FACTOR_MAX - VY_FACTOR_MIN) * rgen.nextDouble(-0.5, 0.5), c.getHorizon() + scale * (HORIZON_MAX - HORIZON_MIN) * rgen.nextDouble(-0.5, 0.5));
+	}
+
+	/**
+	 * @param maxSpeed    Max speed (in m/s)
+	 * @param reactMillis Reaction time (in ms)
+	 * @param vyFactor    Y-velocity factor
+	 * @param horizon     Prediction horizon (in sec)
+	 * @return The candidate with these parameters, clamped to the search space and
+	 *         rounded to its grid
+	 */
+	static ppAgentConfig candidate(double maxSpeed, double reactMillis, double vyFactor, double horizon)
+	{
+		int tickMillis = (int) Math.round(1000 * TICK);
+
+		return new ppAgentConfig(round(maxSpeed, SPEED_MIN, SPEED_MAX, SPEED_STEP), (int) round(reactMillis, REACT_MIN, REACT_MAX, tickMillis),
+				round(vyFactor, VY_FACTOR_MIN, VY_FACTOR_MAX, VY_FACTOR_STEP), AGENT_STRATEGY, round(horizon, HORIZON_MIN, HORIZON_MAX, HORIZON_STEP));
+	}
+
+	/**
+	 * @param value A value
+	 * @param min   The smallest allowed value
+	 * @param max   The largest allowed value
+	 * @param step  The step of the grid
+	 * @return The closest point of the grid (multiples of step) in [min, max]
+	 */
+	private static double round(double value, double min, double max, double step)
+	{
+		double v = Math.min(max, Math.max(min, value));
+		return Math.round(v / step) * step;
+	}
+
+	/**
+	 * Tunes the agent and prints the best one found.
+	 * 
+	 * @param args "win=..." (a target win rate, default 0.5) or "rally=..." (a
+	 *             target mean rally length in sec), and optionally
+	 *             iterations=... (default 4), candidates=... per iteration
+	 *             (default 32), blocks=... (most blocks of BLOCK_SIZE serves a
+	 *             candidate is played on, default 32), opponent=... reaction time
+	 *             in ms (default 100), threads=... (default: all cores), seed=...
+	 *             (default RSEED)
+	 */
+	public static void main(String[] args)
+	{
+		Objective objective = Objective.WIN_RATE;
+		double target = 0.5;
+		int iterations = 4;
+		int candidates = 32;
+		int maxBlocks = 32;
+		int opponentMillis = 100;
+		int threads = Runtime.getRuntime().availableProcessors();
+		long seed = RSEED;
+
+		for (String arg : args)
+		{
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("Expected NAME=VALUE: " + arg);
+			String name = arg.substring(0, eq);
+			String value = arg.substring(eq + 1);
+
+			if (name.equals("win") || name.equals("rally"))
+			{
+				objective = (name.equals("win") ? Objective.WIN_RATE : Objective.RALLY_TIME);
+				target = Double.parseDouble(value);
+			}
+			else if (name.equals("iterations"))
+				iterations = Integer.parseInt(value);
+			else if (name.equals("candidates"))
+				candidates = Integer.parseInt(value);
+			else if (name.equals("blocks"))
+				maxBlocks = Integer.parseInt(value);
+			else if (name.equals("opponent"))
+				opponentMillis = Integer.parseInt(value);
+			else if (name.equals("threads"))
+				threads = Integer.parseInt(value);
+			else if (name.equals("seed"))
+				seed = Long.parseLong(value);
+			else
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+		}
+
+		ppInterceptTable.loadForDefaultAgent();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		ppAgentTuner tuner = new ppAgentTuner(objective, target, ppAgentConfig.getReference(opponentMillis), seed, maxBlocks, pool);
+		long start = System.nanoTime();
+		ppAgentConfig best = tuner.tune(iterations, candidates, 1, new ppRandom(seed).split());
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("Best agent: %s (%s)\n", best, tuner.describe(best));
+		System.out.printf("%d blocks played (%d serves) on %d threads in %.1f s, %d blocks reused from the cache\n", tuner.blocksPlayed, tuner.blocksPlayed * ppBatchRunner.BLOCK_SIZE, threads, seconds,
+				tuner.blocksReused);
+	}
+}
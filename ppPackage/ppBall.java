@@ -1,33 +1,29 @@
 package ppPackage;
 
 import java.awt.Color;
-import java.util.ArrayList;
 import acm.graphics.GOval;
 import static ppPackage.ppSimParams.*;
 
 /**
  * Models the motion of a ping pong ball given certain initial conditions
  */
-public class ppBall extends Thread
+public class ppBall
 {
-	private double Xinit;
-	private double Yinit;
-	private double V0;
-	private double theta;
 	private Color color;
-	private double loss;
 	private ppTable table;
 	private GOval ball;
 	private ppPaddle paddle;
 	private ppPaddleAgent agent;
-	private ArrayList<GOval> tracePts;
+	private ppTrace tracePts;
 	private boolean traceOn;
-	private boolean ballInPlay;
+	private volatile boolean ballInPlay; // Also cleared by the event dispatch thread (see interruptGame())
+	private int events; // ppSimEngine.EVENT_* flags raised during the last tick
 
-	private double x;
+	private double x; // Position of the ball after the last tick, for drawing (in m)
 	private double y;
-	private double vx;
-	private double vy;
+	private ppSimState state;
+	private volatile ppBallSnapshot snapshot; // State of the ball after the last tick, for readers on other threads
+	private Object rallyEvent; // Flight recorder event of the rally, from ppFlightEvents.rallyStart()
 
 	/**
 	 * Creates an instance of ppBall with the following parameters, and then adds
@@ -50,21 +46,17 @@ public class ppBall extends Thread
 	public ppBall(double Xinit, double Yinit, double V0, double theta, Color color, double loss, ppTable table, boolean traceOn)
 	{
 		// Copy arguments to instance variables
-		this.Xinit = Xinit;
-		this.Yinit = Yinit;
-		this.V0 = V0;
-		this.theta = theta;
 		this.color = color;
-		this.loss = loss;
 		this.table = table;
 		this.traceOn = traceOn;
 
 		// Initialize simulation instance variables
 		ballInPlay = true;
-		x = Xinit;
-		y = Yinit;
-		vx = V0 * Math.cos(theta * Math.PI / 180);
-		vy = V0 * Math.sin(theta * Math.PI / 180);
+		state = new ppSimState();
+		ppSimEngine.serve(state, Xinit, Yinit, V0, theta, loss);
+		x = state.x;
+		y = state.y;
+		snapshot = new ppBallSnapshot(state, 0, null);
 
 		// Create the GOval representation of the ping pong ball and add it to the table
 		ball = new GOval(ppTable.toScrX(Xinit - BALL_RAD), ppTable.toScrY(Yinit + BALL_RAD), 2 * BALL_RAD * SCALE, 2 * BALL_RAD * SCALE);
@@ -72,8 +64,10 @@ public class ppBall extends Thread
 		ball.setColor(this.color);
 		table.getDisplay().add(ball);
 
-		// Initialize list of trace points
-		tracePts = new ArrayList<GOval>();
+		// Create the trace (a single canvas object, shown or hidden as a whole)
+		tracePts = new ppTrace(TRACE_CAPACITY, TRACE_TOLERANCE);
+		tracePts.setVisible(traceOn);
+		table.getDisplay().add(tracePts);
 	}
 
 	/**
@@ -97,139 +91,111 @@ public class ppBall extends Thread
 	}
 
 	/**
-	 * Simulates the motion of the ping pong ball
+	 * Simulates one TICK of the motion of the ping pong ball. The physics itself is
+	 * done by ppSimEngine; this method only copies the positions of the paddle and
+	 * the agent into the simulation state and draws the result. Pacing is left to
+	 * ppGameLoop.
 	 * 
 	 * Based on code snippets provided by Prof. Frank Ferrie
+	 * 
+	 * @param tickNanos The scheduled time of this tick (in the time base of
+	 *                  System.nanoTime()), at which the paddle's velocity is
+	 *                  estimated
+	 * @return TRUE if the ball is still in play after this tick
 	 */
-	public void run()
+	public boolean tick(long tickNanos)
 	{
-		table.getDisplay().pause(3000); // Wait to let the user see the initial position of the ball
-		agent.unfreeze(); // Let the agent start moving
-
-		if (DEBUG)
-			System.out.println("DEBUG mode enabled: press ENTER when the '>' prompt\nappears to move to the next step in the simulation");
-
-		// Initialize simulation parameters
-		double x0 = Xinit;
-		double y0 = Yinit;
-		double v0x = V0 * Math.cos(theta * Math.PI / 180);
-		double v0y = V0 * Math.sin(theta * Math.PI / 180);
-		double KEx;
-		double KEy;
-		double t = 0;
-
-		// Main simulation loop
-		while (ballInPlay)
+		if (!ballInPlay)
+			return false;
+
+		// Let the engine see where the paddle currently is (the agent already plays in this state, see ppPaddleAgent)
+		state.paddleX = paddle.getX();
+		state.paddleY = paddle.getY();
+		state.paddleVy = paddle.getVy();
+		state.paddleContactVy = paddle.getContactVy(tickNanos);
+
+		// Keep the current segment, for the velocity before a contact
+		double t = state.t;
+		double v0x = state.v0x;
+		double v0y = state.v0y;
+
+		if (state.tick == 0)
+			rallyEvent = ppFlightEvents.rallyStart(state);
+		events = ppSimEngine.stepBall(state);
+		x = state.x;
+		y = state.y;
+		snapshot = new ppBallSnapshot(state, events, snapshot);
+
+		if ((events & (ppSimEngine.EVENT_AGENT | ppSimEngine.EVENT_PADDLE)) != 0 && ppFlightEvents.isEnabled())
 		{
-			// Get current position and velocity
-			x = x0 + xDisp(t, v0x);
-			y = y0 + yDisp(t, v0y);
-			vx = xVel(t, v0x);
-			vy = yVel(t, v0y);
-
-			// Collision with floor
-			if (vy < 0 && y - BALL_RAD <= 0)
-			{
-				KEx = 0.5 * BALL_MASS * vx * vx * (1 - loss);
-				KEy = 0.5 * BALL_MASS * vy * vy * (1 - loss);
-
-				// If the ball is hitting the floor (i.e. no potential energy) and has negligible kinetic energy, end round immediately
-				if (KEx + KEy < KE_MIN)
-				{
-					if (vx < 0)
-						finishGame(EndState.NO_ENERGY_PLAYER);
-					else
-						finishGame(EndState.NO_ENERGY_AGENT);
-					break;
-				}
-
-				v0x = Math.sqrt(2 * KEx / BALL_MASS);
-				v0y = Math.sqrt(2 * KEy / BALL_MASS);
-
-				if (vx < 0)
-					v0x = -v0x;
-
-				x0 = x;
-				y0 = BALL_RAD;
-				y = y0; // Update y so that the ball gets printed at the right place
-				vx = v0x; // Update vx and vy in case the ball also hits a wall in the same tick (i.e. corner collision) and the new velocity is needed
-				vy = v0y;
-				t = 0;
-			}
-			// Collision with agent or with left boundary
-			if (vx < 0 && x - BALL_RAD <= agent.getX() + PADDLE_WIDTH / 2)
-			{
-				if (agent.contact(agent.getX() - PADDLE_WIDTH / 2 + BALL_RAD, y, true))
-				{
-					// Get the ball's velocity after the collision.
-					// The agent's y-velocity is scaled down to keep the ball's velocity within a reasonable range.
-					v0x = collisionVox(vx, AGENT_VX);
-					v0y = collisionVoy(vy, AGENT_VY_FACTOR * agent.getVy());
-
-					x0 = X_LEFT_WALL + BALL_RAD;
-					x = x0; // Update x so that the ball gets printed at the right place
-					y0 = y;
-					vx = v0x; // Update vx and vy so that the correct values appear in the TEST output
-					vy = v0y;
-					t = 0;
-				}
-				// If the ball reaches the left "wall" but the agent isn't there to intercept it, the round ends
-				else
-				{
-					finishGame(EndState.OUT_LEFT);
-					break;
-				}
-			}
-			// Collision with paddle or with right boundary
-			if (vx > 0 && x + BALL_RAD >= paddle.getX() - PADDLE_WIDTH / 2)
-			{
-				if (paddle.contact(paddle.getX() + PADDLE_WIDTH / 2 - BALL_RAD, y, false))
-				{
-					// Get the ball's velocity after the collision.
-					// The player's paddle's y-velocity is reduced to keep the ball's velocity within a reasonable range.
-					v0x = collisionVox(vx, PADDLE_VX);
-					v0y = collisionVoy(vy, PLAYER_VY_FACTOR * paddle.getVy());
-
-					x0 = paddle.getX() - PADDLE_WIDTH / 2 - BALL_RAD;
-					x = x0; // Update x so that the ball gets printed at the right place
-					y0 = y;
-					vx = v0x; // Update vx and vy so that the correct values appear in the TEST output
-					vy = v0y;
-					t = 0;
-				}
-				// If the ball is at the paddle's position but the paddle isn't there to intercept it, the round ends
-				else
-				{
-					finishGame(EndState.OUT_RIGHT);
-					break;
-				}
-			}
-			// Collision with ceiling
-			if (vy > 0 && y + BALL_RAD >= YMAX)
-			{
-				if (vx < 0)
-					finishGame(EndState.TOP_PLAYER);
-				else
-					finishGame(EndState.TOP_AGENT);
-				break;
-			}
+			boolean hitByAgent = (events & ppSimEngine.EVENT_AGENT) != 0;
+			ppFlightEvents.contact(hitByAgent, ppSimEngine.xVel(t, v0x), ppSimEngine.yVel(t, v0y), state.v0x, state.v0y, hitByAgent ? state.agentVy : state.paddleVy, state.y0);
+		}
 
-			if (TEST)
-				System.out.printf("t: %.2f X: %.2f Y: %.2f Vx: %.2f Vy: %.2f\n", t, x, y, vx, vy);
+		if ((events & ppSimEngine.EVENT_END) != 0)
+		{
+			ppFlightEvents.rallyEnd(rallyEvent, state);
+			rallyEvent = null;
+			finishGame(state.endState);
+			return false;
+		}
 
-			// Print ball and add a dot to plot the ball's trajectory
-			ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(y + BALL_RAD));
+		// Start a new polyline in the trace at every hit, sharing the point of contact with the previous one
+		if ((events & (ppSimEngine.EVENT_AGENT | ppSimEngine.EVENT_PADDLE)) != 0)
+		{
 			trace(x, y);
+			tracePts.newVolley();
+		}
 
-			// Pause the ball for TICK seconds (scaled by the current value of the time factor slider to keep the game at a reasonable pace)
-			table.getDisplay().pause(TICK * table.getDisplay().getTimeFactor());
+		// The engine has already advanced the clock, so the time of this tick is one TICK earlier
+		if (TEST)
+			System.out.printf("t: %.2f X: %.2f Y: %.2f Vx: %.2f Vy: %.2f\n", state.t - TICK, x, y, state.vx, state.vy);
 
-			t += TICK;
+		// Print ball and add a dot to plot the ball's trajectory
+		ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(y + BALL_RAD));
+		trace(x, y);
 
-			if (DEBUG)
-				table.getDisplay().readLine(">");
-		}
+		return true;
+	}
+
+	/**
+	 * Returns a coherent copy of the state of the ball after the last tick. This
+	 * is the way for other threads to read the ball: the getters below each take
+	 * the latest snapshot, so two of them called in a row may come from different
+	 * ticks.
+	 * 
+	 * @return The latest snapshot (never null)
+	 */
+	public ppBallSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	/**
+	 * @return The simulation state of the ball, in which the agent also plays
+	 *         (see ppPaddleAgent). Only for the thread that calls tick(), and
+	 *         for setting the ball up before it is served (other threads use
+	 *         getSnapshot()).
+	 */
+	ppSimState getState()
+	{
+		return state;
+	}
+
+	/**
+	 * @return The trace of the ball
+	 */
+	ppTrace getTrace()
+	{
+		return tracePts;
+	}
 
+	/**
+	 * @return The ppSimEngine.EVENT_* flags raised during the last tick
+	 */
+	public int getEvents()
+	{
+		return events;
 	}
 
 	/**
@@ -253,7 +219,8 @@ public class ppBall extends Thread
 	}
 
 	/**
-	 * Ends the current round.
+	 * Ends the current round. May be called from any thread: the game loop stops
+	 * ticking the ball at its next tick.
 	 */
 	public void interruptGame()
 	{
@@ -265,7 +232,7 @@ public class ppBall extends Thread
 	 */
 	public double getX()
 	{
-		return x;
+		return snapshot.x;
 	}
 
 	/**
@@ -273,7 +240,7 @@ public class ppBall extends Thread
 	 */
 	public double getY()
 	{
-		return y;
+		return snapshot.y;
 	}
 
 	/**
@@ -281,7 +248,7 @@ public class ppBall extends Thread
 	 */
 	public double getVx()
 	{
-		return vx;
+		return snapshot.vx;
 	}
 
 	/**
@@ -289,25 +256,18 @@ public class ppBall extends Thread
 	 */
 	public double getVy()
 	{
-		return vy;
+		return snapshot.vy;
 	}
 
 	/**
-	 * If the trace is currently being shown, removes all existing points and turns
-	 * off the trace in the future (and vice-versa when the trace is currently not
-	 * being shown).
+	 * If the trace is currently being shown, hides it and stops showing it in the
+	 * future (and vice-versa when the trace is currently not being shown). Points
+	 * keep being recorded while the trace is hidden.
 	 */
 	public void toggleTrace()
 	{
 		traceOn = !traceOn;
-
-		for (GOval trace : tracePts)
-		{
-			if (traceOn)
-				table.getDisplay().add(trace);
-			else
-				table.getDisplay().remove(trace);
-		}
+		tracePts.setVisible(traceOn);
 	}
 
 	/**
@@ -328,32 +288,32 @@ public class ppBall extends Thread
 			case OUT_LEFT:
 				ball.setLocation(ppTable.toScrX(agent.getX() - PADDLE_WIDTH / 2), ppTable.toScrY(y + BALL_RAD));
 				trace(agent.getX() - PADDLE_WIDTH / 2 + BALL_RAD, y);
-				table.getDisplay().addPointPlayer();
+				table.getGame().addPointPlayer();
 				break;
 			case OUT_RIGHT:
 				ball.setLocation(ppTable.toScrX(paddle.getX() + PADDLE_WIDTH / 2 - 2 * BALL_RAD), ppTable.toScrY(y + BALL_RAD));
 				trace(paddle.getX() + PADDLE_WIDTH / 2 - BALL_RAD, y);
-				table.getDisplay().addPointAgent();
+				table.getGame().addPointAgent();
 				break;
 			case TOP_AGENT:
 				ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(YMAX));
 				trace(x, YMAX - BALL_RAD);
-				table.getDisplay().addPointPlayer();
+				table.getGame().addPointPlayer();
 				break;
 			case TOP_PLAYER:
 				ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(YMAX));
 				trace(x, YMAX - BALL_RAD);
-				table.getDisplay().addPointAgent();
+				table.getGame().addPointAgent();
 				break;
 			case NO_ENERGY_AGENT:
 				ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(2 * BALL_RAD));
 				trace(x, BALL_RAD);
-				table.getDisplay().addPointPlayer();
+				table.getGame().addPointPlayer();
 				break;
 			case NO_ENERGY_PLAYER:
 				ball.setLocation(ppTable.toScrX(x - BALL_RAD), ppTable.toScrY(2 * BALL_RAD));
 				trace(x, BALL_RAD);
-				table.getDisplay().addPointAgent();
+				table.getGame().addPointAgent();
 				break;
 		}
 
@@ -364,155 +324,15 @@ public class ppBall extends Thread
 	}
 
 	/**
-	 * Draws a trace point if tracing is enabled. In either case, the trace point is
-	 * added to the list of trace points to allow it to be displayed in the future,
-	 * if necessary.
+	 * Adds a point to the trace. The point is drawn if tracing is enabled, and
+	 * kept in any case to allow it to be displayed in the future, if necessary.
 	 * 
 	 * @param x The x-position at which to add the trace point (in meters)
 	 * @param y The y-position at which to add the trace point (in meters)
 	 */
 	private void trace(double x, double y)
 	{
-		GOval trace = new GOval(ppTable.toScrX(x), ppTable.toScrY(y), PT_DIAMETER, PT_DIAMETER);
-		tracePts.add(trace);
-		if (traceOn)
-			table.getDisplay().add(trace);
-	}
-
-	/**
-	 * Calculates the ball's displacement in the x-direction at a given time
-	 * 
-	 * Formula provided by Prof. Ferrie
-	 * 
-	 * @param t   Time (in sec)
-	 * @param v0x Initial x-velocity (in m/s)
-	 * @return The ball's displacement in the x-direction after <code>t</code>
-	 *         seconds
-	 */
-	private static double xDisp(double t, double v0x)
-	{
-		return VT * v0x / G * (1 - Math.exp(-G * t / VT));
-	}
-
-	/**
-	 * Calculates the ball's displacement in the y-direction at a given time
-	 * 
-	 * Formula provided by Prof. Ferrie
-	 * 
-	 * @param t   Time (in sec)
-	 * @param v0y Initial y-velocity (in m/s)
-	 * @return The ball's displacement in the y-direction after <code>t</code>
-	 *         seconds
-	 */
-	private static double yDisp(double t, double v0y)
-	{
-		return VT / G * (VT + v0y) * (1 - Math.exp(-G * t / VT)) - VT * t;
-	}
-
-	/**
-	 * Calculates the x-component of the ball's velocity at a given time
-	 * 
-	 * Formula provided by Prof. Ferrie
-	 * 
-	 * @param t   Time (in sec)
-	 * @param v0x Initial x-velocity (in m/s)
-	 * @return The x-component of the ball's velocity after <code>t</code> seconds
-	 */
-	private static double xVel(double t, double v0x)
-	{
-		return v0x * Math.exp(-G * t / VT);
-	}
-
-	/**
-	 * Calculates the y-component of the ball's velocity at a given time
-	 * 
-	 * Formula provided by Prof. Ferrie
-	 * 
-	 * @param t   Time (in sec)
-	 * @param v0y Initial y-velocity
-	 * @return The y-component of the ball's velocity after <code>t</code> seconds
-	 */
-	private static double yVel(double t, double v0y)
-	{
-		return Math.exp(-G * t / VT) * (v0y + VT) - VT;
-	}
-
-	/**
-	 * Calculates the x-component of the ball's velocity after striking the player's
-	 * paddle or the agent. If the speed exceeds the maximum horizontal speed
-	 * specified in ppSimParams, that max speed is returned instead (with the
-	 * appropriate sign).
-	 * 
-	 * The collision is modeled as perfectly elastic, with only the kinetic energy
-	 * from the ball's horizontal velocity being considered. For the purposes of
-	 * this calculation, the paddle and the agent are both considered to have some
-	 * non-zero x-velocity.
-	 * 
-	 * @param ballVx   The x-component of the ball's velocity (in m/s)
-	 * @param paddleVx The x-component of the paddle's velocity (in m/s)
-	 * @return The ball's x-velocity (in m/s) immediately after striking the paddle
-	 */
-	private static double collisionVox(double ballVx, double paddleVx)
-	{
-		double v0x;
-		double sgn;
-
-		double a = BALL_MASS / PADDLE_MASS * (1 + BALL_MASS / PADDLE_MASS);
-		double b = -2 * BALL_MASS / PADDLE_MASS * (BALL_MASS / PADDLE_MASS * ballVx + paddleVx);
-		double c = (BALL_MASS / PADDLE_MASS * ballVx + paddleVx) * (BALL_MASS / PADDLE_MASS * ballVx + paddleVx)
-				- (BALL_MASS / PADDLE_MASS * ballVx * ballVx + paddleVx * paddleVx);
-
-		// If the paddle is "moving" to the right, take the larger (more positive) root
-		if (paddleVx > 0)
-			sgn = 1;
-		// If the paddle is "moving" to the left, take the smaller (more negative) root
-		else
-			sgn = -1;
-
-		v0x = (-b + sgn * Math.sqrt(b * b - 4 * a * c)) / (2 * a);
-
-		if (Math.abs(v0x) > VX_MAX)
-			return sgn * VX_MAX;
-		else
-			return v0x;
-	}
-
-	/**
-	 * Calculates the y-component of the ball's velocity after striking the player's
-	 * paddle or the agent. If the speed exceeds the maximum vertical speed
-	 * specified in ppSimParams, that max speed is returned instead (with the
-	 * appropriate sign).
-	 * 
-	 * The collision is modeled as perfectly elastic, with only the kinetic energy
-	 * from the ball's vertical velocity being considered.
-	 * 
-	 * @param ballVy   The y-component of the ball's velocity (in m/s)
-	 * @param paddleVy The y-component of the paddle's velocity (in m/s)
-	 * @return The ball's y-velocity (in m/s) immediately after striking the paddle
-	 */
-	private static double collisionVoy(double ballVy, double paddleVy)
-	{
-		double v0y;
-		double sgn;
-
-		double a = BALL_MASS / PADDLE_MASS * (1 + BALL_MASS / PADDLE_MASS);
-		double b = -2 * BALL_MASS / PADDLE_MASS * (BALL_MASS / PADDLE_MASS * ballVy + paddleVy);
-		double c = (BALL_MASS / PADDLE_MASS * ballVy + paddleVy) * (BALL_MASS / PADDLE_MASS * ballVy + paddleVy)
-				- (BALL_MASS / PADDLE_MASS * ballVy * ballVy + paddleVy * paddleVy);
-
-		// If the paddle is moving up or the paddle is stationary and the ball is moving up, take the positive root
-		if (paddleVy > 0 || (paddleVy == 0 && ballVy > 0))
-			sgn = 1;
-		// If the paddle is moving down or the paddle is stationary and the ball is moving down, take the negative root
-		else
-			sgn = -1;
-
-		v0y = (-b + sgn * Math.sqrt(b * b - 4 * a * c)) / (2 * a);
-
-		if (Math.abs(v0y) > VY_MAX)
-			return sgn * VY_MAX;
-		else
-			return v0y;
+		tracePts.addPoint(ppTable.toScrX(x), ppTable.toScrY(y));
 	}
 
 	/**
@@ -520,7 +340,7 @@ public class ppBall extends Thread
 	 * 
 	 * @author louis
 	 */
-	private enum EndState
+	public enum EndState
 	{
 		// Ball out of bounds on the left side (i.e. agent missed)
 		OUT_LEFT,
@@ -534,5 +354,14 @@ public class ppBall extends Thread
 		NO_ENERGY_AGENT,
 		// Ball ran out of energy and was last touched by the player
 		NO_ENERGY_PLAYER;
+
+		/**
+		 * @return TRUE if the agent wins the point when the round ends this way and
+		 *         FALSE if the player does
+		 */
+		public boolean agentScores()
+		{
+			return this == OUT_RIGHT || this == TOP_PLAYER || this == NO_ENERGY_PLAYER;
+		}
 	}
 }
@@ -0,0 +1,121 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+
+/**
+ * Immutable copy of the state of a ball at the end of one tick, published by
+ * ppBall for readers on other threads.
+ * 
+ * ppBall fills a new snapshot after every tick and publishes it through a
+ * volatile reference, so a reader that takes the reference once sees a
+ * coherent set of values (never, say, a new x with the velocity from before a
+ * collision) without locking, and reads it without allocating anything. Only
+ * the writer allocates, once per tick.
+ * 
+ * Besides the current position and velocity, the snapshot carries the ball's
+ * trajectory segment (and the one of the previous tick), so that readers can
+ * predict or interpolate along the same closed form as ppSimEngine.
+ */
+public final class ppBallSnapshot
+{
+	public final long tick; // Number of ticks simulated since the serve
+	public final double time; // Time since the serve (in sec)
+	public final double x, y, vx, vy; // Position (in m) and velocity (in m/s) of the ball
+	public final boolean inPlay;
+	public final int events; // ppSimEngine.EVENT_* flags raised during the tick
+
+	// Trajectory segment the ball is on (see ppSimState)
+	public final double x0, y0, v0x, v0y; // Position and velocity at the start of the segment
+	public final double t; // Time since the start of the segment (in sec)
+	public final double loss; // Collision energy loss factor of the ball
+	public final long volley; // Number of times the ball was served or hit by a paddle
+
+	// Segment the ball was on at the previous tick (the same one, unless the ball bounced or was hit during this tick)
+	public final double prevX0, prevY0, prevV0x, prevV0y;
+	public final double prevStart; // Time since the serve at which that segment started (in sec)
+
+	public final long nanos; // Value of System.nanoTime() when the snapshot was taken
+
+	/**
+	 * Takes a snapshot of the ball in a simulation state.
+	 * 
+	 * @param s        The state to copy
+	 * @param events   The ppSimEngine.EVENT_* flags raised during the tick
+	 * @param previous The snapshot of the previous tick, or null at the serve
+	 */
+	ppBallSnapshot(ppSimState s, int events, ppBallSnapshot previous)
+	{
+		tick = s.tick;
+		time = s.time;
+		x = s.x;
+		y = s.y;
+		vx = s.vx;
+		vy = s.vy;
+		inPlay = s.ballInPlay;
+		this.events = events;
+		x0 = s.x0;
+		y0 = s.y0;
+		v0x = s.v0x;
+		v0y = s.v0y;
+		t = s.t;
+		loss = s.loss;
+		volley = s.volley;
+		if (previous != null)
+		{
+			prevX0 = previous.x0;
+			prevY0 = previous.y0;
+			prevV0x = previous.v0x;
+			prevV0y = previous.v0y;
+			prevStart = previous.time - previous.t;
+		}
+		else
+		{
+			prevX0 = x0;
+			prevY0 = y0;
+			prevV0x = v0x;
+			prevV0y = v0y;
+			prevStart = time - t;
+		}
+		nanos = System.nanoTime();
+	}
+
+	/**
+	 * @return The time since the serve at which the ball was at (x, y): one TICK
+	 *         before the clock of the state, since ppSimEngine advances the clock
+	 *         after computing the position (in sec)
+	 */
+	public double shownTime()
+	{
+		return Math.max(0, time - TICK);
+	}
+
+	/**
+	 * Computes the x-position of the ball at a time between the previous tick and
+	 * this one, along the closed-form trajectory of the segment the ball was on
+	 * at that time (so that a bounce during the tick is followed exactly rather
+	 * than cut across).
+	 * 
+	 * @param when A time since the serve, from shownTime() - TICK to shownTime()
+	 *             (in sec)
+	 * @return The x-position of the ball at that time (in m)
+	 */
+	public double xAt(double when)
+	{
+		double start = time - t;
+		return (when >= start ? x0 + ppSimEngine.xDisp(when - start, v0x) : prevX0 + ppSimEngine.xDisp(when - prevStart, prevV0x));
+	}
+
+	/**
+	 * Computes the y-position of the ball at a time between the previous tick and
+	 * this one (see xAt()).
+	 * 
+	 * @param when A time since the serve, from shownTime() - TICK to shownTime()
+	 *             (in sec)
+	 * @return The y-position of the ball at that time (in m)
+	 */
+	public double yAt(double when)
+	{
+		double start = time - t;
+		return (when >= start ? y0 + ppSimEngine.yDisp(when - start, v0y) : prevY0 + ppSimEngine.yDisp(when - prevStart, prevV0y));
+	}
+}
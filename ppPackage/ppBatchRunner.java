@@ -0,0 +1,316 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Headless Monte Carlo evaluation of the agent: plays many random serves with
+ * ppSimEngine against a reference opponent (the player's paddle controlled like
+ * the agent) on all cores, and counts how each rally ended.
+ * 
+ * The serves are split into blocks of a fixed size. Each block gets its own
+ * ppRandom, split from a root generator seeded with the batch seed before any
+ * work starts, so the results for a given seed are identical no matter how
+ * many threads play the blocks.
+ */
+public class ppBatchRunner
+{
+	static final int BLOCK_SIZE = 256; // Serves per block (fixed so that the split of the random stream never depends on the thread count)
+	static final long MAX_TICKS = 60000; // Rallies still in progress after this many ticks (10 minutes of play) are counted as unfinished
+
+	/**
+	 * Plays a batch of serves.
+	 * 
+	 * @param seed         Seed of the batch (e.g. RSEED)
+	 * @param serves       The number of serves to play
+	 * @param agentMillis  The agent's reaction time (in milliseconds)
+	 * @param paddleMillis The reaction time of the opponent on the player's side
+	 *                     (in milliseconds)
+	 * @param pool         The pool in which to play the blocks of serves
+	 * @return The aggregated outcome of all the serves
+	 * @throws IllegalArgumentException If <code>serves</code> is negative
+	 */
+	public static Result run(long seed, int serves, int agentMillis, int paddleMillis, ForkJoinPool pool)
+	{
+		if (serves < 0)
+			throw new IllegalArgumentException("Negative number of serves: " + serves);
+		long[] blockSeeds = blockSeeds(seed, serves);
+		return pool.invoke(batch(ppSimConfig.DEFAULT, ppAgentConfig.getDefault(agentMillis), ppAgentConfig.getReference(paddleMillis), blockSeeds, 0, blockSeeds.length, serves));
+	}
+
+	/**
+	 * @param seed   Seed of the batch
+	 * @param serves The number of serves in the batch
+	 * @return The seeds of the blocks of the batch
+	 */
+	static long[] blockSeeds(long seed, int serves)
+	{
+		ppRandom root = new ppRandom(seed);
+		long[] blockSeeds = new long[(serves + BLOCK_SIZE - 1) / BLOCK_SIZE];
+
+		for (int b = 0; b < blockSeeds.length; b++)
+			blockSeeds[b] = root.split().getSeed();
+		return blockSeeds;
+	}
+
+	/**
+	 * Creates the task that plays some of the blocks of a batch of serves, to be
+	 * run in a pool.
+	 * 
+	 * @param config     The physics constants to play with
+	 * @param agent      The agent (on the left side)
+	 * @param opponent   The opponent on the player's side
+	 * @param blockSeeds Seeds of all the blocks of the batch (see blockSeeds())
+	 * @param from       Index of the first block to play
+	 * @param to         Index after the last block to play
+	 * @param serves     The number of serves in the whole batch
+	 * @return The task, which returns the aggregated outcome of the blocks
+	 */
+	static RecursiveTask<Result> batch(ppSimConfig config, ppAgentConfig agent, ppAgentConfig opponent, long[] blockSeeds, int from, int to, int serves)
+	{
+		return new Blocks(config, agent, opponent, blockSeeds, from, to, serves);
+	}
+
+	/**
+	 * Plays one block of serves on the calling thread.
+	 * 
+	 * @param config    The physics constants to play with
+	 * @param agent     The agent (on the left side)
+	 * @param opponent  The opponent on the player's side
+	 * @param blockSeed Seed of the block's random stream
+	 * @param serves    The number of serves in the block
+	 * @return The outcome of the block
+	 */
+	static Result playBlock(ppSimConfig config, ppAgentConfig agent, ppAgentConfig opponent, long blockSeed, int serves)
+	{
+		ppRandom rgen = new ppRandom(blockSeed);
+		ppSimState s = new ppSimState();
+		Result result = new Result();
+
+		s.setConfig(config);
+		agent.applyLeft(s);
+		opponent.applyRight(s);
+
+		for (int i = 0; i < serves; i++)
+		{
+			serveRandom(s, rgen);
+			result.add(ppSimEngine.playRally(s, MAX_TICKS), s.tick);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Puts both paddles back at their initial positions and serves a random ball.
+	 * 
+	 * @param s    The state to serve in
+	 * @param rgen The random stream to draw the initial conditions from
+	 */
+	static void serveRandom(ppSimState s, ppRandom rgen)
+	{
+		// Same draws, in the same order, as ppSimPaddleAgent.newBall() (with the ranges of the state's configuration)
+		ppSimConfig c = s.config;
+		double randYinit = rgen.nextDouble(YINIT_MIN, YINIT_MAX);
+		double randLoss = rgen.nextDouble(c.lossMin, c.lossMax);
+		double randV0 = rgen.nextDouble(c.v0Min, c.v0Max);
+		double randTheta = rgen.nextDouble(c.thetaMin, c.thetaMax);
+
+		s.agentY = AGENT_YINIT;
+		s.paddleY = PADDLE_YINIT;
+		ppSimEngine.serve(s, XINIT, randYinit, randV0, randTheta, randLoss);
+	}
+
+	/**
+	 * Splits a range of blocks in half until a single block is left, which is
+	 * then played directly.
+	 */
+	@SuppressWarnings("serial")
+	private static class Blocks extends RecursiveTask<Result>
+	{
+		private final ppSimConfig config;
+		private final ppAgentConfig agent;
+		private final ppAgentConfig opponent;
+		private final long[] blockSeeds;
+		private final int from;
+		private final int to;
+		private final int serves;
+
+		/**
+		 * @param config     The physics constants to play with
+		 * @param agent      The agent (on the left side)
+		 * @param opponent   The opponent on the player's side
+		 * @param blockSeeds Seeds of all the blocks of the batch
+		 * @param from       Index of the first block to play
+		 * @param to         Index after the last block to play
+		 * @param serves     Total number of serves in the batch
+		 */
+		Blocks(ppSimConfig config, ppAgentConfig agent, ppAgentConfig opponent, long[] blockSeeds, int from, int to, int serves)
+		{
+			this.config = config;
+			this.agent = agent;
+			this.opponent = opponent;
+			this.blockSeeds = blockSeeds;
+			this.from = from;
+			this.to = to;
+			this.serves = serves;
+		}
+
+		protected Result compute()
+		{
+			if (to - from <= 0)
+				return new Result();
+			if (to - from == 1)
+				return playBlock(config, agent, opponent, blockSeeds[from], Math.min(BLOCK_SIZE, serves - from * BLOCK_SIZE));
+
+			int mid = (from + to) >>> 1;
+			Blocks left = new Blocks(config, agent, opponent, blockSeeds, from, mid, serves);
+			left.fork();
+			Result result = new Blocks(config, agent, opponent, blockSeeds, mid, to, serves).compute();
+			result.merge(left.join());
+			return result;
+		}
+	}
+
+	/**
+	 * Aggregated outcome of a number of rallies. Only integer counts are kept, so
+	 * merging is exact and independent of the order of the blocks.
+	 */
+	public static class Result
+	{
+		final long[] counts = new long[EndState.values().length]; // Number of rallies that ended in each way (indexed by ordinal)
+		long unfinished; // Number of rallies still in progress after MAX_TICKS
+		long ticks; // Total number of ticks played
+		long ticksSquared; // Sum of the squares of the lengths of the rallies (in ticks)
+
+		/**
+		 * Counts one rally.
+		 * 
+		 * @param end   The reason the rally ended, or null if it was cut off
+		 * @param ticks The length of the rally (in ticks)
+		 */
+		void add(EndState end, long ticks)
+		{
+			if (end == null)
+				unfinished++;
+			else
+				counts[end.ordinal()]++;
+			this.ticks += ticks;
+			ticksSquared += ticks * ticks;
+		}
+
+		/**
+		 * Adds the counts of another result to this one.
+		 * 
+		 * @param other The result to add
+		 */
+		void merge(Result other)
+		{
+			for (int i = 0; i < counts.length; i++)
+				counts[i] += other.counts[i];
+			unfinished += other.unfinished;
+			ticks += other.ticks;
+			ticksSquared += other.ticksSquared;
+		}
+
+		/**
+		 * @param end An end state
+		 * @return The number of rallies that ended that way
+		 */
+		public long getCount(EndState end)
+		{
+			return counts[end.ordinal()];
+		}
+
+		/**
+		 * @return The number of rallies that were cut off after MAX_TICKS
+		 */
+		public long getUnfinished()
+		{
+			return unfinished;
+		}
+
+		/**
+		 * @return The number of rallies that ended
+		 */
+		public long getFinished()
+		{
+			long finished = 0;
+			for (long count : counts)
+				finished += count;
+			return finished;
+		}
+
+		/**
+		 * @return The number of rallies won by the agent
+		 */
+		public long getAgentWins()
+		{
+			long wins = 0;
+			for (EndState end : EndState.values())
+				if (end.agentScores())
+					wins += counts[end.ordinal()];
+			return wins;
+		}
+
+		/**
+		 * @return The fraction of the finished rallies won by the agent (0 if no
+		 *         rally ended, which getFinished() tells apart from a real 0)
+		 */
+		public double getAgentWinRate()
+		{
+			long finished = getFinished();
+			return (finished == 0 ? 0 : (double) getAgentWins() / finished);
+		}
+
+		/**
+		 * @return The average length of a rally (in seconds)
+		 */
+		public double getMeanRallyTime()
+		{
+			return ticks * TICK / (getFinished() + unfinished);
+		}
+
+		/**
+		 * @return The standard deviation of the length of a rally (in seconds)
+		 */
+		public double getRallyTimeStdDev()
+		{
+			double n = getFinished() + unfinished;
+			double mean = ticks / n;
+			return Math.sqrt(Math.max(0, ticksSquared / n - mean * mean)) * TICK;
+		}
+	}
+
+	/**
+	 * Plays a batch of serves and prints the outcome.
+	 * 
+	 * @param args Number of serves (default 100000), number of threads (default:
+	 *             all cores), agent reaction time in ms (default 200), opponent
+	 *             reaction time in ms (default 100), seed (default RSEED)
+	 */
+	public static void main(String[] args)
+	{
+		int serves = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		int threads = (args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors());
+		int agentMillis = (args.length > 2 ? Integer.parseInt(args[2]) : 200);
+		int paddleMillis = (args.length > 3 ? Integer.parseInt(args[3]) : 100);
+		long seed = (args.length > 4 ? Long.parseLong(args[4]) : RSEED);
+
+		ppInterceptTable.loadForDefaultAgent();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		Result result = run(seed, serves, agentMillis, paddleMillis, pool);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("%-18s %10s\n", "End state", "Count");
+		for (EndState end : EndState.values())
+			System.out.printf("%-18s %10d\n", end, result.getCount(end));
+		System.out.printf("%-18s %10d\n", "UNFINISHED", result.getUnfinished());
+		System.out.printf("Agent win rate:    %.4f\n", result.getAgentWinRate());
+		System.out.printf("Mean rally:        %.2f s\n", result.getMeanRallyTime());
+		System.out.printf("%d serves on %d threads in %.2f s (%.0f serves/s)\n", serves, threads, seconds, serves / seconds);
+	}
+}
@@ -0,0 +1,375 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Micro-benchmarks for the hot paths of the simulation: the trajectory
+ * formulas, the collision and contact functions, the agent's predictions, and
+ * whole headless rallies (tick stepper and event-driven solver).
+ * 
+ * Each benchmark is warmed up for a second (so that the JIT has compiled it)
+ * and then run for several measured rounds, and reports the time and the heap
+ * allocation per operation, taken from the thread's allocation counter. The
+ * inputs are drawn in advance from a ppRandom with a fixed seed and cycled
+ * through, so the results are repeatable and the JIT cannot fold the work into
+ * a constant; every result is added to a sink that is printed at the end for
+ * the same reason.
+ * 
+ * Run main() before and after any change to the engine and compare the tables.
+ */
+public class ppBenchmark
+{
+	static final int INPUTS = 1 << 12; // Number of precomputed inputs per benchmark (power of 2)
+	static final long WARMUP_NS = 1000000000; // Time spent warming up each benchmark (1 s)
+	static final int ROUNDS = 10;
+	static final long ROUND_NS = 200000000; // Target duration of one round (0.2 s)
+
+	private static final double[] t = new double[INPUTS];
+	private static final double[] vx = new double[INPUTS];
+	private static final double[] vy = new double[INPUTS];
+	private static final double[] x = new double[INPUTS];
+	private static final double[] y = new double[INPUTS];
+	private static final double[] paddleV = new double[INPUTS];
+	private static final double[][] serves = new double[INPUTS][];
+
+	private static double sink;
+
+	/**
+	 * One benchmark: a loop of n operations. The loop is written out in each
+	 * benchmark rather than calling a method per operation, so that the call does
+	 * not become part of the measurement.
+	 */
+	private static abstract class Benchmark
+	{
+		final String name;
+
+		Benchmark(String name)
+		{
+			this.name = name;
+		}
+
+		/**
+		 * Runs the operation n times.
+		 * 
+		 * @param n The number of operations
+		 * @return A value depending on every result (added to the sink)
+		 */
+		abstract double run(long n);
+	}
+
+	/**
+	 * Fills the input arrays with values spanning the ranges seen in play.
+	 */
+	private static void makeInputs()
+	{
+		ppRandom rgen = new ppRandom(RSEED);
+
+		for (int i = 0; i < INPUTS; i++)
+		{
+			t[i] = rgen.nextDouble(0, 2);
+			vx[i] = rgen.nextDouble(-VX_MAX, VX_MAX);
+			vy[i] = rgen.nextDouble(-VY_MAX, VY_MAX);
+			x[i] = rgen.nextDouble(0, XMAX);
+			y[i] = rgen.nextDouble(0, YMAX);
+			paddleV[i] = rgen.nextDouble(-AGENT_MAX_SPEED, AGENT_MAX_SPEED);
+			serves[i] = new double[] { rgen.nextDouble(YINIT_MIN, YINIT_MAX), rgen.nextDouble(LOSS_MIN, LOSS_MAX), rgen.nextDouble(V0_MIN, V0_MAX),
+					rgen.nextDouble(THETA_MIN, THETA_MAX) };
+		}
+	}
+
+	/**
+	 * @return Every benchmark, in the order they are reported
+	 */
+	private static Benchmark[] benchmarks()
+	{
+		return new Benchmark[] {
+				new Benchmark("xDisp+yDisp+xVel+yVel")
+				{
+					double run(long n)
+					{
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							sum += ppSimEngine.xDisp(t[i], vx[i]) + ppSimEngine.yDisp(t[i], vy[i]) + ppSimEngine.xVel(t[i], vx[i]) + ppSimEngine.yVel(t[i], vy[i]);
+						}
+						return sum;
+					}
+				},
+				new Benchmark("ppDecayKernel tick")
+				{
+					double run(long n)
+					{
+						ppSimState s = new ppSimState();
+						double sum = 0;
+						s.v0x = VX_MAX;
+						s.v0y = VY_MAX;
+						ppDecayKernel.start(s);
+						for (long k = 0; k < n; k++)
+						{
+							ppDecayKernel.evaluate(s);
+							sum += s.x + s.y + s.vx + s.vy;
+							s.t += TICK;
+							ppDecayKernel.advance(s);
+							if (s.decayTicks == 1000)
+							{
+								s.t = 0;
+								ppDecayKernel.start(s);
+							}
+						}
+						return sum;
+					}
+				},
+				new Benchmark("collisionVox")
+				{
+					double run(long n)
+					{
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							sum += ppSimEngine.collisionVox(vx[i], paddleV[i]);
+						}
+						return sum;
+					}
+				},
+				new Benchmark("collisionVoy")
+				{
+					double run(long n)
+					{
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							sum += ppSimEngine.collisionVoy(vy[i], paddleV[i]);
+						}
+						return sum;
+					}
+				},
+				new Benchmark("contact")
+				{
+					double run(long n)
+					{
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							if (ppSimEngine.contact(PADDLE_XINIT, y[(i + 1) & (INPUTS - 1)], x[i], y[i], (i & 1) == 0))
+								sum++;
+						}
+						return sum;
+					}
+				},
+				new Benchmark("predictTime+predictY")
+				{
+					double run(long n)
+					{
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							double ttc = ppSimEngine.predictTime(x[i], vx[i]);
+							sum += ppSimEngine.predictY(y[i], vy[i], ttc);
+						}
+						return sum;
+					}
+				},
+				new Benchmark("intercept (physics)")
+				{
+					double run(long n)
+					{
+						ppSimState s = new ppSimState();
+						ppInterceptPredictor predictor = new ppInterceptPredictor(true, ppInterceptPredictor.Strategy.PHYSICS);
+						double sum = 0;
+						s.loss = (LOSS_MIN + LOSS_MAX) / 2;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							s.x0 = XMAX / 2 + x[i] / 2;
+							s.y0 = Math.max(BALL_RAD, y[i]);
+							s.v0x = -1 - Math.abs(vx[i]);
+							s.v0y = vy[i];
+							s.volley++; // A new volley every time, so the prediction is never cached
+							sum += predictor.predict(s, AGENT_XINIT) + predictor.getTargetY();
+						}
+						return sum;
+					}
+				},
+				new Benchmark("intercept (table)")
+				{
+					double run(long n)
+					{
+						ppInterceptTable table = ppInterceptTable.loadDefault();
+						double[] result = new double[2];
+						double sum = 0;
+						for (long k = 0; k < n; k++)
+						{
+							int i = (int) k & (INPUTS - 1);
+							table.lookup(XMAX / 2 + x[i] / 2, Math.max(BALL_RAD, y[i]), -1 - Math.abs(vx[i]), vy[i], LOSS_MIN, result);
+							sum += result[0] + result[1];
+						}
+						return sum;
+					}
+				},
+				new Benchmark("rollback save+restore")
+				{
+					double run(long n)
+					{
+						ppRollback history = new ppRollback(NET_HISTORY);
+						ppSimState s = new ppSimState();
+						ppRandom rgen = new ppRandom(RSEED);
+						double sum = 0;
+						ppBatchRunner.serveRandom(s, rgen);
+						for (long k = 0; k < n; k++)
+						{
+							history.save(k, s, rgen);
+							history.restore(k - (k & 7), s, rgen);
+							sum += s.tick;
+							ppSimEngine.stepBall(s);
+						}
+						return sum;
+					}
+				},
+				new Benchmark("state hash")
+				{
+					double run(long n)
+					{
+						ppSimState s = new ppSimState();
+						long h = 0;
+						ppBatchRunner.serveRandom(s, new ppRandom(RSEED));
+						for (long k = 0; k < n; k++)
+						{
+							s.tick = k;
+							h = ppStateHash.hash(h, s);
+						}
+						return h;
+					}
+				},
+				new Benchmark("rally (tick stepper)")
+				{
+					double run(long n)
+					{
+						return playRallies(n, false);
+					}
+				},
+				new Benchmark("rally (event solver)")
+				{
+					double run(long n)
+					{
+						return playRallies(n, true);
+					}
+				} };
+	}
+
+	/**
+	 * Plays n headless rallies, agent against a reference opponent, from the
+	 * precomputed serves.
+	 * 
+	 * @param n      The number of rallies
+	 * @param events TRUE to use ppEventSolver, FALSE to use the tick stepper
+	 * @return The total number of ticks played
+	 */
+	private static double playRallies(long n, boolean events)
+	{
+		ppSimState s = new ppSimState();
+		double ticks = 0;
+
+		ppSimEngine.setReactTime(s, 200);
+		ppSimEngine.setPaddleAgent(s, 100);
+		for (long k = 0; k < n; k++)
+		{
+			double[] serve = serves[(int) k & (INPUTS - 1)];
+			s.agentY = AGENT_YINIT;
+			s.paddleY = PADDLE_YINIT;
+			ppSimEngine.serve(s, XINIT, serve[0], serve[2], serve[3], serve[1]);
+			if (events)
+				ppEventSolver.playRally(s, ppBatchRunner.MAX_TICKS);
+			else
+				ppSimEngine.playRally(s, ppBatchRunner.MAX_TICKS);
+			ticks += s.tick;
+		}
+
+		return ticks;
+	}
+
+	/**
+	 * @return The number of bytes allocated so far by the current thread, or -1 if
+	 *         the JVM does not provide it
+	 */
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	/**
+	 * Measures one benchmark.
+	 * 
+	 * @param b The benchmark
+	 * @return The mean time (in ns), the standard deviation of the time over the
+	 *         rounds (in ns) and the allocation (in bytes) per operation
+	 */
+	private static double[] measure(Benchmark b)
+	{
+		// Warm up, doubling the number of operations until a run is long enough to time, then size the rounds from the last run
+		long n = 1;
+		long elapsed = 0;
+		long warmupEnd = System.nanoTime() + WARMUP_NS;
+		while (System.nanoTime() < warmupEnd)
+		{
+			long start = System.nanoTime();
+			sink += b.run(n);
+			elapsed = System.nanoTime() - start;
+			if (elapsed < ROUND_NS / 10)
+				n *= 2;
+		}
+		n = Math.max(1, (long) ((double) n * ROUND_NS / Math.max(1, elapsed)));
+
+		double sum = 0;
+		double sumSq = 0;
+		long bytes = 0;
+		for (int r = 0; r < ROUNDS; r++)
+		{
+			long alloc = allocatedBytes();
+			long start = System.nanoTime();
+			sink += b.run(n);
+			double ns = (double) (System.nanoTime() - start) / n;
+			bytes += allocatedBytes() - alloc;
+			sum += ns;
+			sumSq += ns * ns;
+		}
+
+		double mean = sum / ROUNDS;
+		return new double[] { mean, Math.sqrt(Math.max(0, sumSq / ROUNDS - mean * mean)), allocatedBytes() < 0 ? -1 : (double) bytes / (n * ROUNDS) };
+	}
+
+	/**
+	 * Runs the benchmarks and prints the results.
+	 * 
+	 * @param args Names (or parts of names) of the benchmarks to run (default: all)
+	 */
+	public static void main(String[] args)
+	{
+		makeInputs();
+
+		System.out.printf("%-24s %12s %10s %10s\n", "Benchmark", "ns/op", "+/-", "B/op");
+		for (Benchmark b : benchmarks())
+		{
+			boolean selected = (args.length == 0);
+			for (String arg : args)
+				selected |= b.name.contains(arg);
+			if (!selected)
+				continue;
+
+			double[] result = measure(b);
+			System.out.printf("%-24s %12.2f %10.2f %10s\n", b.name, result[0], result[1], result[2] < 0 ? "n/a" : String.format("%.2f", result[2]));
+		}
+
+		if (sink == 0)
+			System.out.println();
+	}
+}
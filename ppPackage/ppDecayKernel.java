@@ -0,0 +1,155 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+
+/**
+ * Incremental evaluation of the ball's closed-form trajectory for the tick
+ * stepper.
+ * 
+ * Every one of xDisp, yDisp, xVel and yVel depends on time only through the
+ * decay factor exp(-G * t / VT). Since t grows by exactly TICK between two
+ * ticks, the factor can be kept in the state and multiplied by the constant
+ * exp(-G * TICK / VT) instead of calling StrictMath.exp() four times per tick.
+ * 
+ * Each multiplication adds at most one rounding error (relative error 2^-53)
+ * on top of the rounding error of DECAY_PER_TICK itself, so after n ticks the
+ * factor is off by at most about 2n * 2^-53 relative to exp(-G * t / VT). The
+ * factor is recomputed exactly every RESYNC_TICKS ticks, which bounds the
+ * relative error to about 128 * 2^-53 = 1.4e-14, i.e. less than 1e-12 m in
+ * position and 1e-12 m/s in velocity for any speed the paddles can produce.
+ * Running main() measures both the drift and the speedup.
+ */
+public strictfp class ppDecayKernel
+{
+	static final double DECAY_PER_TICK = StrictMath.exp(-G * TICK / VT); // Factor by which exp(-G * t / VT) shrinks every tick (states keep their own, in their ppSimConfig)
+	static final int RESYNC_TICKS = 64; // Number of ticks between two exact recomputations of the factor (power of 2)
+
+	/**
+	 * Resets the decay factor at the start of a new trajectory segment (t = 0).
+	 * 
+	 * @param s The state to update
+	 */
+	static void start(ppSimState s)
+	{
+		s.decay = 1;
+		s.decayTicks = 0;
+	}
+
+	/**
+	 * Advances the decay factor by one TICK. Must be called after s.t has been
+	 * increased by TICK.
+	 * 
+	 * @param s The state to update
+	 */
+	static void advance(ppSimState s)
+	{
+		s.decayTicks++;
+		if ((s.decayTicks & (RESYNC_TICKS - 1)) == 0)
+			s.decay = StrictMath.exp(-G * s.t / s.config.vt);
+		else
+			s.decay *= s.config.decayPerTick;
+	}
+
+	/**
+	 * Sets the decay factor for an arbitrary time in the current segment (used
+	 * when jumping ahead by more than one TICK).
+	 * 
+	 * @param s The state to update
+	 */
+	static void sync(ppSimState s)
+	{
+		s.decay = StrictMath.exp(-G * s.t / s.config.vt);
+		s.decayTicks = 0;
+	}
+
+	/**
+	 * Computes the ball's position and velocity at time s.t from the decay
+	 * factor. Equivalent to xDisp, yDisp, xVel and yVel in ppSimEngine.
+	 * 
+	 * @param s The state to update
+	 */
+	static void evaluate(ppSimState s)
+	{
+		double d = s.decay;
+		double vt = s.config.vt;
+
+		s.x = s.x0 + vt * s.v0x / G * (1 - d);
+		s.y = s.y0 + vt / G * (vt + s.v0y) * (1 - d) - vt * s.t;
+		s.vx = s.v0x * d;
+		s.vy = d * (s.v0y + vt) - vt;
+	}
+
+	/**
+	 * Measures the maximum difference between the incremental kernel and the exact
+	 * formulas over long segments at the maximum speeds, and the time taken by
+	 * each to evaluate them.
+	 * 
+	 * @param args The number of ticks per segment (default 100000)
+	 */
+	public static void main(String[] args)
+	{
+		int ticks = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		ppSimState s = new ppSimState();
+		double maxPosErr = 0;
+		double maxVelErr = 0;
+
+		// Drift
+		s.x0 = XINIT;
+		s.y0 = YMAX / 2;
+		s.v0x = VX_MAX;
+		s.v0y = VY_MAX;
+		s.t = 0;
+		start(s);
+		for (int i = 0; i < ticks; i++)
+		{
+			evaluate(s);
+			maxPosErr = Math.max(maxPosErr, Math.abs(s.x - (s.x0 + ppSimEngine.xDisp(s.t, s.v0x))));
+			maxPosErr = Math.max(maxPosErr, Math.abs(s.y - (s.y0 + ppSimEngine.yDisp(s.t, s.v0y))));
+			maxVelErr = Math.max(maxVelErr, Math.abs(s.vx - ppSimEngine.xVel(s.t, s.v0x)));
+			maxVelErr = Math.max(maxVelErr, Math.abs(s.vy - ppSimEngine.yVel(s.t, s.v0y)));
+			s.t += TICK;
+			advance(s);
+		}
+
+		// Speed (both loops are run several times so that the JIT has compiled them)
+		double exactNs = 0;
+		double kernelNs = 0;
+		double sink = 0;
+		for (int round = 0; round < 5; round++)
+		{
+			long start = System.nanoTime();
+			s.t = 0;
+			for (int i = 0; i < ticks; i++)
+			{
+				s.x = s.x0 + ppSimEngine.xDisp(s.t, s.v0x);
+				s.y = s.y0 + ppSimEngine.yDisp(s.t, s.v0y);
+				s.vx = ppSimEngine.xVel(s.t, s.v0x);
+				s.vy = ppSimEngine.yVel(s.t, s.v0y);
+				sink += s.x + s.y + s.vx + s.vy;
+				s.t += TICK;
+			}
+			exactNs = (double) (System.nanoTime() - start) / ticks;
+
+			start = System.nanoTime();
+			s.t = 0;
+			start(s);
+			for (int i = 0; i < ticks; i++)
+			{
+				evaluate(s);
+				sink += s.x + s.y + s.vx + s.vy;
+				s.t += TICK;
+				advance(s);
+			}
+			kernelNs = (double) (System.nanoTime() - start) / ticks;
+		}
+
+		System.out.printf("Ticks per segment:      %d (resync every %d)\n", ticks, RESYNC_TICKS);
+		System.out.printf("Max position drift:     %.3e m\n", maxPosErr);
+		System.out.printf("Max velocity drift:     %.3e m/s\n", maxVelErr);
+		System.out.printf("Exact formulas:         %.2f ns/tick\n", exactNs);
+		System.out.printf("Incremental kernel:     %.2f ns/tick\n", kernelNs);
+		System.out.printf("Speedup:                %.1fx\n", exactNs / kernelNs);
+		if (sink == 0)
+			System.out.println();
+	}
+}
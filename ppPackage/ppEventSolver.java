@@ -0,0 +1,487 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.Random;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Event-driven alternative to stepping a rally every TICK.
+ * 
+ * Between two collisions the ball follows the closed-form trajectory in
+ * ppSimEngine, so instead of sampling it every TICK this class solves directly
+ * for the time of the next event: floor contact (y = BALL_RAD), the agent's
+ * plane, the paddle's plane, or the ceiling. A rally then costs a few
+ * root-finds per bounce instead of one evaluation per tick, and a fast ball can
+ * no longer tunnel a few millimetres past a surface between two ticks. Each
+ * root-find takes several exp() evaluations, so this only pays off on long
+ * rallies: against a stationary paddle (main()) it is about as fast as the tick
+ * stepper, with both sides played by agents (ppBenchmark) about 1.3 times
+ * faster.
+ * 
+ * The agent still makes its decisions on the TICK grid (every agentDelay
+ * ticks), based on the ball's state at that instant, and moves at constant
+ * velocity in between, so those decisions are stops too. The same goes for the
+ * player's paddle when it is controlled like the agent; otherwise it is held at
+ * the position and velocity stored in the state. A stop only moves the clock
+ * and the paddles: the time of the next ball event, which cannot change before
+ * that event, is solved once, and the ball itself is only evaluated at a stop
+ * if the deciding predictor reads its current state (LINEAR and TABLE do, the
+ * cached PHYSICS prediction does not).
+ * 
+ * Running main() compares this mode against ppSimEngine's tick stepper, and
+ * times both.
+ */
+public strictfp class ppEventSolver
+{
+	private static final double ROOT_TOL = 1e-12; // Convergence tolerance on event times (in sec)
+	private static final int MAX_ITER = 50; // Maximum number of Newton iterations per root
+
+	/**
+	 * Advances the rally to its next ball event (collision or end of the rally),
+	 * processing any agent decisions that happen before it.
+	 * 
+	 * On return, the ball's position and velocity in the state are those at the
+	 * time of the event (after the collision, if there was one). In between, at
+	 * the decision stops, they are only brought up to date for a predictor that
+	 * reads them.
+	 * 
+	 * @param s       The state to advance (must already contain a served ball)
+	 * @param maxTime Time since the serve (in sec) after which to stop even if no
+	 *                event has happened
+	 * @return The events that occurred (ppSimEngine.EVENT_* flags), or EVENT_NONE
+	 *         if <code>maxTime</code> was reached first
+	 */
+	public static int advance(ppSimState s, double maxTime)
+	{
+		if (!s.ballInPlay)
+			return ppSimEngine.EVENT_NONE;
+
+		// Time of the next ball event (the segment only changes at an event, so the decisions before it do not move it)
+		double agentPlane = s.agentX + PADDLE_WIDTH / 2 + BALL_RAD;
+		double paddlePlane = s.paddleX - PADDLE_WIDTH / 2 - BALL_RAD;
+		double tFloor = floorTime(s.y0, s.v0y, s.config.vt);
+		double tCeiling = ceilingTime(s.y0, s.v0y, s.config.vt);
+		double tWall = (s.v0x < 0 ? planeTime(s.x0, s.v0x, agentPlane, s.config.vt) : planeTime(s.x0, s.v0x, paddlePlane, s.config.vt));
+		double tEvent = Math.min(tFloor, Math.min(tCeiling, tWall));
+		double eventTime = s.time + (tEvent - s.t);
+
+		while (true)
+		{
+			// Time of the next agent decision (an agent acts on ticks where its counter reaches its delay - 1)
+			long agentTick = s.tick + Math.floorMod(s.agentDelay - 1 - s.agentCounter, s.agentDelay);
+			long paddleTick = (s.paddleAgent ? s.tick + Math.floorMod(s.paddleDelay - 1 - s.paddleCounter, s.paddleDelay) : Long.MAX_VALUE);
+			long decisionTick = Math.min(agentTick, paddleTick);
+			double decisionTime = decisionTick * TICK;
+
+			if (decisionTime < eventTime && decisionTime <= maxTime)
+			{
+				advanceClock(s, decisionTime);
+				if ((decisionTick == agentTick && s.agentPredictor.readsBall(s)) || (decisionTick == paddleTick && s.paddlePredictor.readsBall(s)))
+					evaluateBall(s);
+				if (decisionTick == agentTick)
+					ppSimEngine.decideAgent(s);
+				if (decisionTick == paddleTick)
+					ppSimEngine.decidePaddleAgent(s);
+				s.agentCounter = (int) ((s.agentCounter + decisionTick + 1 - s.tick) % s.agentDelay);
+				if (s.paddleAgent)
+					s.paddleCounter = (int) ((s.paddleCounter + decisionTick + 1 - s.tick) % s.paddleDelay);
+				s.tick = decisionTick + 1;
+				continue;
+			}
+			if (eventTime > maxTime)
+			{
+				advanceTo(s, maxTime);
+				return ppSimEngine.EVENT_NONE;
+			}
+
+			advanceTo(s, eventTime);
+			if (tEvent == tFloor)
+				return floorBounce(s);
+			else if (tEvent == tWall)
+				return (s.vx < 0 ? agentHit(s) : paddleHit(s));
+			else
+				return end(s, s.vx < 0 ? EndState.TOP_PLAYER : EndState.TOP_AGENT, ppSimEngine.EVENT_NONE);
+		}
+	}
+
+	/**
+	 * Plays the rally until it ends, jumping from event to event, or until
+	 * <code>maxTicks</code> ticks' worth of time has elapsed.
+	 * 
+	 * @param s        The state to advance (must already contain a served ball)
+	 * @param maxTicks The maximum number of ticks to simulate
+	 * @return The reason the rally ended, or null if it was still in progress after
+	 *         <code>maxTicks</code> ticks
+	 */
+	public static EndState playRally(ppSimState s, long maxTicks)
+	{
+		double maxTime = maxTicks * TICK;
+
+		while (s.ballInPlay && s.time < maxTime)
+			advance(s, maxTime);
+
+		return s.endState;
+	}
+
+	/**
+	 * Moves the ball and the agent forward to the given time since the serve.
+	 * 
+	 * @param s    The state to update
+	 * @param time The time since the serve to move to (in sec)
+	 */
+	private static void advanceTo(ppSimState s, double time)
+	{
+		advanceClock(s, time);
+		evaluateBall(s);
+	}
+
+	/**
+	 * Moves the clock and the paddles forward to the given time since the serve,
+	 * leaving the ball's position and velocity (and decay factor) as they were.
+	 * 
+	 * @param s    The state to update
+	 * @param time The time since the serve to move to (in sec)
+	 */
+	private static void advanceClock(ppSimState s, double time)
+	{
+		double dt = time - s.time;
+
+		s.agentY = ppSimEngine.clampPaddleY(s.agentY + dt * s.agentVy);
+		if (s.paddleAgent)
+			s.paddleY = ppSimEngine.clampPaddleY(s.paddleY + dt * s.paddleVy);
+		s.t += dt;
+		s.time = time;
+	}
+
+	/**
+	 * Computes the ball's position and velocity at the current time from its
+	 * trajectory segment.
+	 * 
+	 * @param s The state to update
+	 */
+	private static void evaluateBall(ppSimState s)
+	{
+		ppDecayKernel.sync(s);
+		ppDecayKernel.evaluate(s);
+	}
+
+	/**
+	 * Bounces the ball off the floor, or ends the rally if it does not have enough
+	 * energy left.
+	 * 
+	 * @param s The state to update (ball exactly at the floor)
+	 * @return The events that occurred
+	 */
+	private static int floorBounce(ppSimState s)
+	{
+		double KEx = 0.5 * BALL_MASS * s.vx * s.vx * (1 - s.loss);
+		double KEy = 0.5 * BALL_MASS * s.vy * s.vy * (1 - s.loss);
+
+		if (KEx + KEy < KE_MIN)
+			return end(s, s.vx < 0 ? EndState.NO_ENERGY_PLAYER : EndState.NO_ENERGY_AGENT, ppSimEngine.EVENT_FLOOR);
+
+		double v0x = Math.sqrt(2 * KEx / BALL_MASS);
+		startSegment(s, s.x, BALL_RAD, s.vx < 0 ? -v0x : v0x, Math.sqrt(2 * KEy / BALL_MASS));
+		return ppSimEngine.EVENT_FLOOR;
+	}
+
+	/**
+	 * Returns the ball from the agent's plane, or ends the rally if the agent is
+	 * not there to intercept it.
+	 * 
+	 * @param s The state to update (ball exactly at the agent's plane)
+	 * @return The events that occurred
+	 */
+	private static int agentHit(ppSimState s)
+	{
+		if (!ppSimEngine.contact(s.agentX, s.agentY, s.agentX - PADDLE_WIDTH / 2 + BALL_RAD, s.y, true))
+			return end(s, EndState.OUT_LEFT, ppSimEngine.EVENT_NONE);
+
+		startSegment(s, X_LEFT_WALL + BALL_RAD, s.y, ppSimEngine.collisionVox(s.vx, AGENT_VX, s.config),
+				ppSimEngine.collisionVoy(s.vy, s.agentVyFactor * s.agentVy, s.config));
+		s.volley++;
+		return ppSimEngine.EVENT_AGENT;
+	}
+
+	/**
+	 * Returns the ball from the paddle's plane, or ends the rally if the paddle is
+	 * not there to intercept it.
+	 * 
+	 * @param s The state to update (ball exactly at the paddle's plane)
+	 * @return The events that occurred
+	 */
+	private static int paddleHit(ppSimState s)
+	{
+		if (!ppSimEngine.contact(s.paddleX, s.paddleY, s.paddleX + PADDLE_WIDTH / 2 - BALL_RAD, s.y, false))
+			return end(s, EndState.OUT_RIGHT, ppSimEngine.EVENT_NONE);
+
+		startSegment(s, s.paddleX - PADDLE_WIDTH / 2 - BALL_RAD, s.y, ppSimEngine.collisionVox(s.vx, PADDLE_VX, s.config),
+				ppSimEngine.collisionVoy(s.vy, s.paddleVyFactor * s.paddleVy, s.config));
+		s.volley++;
+		return ppSimEngine.EVENT_PADDLE;
+	}
+
+	/**
+	 * Starts a new trajectory segment at the current time.
+	 * 
+	 * @param s   The state to update
+	 * @param x0  Initial x-position of the segment (in m)
+	 * @param y0  Initial y-position of the segment (in m)
+	 * @param v0x Initial x-velocity of the segment (in m/s)
+	 * @param v0y Initial y-velocity of the segment (in m/s)
+	 */
+	private static void startSegment(ppSimState s, double x0, double y0, double v0x, double v0y)
+	{
+		s.x0 = x0;
+		s.y0 = y0;
+		s.v0x = v0x;
+		s.v0y = v0y;
+		s.t = 0;
+		ppDecayKernel.start(s);
+		s.x = x0;
+		s.y = y0;
+		s.vx = v0x;
+		s.vy = v0y;
+	}
+
+	/**
+	 * Ends the rally at the current time.
+	 * 
+	 * @param s      The state to update
+	 * @param state  The reason the rally ended
+	 * @param events The events that already occurred
+	 * @return <code>events</code> with the EVENT_END flag added
+	 */
+	private static int end(ppSimState s, EndState state, int events)
+	{
+		s.ballInPlay = false;
+		s.endState = state;
+		s.agentVy = 0;
+		if (s.paddleAgent)
+			s.paddleVy = 0;
+		s.tick = (long) Math.ceil(s.time / TICK - ROOT_TOL);
+		return events | ppSimEngine.EVENT_END;
+	}
+
+	/**
+	 * Solves for the time at which a trajectory segment reaches a given vertical
+	 * plane. The x-position is monotonic in time, so this can be done exactly.
+	 * 
+	 * @param x0  Initial x-position of the segment (in m)
+	 * @param v0x Initial x-velocity of the segment (in m/s)
+	 * @param X   x-position of the plane (in m)
+	 * @param vt  Terminal velocity of the ball (in m/s)
+	 * @return The time (in sec, relative to the start of the segment) at which the
+	 *         ball's center reaches the plane, 0 if it is already past it, or
+	 *         infinity if it never does
+	 */
+	static double planeTime(double x0, double v0x, double X, double vt)
+	{
+		if (v0x == 0)
+			return Double.POSITIVE_INFINITY;
+
+		// x(t) = x0 + vt * v0x / G * (1 - e), where e = exp(-G * t / vt)
+		double e = 1 - (X - x0) * G / (vt * v0x);
+
+		if (e <= 0)
+			return Double.POSITIVE_INFINITY;
+		else if (e >= 1)
+			return 0;
+		else
+			return -vt / G * StrictMath.log(e);
+	}
+
+	/**
+	 * @param v0y Initial y-velocity of the segment (in m/s)
+	 * @param vt  Terminal velocity of the ball (in m/s)
+	 * @return The time (in sec, relative to the start of the segment) at which the
+	 *         ball reaches the top of its trajectory, or 0 if it is moving down
+	 *         from the start
+	 */
+	static double apexTime(double v0y, double vt)
+	{
+		if (v0y <= 0)
+			return 0;
+		else
+			return vt / G * StrictMath.log((v0y + vt) / vt);
+	}
+
+	/**
+	 * Solves for the time at which a trajectory segment comes down to the floor.
+	 * 
+	 * After its apex the ball's height decreases monotonically and is concave, so
+	 * Newton's method started past the root converges from above without
+	 * overshooting.
+	 * 
+	 * @param y0  Initial y-position of the segment (in m)
+	 * @param v0y Initial y-velocity of the segment (in m/s)
+	 * @param vt  Terminal velocity of the ball (in m/s)
+	 * @return The time (in sec, relative to the start of the segment) at which the
+	 *         bottom of the ball reaches the floor
+	 */
+	static double floorTime(double y0, double v0y, double vt)
+	{
+		double tApex = apexTime(v0y, vt);
+
+		if (y0 + ppSimEngine.yDisp(tApex, v0y, vt) <= BALL_RAD)
+			return tApex;
+
+		// Find a time at which the ball is below the floor
+		double t = tApex + 0.1;
+		while (y0 + ppSimEngine.yDisp(t, v0y, vt) > BALL_RAD)
+			t = tApex + 2 * (t - tApex);
+
+		return newton(y0 - BALL_RAD, v0y, t, vt);
+	}
+
+	/**
+	 * Solves for the time at which a trajectory segment reaches the ceiling.
+	 * 
+	 * Before its apex the ball's height increases monotonically and is concave,
+	 * so Newton's method started at the beginning of the segment converges from
+	 * below without overshooting.
+	 * 
+	 * @param y0  Initial y-position of the segment (in m)
+	 * @param v0y Initial y-velocity of the segment (in m/s)
+	 * @param vt  Terminal velocity of the ball (in m/s)
+	 * @return The time (in sec, relative to the start of the segment) at which the
+	 *         top of the ball reaches the ceiling, or infinity if it never does
+	 */
+	static double ceilingTime(double y0, double v0y, double vt)
+	{
+		if (v0y <= 0 || y0 + ppSimEngine.yDisp(apexTime(v0y, vt), v0y, vt) < YMAX - BALL_RAD)
+			return Double.POSITIVE_INFINITY;
+		if (y0 >= YMAX - BALL_RAD)
+			return 0;
+
+		return newton(y0 - (YMAX - BALL_RAD), v0y, 0, vt);
+	}
+
+	/**
+	 * Finds a root of y0 + yDisp(t, v0y) with Newton's method.
+	 * 
+	 * @param y0  Initial y-position of the segment, relative to the target height
+	 *            (in m)
+	 * @param v0y Initial y-velocity of the segment (in m/s)
+	 * @param t   Initial guess (in sec)
+	 * @param vt  Terminal velocity of the ball (in m/s)
+	 * @return The root (in sec)
+	 */
+	private static double newton(double y0, double v0y, double t, double vt)
+	{
+		for (int i = 0; i < MAX_ITER; i++)
+		{
+			double dt = (y0 + ppSimEngine.yDisp(t, v0y, vt)) / ppSimEngine.yVel(t, v0y, vt);
+			t -= dt;
+			if (Math.abs(dt) < ROOT_TOL)
+				break;
+		}
+
+		return t;
+	}
+
+	/**
+	 * Checks the event-driven mode against ppSimEngine's tick stepper on a number
+	 * of random serves (drawn with RSEED), with a stationary paddle, and prints the
+	 * differences.
+	 * 
+	 * For every serve, the first event of both modes is compared (the tick stepper
+	 * can only detect it up to one TICK late and slightly past the surface), as
+	 * well as the way the rally ends. Later events are not compared since small
+	 * differences in timing change the agent's decisions. The same serves are then
+	 * played again in each mode to time them.
+	 * 
+	 * @param args The number of serves to compare (default 10000)
+	 */
+	public static void main(String[] args)
+	{
+		int serves = (args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+		Random rgen = new Random(RSEED);
+		ppSimState tick = new ppSimState();
+		ppSimState event = new ppSimState();
+		int sameFirstEvent = 0;
+		int sameEndState = 0;
+		double maxTimeError = 0;
+		double maxPosError = 0;
+
+		for (int i = 0; i < serves; i++)
+		{
+			ppSimEngine.serve(tick, XINIT, YINIT_MIN + (YINIT_MAX - YINIT_MIN) * rgen.nextDouble(),
+					V0_MIN + (V0_MAX - V0_MIN) * rgen.nextDouble(), THETA_MIN + (THETA_MAX - THETA_MIN) * rgen.nextDouble(),
+					LOSS_MIN + (LOSS_MAX - LOSS_MIN) * rgen.nextDouble());
+			ppSimEngine.setReactTime(tick, 100 + rgen.nextInt(101));
+			tick.paddleY = YINIT_MIN + (YINIT_MAX - YINIT_MIN) * rgen.nextDouble();
+			event.copyFrom(tick);
+
+			// First event
+			int tickEvents;
+			do
+				tickEvents = ppSimEngine.step(tick);
+			while (tickEvents == ppSimEngine.EVENT_NONE);
+			int eventEvents = advance(event, Double.POSITIVE_INFINITY);
+
+			if (tickEvents == eventEvents)
+			{
+				sameFirstEvent++;
+				// The tick stepper reports the state at the start of the tick in which the event was detected
+				maxTimeError = Math.max(maxTimeError, Math.abs((tick.tick - (tick.ballInPlay ? 1 : 0)) * TICK - event.time));
+				maxPosError = Math.max(maxPosError, Math.hypot(tick.x - event.x, tick.y - event.y));
+			}
+
+			// Rest of the rally
+			ppSimEngine.playRally(tick, 100000);
+			playRally(event, 100000);
+			if (tick.endState == event.endState)
+				sameEndState++;
+		}
+
+		// Timing (best of several rounds, alternating the modes, so that both are compiled by the JIT)
+		double tickNs = Double.POSITIVE_INFINITY;
+		double eventNs = Double.POSITIVE_INFINITY;
+		for (int round = 0; round < 5; round++)
+		{
+			tickNs = Math.min(tickNs, timeRallies(serves, false));
+			eventNs = Math.min(eventNs, timeRallies(serves, true));
+		}
+
+		System.out.printf("Serves compared:             %d\n", serves);
+		System.out.printf("Same first event:            %.2f%%\n", 100.0 * sameFirstEvent / serves);
+		System.out.printf("Max first event time error:  %.4f s (TICK = %.4f s)\n", maxTimeError, TICK);
+		System.out.printf("Max first event pos. error:  %.4f m\n", maxPosError);
+		System.out.printf("Same end state:              %.2f%%\n", 100.0 * sameEndState / serves);
+		System.out.printf("Tick stepper:                %.2f us/rally\n", tickNs / 1000);
+		System.out.printf("Event solver:                %.2f us/rally (%.2fx)\n", eventNs / 1000, tickNs / eventNs);
+	}
+
+	/**
+	 * Plays the serves of main() to the end in one of the two modes.
+	 * 
+	 * @param serves The number of serves
+	 * @param events TRUE to use this class, FALSE to use the tick stepper
+	 * @return The mean time per rally (in ns)
+	 */
+	private static double timeRallies(int serves, boolean events)
+	{
+		Random rgen = new Random(RSEED);
+		ppSimState s = new ppSimState();
+		long elapsed = 0;
+
+		for (int i = 0; i < serves; i++)
+		{
+			ppSimEngine.serve(s, XINIT, YINIT_MIN + (YINIT_MAX - YINIT_MIN) * rgen.nextDouble(), V0_MIN + (V0_MAX - V0_MIN) * rgen.nextDouble(),
+					THETA_MIN + (THETA_MAX - THETA_MIN) * rgen.nextDouble(), LOSS_MIN + (LOSS_MAX - LOSS_MIN) * rgen.nextDouble());
+			ppSimEngine.setReactTime(s, 100 + rgen.nextInt(101));
+			s.agentY = AGENT_YINIT;
+			s.paddleY = YINIT_MIN + (YINIT_MAX - YINIT_MIN) * rgen.nextDouble();
+
+			long start = System.nanoTime();
+			if (events)
+				playRally(s, 100000);
+			else
+				ppSimEngine.playRally(s, 100000);
+			elapsed += System.nanoTime() - start;
+		}
+
+		return (double) elapsed / serves;
+	}
+}
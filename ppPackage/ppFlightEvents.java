@@ -0,0 +1,152 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Emits Java Flight Recorder events for the moments of the game (rallies,
+ * contacts, agent decisions, tick overruns), so that a recording of a session
+ * can line up GC pauses and CPU hotspots with what was happening on the table.
+ * 
+ * The events themselves are defined in ppJfrEvents, which needs the jdk.jfr
+ * API (Java 11, or a Java 8 update with JFR) and is therefore compiled
+ * separately from the rest of the project (see ppJfrEvents). This class never
+ * refers to it: if JFR_EVENTS is set, it loads it by reflection, and only uses
+ * it through the Sink interface. If JFR_EVENTS is not set, or the API or the
+ * compiled ppJfrEvents is missing, every method is a test of a constant. When
+ * the events are enabled but no recording is running, each event costs the
+ * allocation of the event object and a check of whether its type is enabled,
+ * which is why JFR_EVENTS is off by default.
+ */
+public final class ppFlightEvents
+{
+	/**
+	 * The methods of this class, without the ENABLED checks. Implemented by
+	 * ppJfrEvents.
+	 */
+	interface Sink
+	{
+		Object rallyStart(ppSimState s);
+
+		void rallyEnd(Object handle, ppSimState s);
+
+		void contact(boolean agent, double preVx, double preVy, double postVx, double postVy, double paddleVy, double y);
+
+		void prediction(String strategy, double timeToCollision, double targetY, double ballX, double ballY);
+
+		void tickOverrun(long tick, long computeNs, long periodNs, long lateNs);
+	}
+
+	private static final Sink SINK = (JFR_EVENTS ? load() : null);
+	private static final boolean ENABLED = (SINK != null);
+
+	private ppFlightEvents()
+	{
+	}
+
+	/**
+	 * @return An instance of ppJfrEvents, or null if the jdk.jfr API or
+	 *         ppJfrEvents is missing (or cannot be loaded by this JVM)
+	 */
+	private static Sink load()
+	{
+		try
+		{
+			Class.forName("jdk.jfr.Event");
+			return (Sink) Class.forName("ppPackage.ppJfrEvents").getDeclaredConstructor().newInstance();
+		}
+		catch (ReflectiveOperationException | LinkageError e)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * @return TRUE if the events are emitted (when a recording asks for them)
+	 */
+	public static boolean isEnabled()
+	{
+		return ENABLED;
+	}
+
+	/**
+	 * Marks the start of a rally.
+	 * 
+	 * @param s The state of the ball just after the serve
+	 * @return A handle to pass to rallyEnd(), or null if events are not emitted
+	 */
+	public static Object rallyStart(ppSimState s)
+	{
+		return (ENABLED ? SINK.rallyStart(s) : null);
+	}
+
+	/**
+	 * Marks the end of a rally: emits one event lasting from the serve to now.
+	 * 
+	 * @param handle The handle returned by rallyStart() (nothing is emitted if it
+	 *               is null)
+	 * @param s      The state of the ball at the end of the rally
+	 */
+	public static void rallyEnd(Object handle, ppSimState s)
+	{
+		if (ENABLED && handle != null)
+			SINK.rallyEnd(handle, s);
+	}
+
+	/**
+	 * Emits a contact between the ball and a paddle.
+	 * 
+	 * @param agent    TRUE for the agent, FALSE for the player's paddle
+	 * @param preVx    The x-velocity of the ball before the contact (in m/s)
+	 * @param preVy    The y-velocity of the ball before the contact (in m/s)
+	 * @param postVx   The x-velocity given by collisionVox (in m/s)
+	 * @param postVy   The y-velocity given by collisionVoy (in m/s)
+	 * @param paddleVy The y-velocity of the paddle (in m/s)
+	 * @param y        The height of the contact (in m)
+	 */
+	public static void contact(boolean agent, double preVx, double preVy, double postVx, double postVy, double paddleVy, double y)
+	{
+		if (ENABLED)
+			SINK.contact(agent, preVx, preVy, postVx, postVy, paddleVy, y);
+	}
+
+	/**
+	 * Emits an update of the agent's prediction.
+	 * 
+	 * @param strategy        How the prediction was made
+	 * @param timeToCollision The predicted time until the ball reaches the agent
+	 *                        (in sec, -1 if it does not)
+	 * @param targetY         The predicted intercept height (in m)
+	 * @param ballX           The x-position of the ball (in m)
+	 * @param ballY           The y-position of the ball (in m)
+	 */
+	public static void prediction(ppInterceptPredictor.Strategy strategy, double timeToCollision, double targetY, double ballX, double ballY)
+	{
+		if (ENABLED)
+			SINK.prediction(strategy.name(), timeToCollision, targetY, ballX, ballY);
+	}
+
+	/**
+	 * Emits a tick that was still running at its deadline.
+	 * 
+	 * @param tick        The number of the tick in ppGameLoop
+	 * @param computeNs   The time spent computing the tick (in ns)
+	 * @param periodNs    The period of the tick (in ns)
+	 * @param lateNs      The time by which the loop was late for the next tick
+	 *                    (in ns)
+	 */
+	public static void tickOverrun(long tick, long computeNs, long periodNs, long lateNs)
+	{
+		if (ENABLED)
+			SINK.tickOverrun(tick, computeNs, periodNs, lateNs);
+	}
+
+	/**
+	 * @param state An end state, or null
+	 * @return The name of the end state, or an empty string
+	 */
+	static String name(EndState state)
+	{
+		return (state == null ? "" : state.name());
+	}
+}
@@ -0,0 +1,267 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single thread that drives the whole match. Every tick it advances the ball,
+ * then updates the estimate of the player's paddle velocity, then moves the
+ * agent, always in that order, so the outcome of a collision depends only on
+ * the inputs and not on how three separate threads happened to be scheduled.
+ * 
+ * Ticks are paced against absolute deadlines (one every TICK of game time,
+ * scaled by the time factor slider) rather than by pausing for a fixed time
+ * after each tick, so the time spent computing and drawing a tick does not
+ * accumulate into drift. If the loop falls far behind (e.g. after a long GC
+ * pause), it gives up on the missed deadlines instead of running a burst of
+ * ticks to catch up. The lateness of every tick is measured and reported as
+ * tick jitter. Latency histograms of the time spent in each part of a tick,
+ * of the lateness and of the tick period are kept in a ppTickStats.
+ * 
+ * The player's paddle is moved at the start of each tick to the latest position
+ * posted to the ppMouseInput, rather than by the event dispatch thread at every
+ * mouse event.
+ * 
+ * If a ppReplayRecorder is attached, every tick in which a ball is in play is
+ * recorded, numbered by the loop's own tick counter. Ticks still running at
+ * their deadline are also emitted as ppFlightEvents.
+ * 
+ * In DETERMINISTIC mode, the simulation state of the rally is hashed at the
+ * end of every tick, and the hash is printed at the end of the rally (see
+ * ppStateHash). The state is the ball's, in which the agent also plays (see
+ * ppPaddleAgent), so the hash covers the ball, the player's paddle as the ball
+ * saw it, and the agent's position and decision state: two matches played
+ * with the same mouse positions at the same ticks print the same hashes,
+ * whatever the time factor.
+ */
+public class ppGameLoop extends Thread
+{
+	private static final double SERVE_DELAY_MS = 3000; // Real time to wait before a new ball starts moving (in ms)
+	private static final int MAX_LATE_TICKS = 5; // Number of periods behind schedule after which missed ticks are skipped
+
+	private ppTable table;
+	private ppPaddle paddle;
+	private ppPaddleAgent agent;
+	private ppMouseInput mouse;
+	private volatile ppBall ball;
+	private volatile long serveTime; // Value of System.nanoTime() at which the current ball starts moving
+	private volatile ppReplayRecorder recorder;
+	private long tick; // Number of ticks run since the loop started
+	private final ppTickStats stats = new ppTickStats();
+	private final ppStateHash hash = new ppStateHash(); // Hash of the current rally (DETERMINISTIC mode only)
+
+	// Jitter statistics for the current round
+	private long ticks;
+	private double sumLateMs;
+	private double maxLateMs;
+
+	/**
+	 * Creates the game loop. The loop does nothing until a ball is served.
+	 * 
+	 * @param table  A reference to the ppTable object controlling the display
+	 * @param paddle The player's paddle
+	 * @param agent  The agent
+	 * @param mouse  The mouse positions posted for the player's paddle
+	 */
+	public ppGameLoop(ppTable table, ppPaddle paddle, ppPaddleAgent agent, ppMouseInput mouse)
+	{
+		this.table = table;
+		this.paddle = paddle;
+		this.agent = agent;
+		this.mouse = mouse;
+		setDaemon(true);
+	}
+
+	/**
+	 * Starts a new round with the given ball. The ball starts moving after a short
+	 * delay to let the user see its initial position.
+	 * 
+	 * @param ball The ball to serve
+	 */
+	public void serve(ppBall ball)
+	{
+		serveTime = System.nanoTime() + (long) (SERVE_DELAY_MS * 1e6);
+		this.ball = ball;
+	}
+
+	/**
+	 * Starts recording every tick of the match.
+	 * 
+	 * @param recorder The recorder to write the ticks to
+	 */
+	public void setRecorder(ppReplayRecorder recorder)
+	{
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Stops recording and closes the replay file, if any. May be called from any
+	 * thread; ticks run afterwards are simply not recorded.
+	 */
+	public void stopRecording()
+	{
+		ppReplayRecorder r = recorder;
+
+		recorder = null;
+		if (r == null)
+			return;
+		try
+		{
+			r.close();
+		}
+		catch (IOException e)
+		{
+			System.out.println("Could not write the replay file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Runs the ticks of the match forever.
+	 */
+	public void run()
+	{
+		long deadline = System.nanoTime();
+		ppBall current = null;
+
+		if (DEBUG)
+			System.out.println("DEBUG mode enabled: press ENTER when the '>' prompt\nappears to move to the next step in the simulation");
+
+		long lastStart = 0;
+
+		while (true)
+		{
+			ppBall served = ball;
+			boolean ticked = false;
+			boolean ended = false; // The rally ended in this tick
+			int events = 0;
+			long start = System.nanoTime();
+
+			if (lastStart != 0)
+				stats.period.record(start - lastStart);
+			lastStart = start;
+
+			// Move the player's paddle to the latest mouse position, once per tick however many events arrived
+			double mouseY = mouse.poll();
+			if (!Double.isNaN(mouseY) && !paddle.isFrozen())
+				paddle.setY(mouseY);
+			long ballStart = System.nanoTime();
+
+			// Fixed order: ball, paddle velocity estimation, agent
+			if (served != null && System.nanoTime() >= serveTime)
+			{
+				if (served != current)
+				{
+					current = served;
+					agent.attachBall(current);
+					agent.unfreeze(); // Let the agent start moving
+					resetJitter();
+					hash.reset();
+					events = ppReplayFrame.EVENT_SERVE;
+				}
+				if (current.ballInPlay())
+				{
+					ticked = true;
+					ended = !current.tick(deadline); // The scheduled time of this tick
+					events |= current.getEvents();
+				}
+			}
+			long paddleStart = System.nanoTime();
+			paddle.tick();
+			long agentStart = System.nanoTime();
+			agent.tick();
+			long agentEnd = System.nanoTime();
+			stats.ballCompute.record(paddleStart - ballStart);
+			stats.paddleCompute.record(ballStart - start + agentStart - paddleStart);
+			stats.agentCompute.record(agentEnd - agentStart);
+
+			// Hash the whole tick: the ball, the paddle it saw, and the agent's move and decision
+			if (ticked && DETERMINISTIC)
+				hash.update(current.getState());
+			if (ended)
+				reportJitter();
+
+			ppReplayRecorder r = recorder;
+			if (ticked && r != null)
+			{
+				ppBallSnapshot b = current.getSnapshot();
+				r.record(tick, events, b.x, b.y, b.vx, b.vy, paddle.getY(), paddle.getVy(), agent.getY(), agent.getVy());
+			}
+			long end = System.nanoTime();
+			stats.compute.record(end - start);
+
+			// Sleep until the next deadline (TICK scaled by the current value of the time factor slider)
+			long period = (long) (TICK * table.getGame().getTimeFactor() * 1e6);
+			deadline += period;
+			if (end > deadline)
+				ppFlightEvents.tickOverrun(tick, end - start, period, end - deadline);
+			tick++;
+			long now = System.nanoTime();
+			while (now < deadline)
+			{
+				LockSupport.parkNanos(deadline - now);
+				now = System.nanoTime();
+			}
+
+			recordLateness(now - deadline);
+			stats.overshoot.record(now - deadline);
+			if (now - deadline > MAX_LATE_TICKS * period)
+				deadline = now;
+
+			if (DEBUG && current != null && current.ballInPlay())
+				table.getDisplay().readLine(">");
+		}
+	}
+
+	/**
+	 * @return The latency histograms of the loop
+	 */
+	public ppTickStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * Records how late a tick woke up relative to its deadline.
+	 * 
+	 * @param lateNanos Time between the deadline and the actual wake-up (in ns)
+	 */
+	private void recordLateness(long lateNanos)
+	{
+		double lateMs = lateNanos / 1e6;
+
+		ticks++;
+		sumLateMs += lateMs;
+		maxLateMs = Math.max(maxLateMs, lateMs);
+	}
+
+	/**
+	 * Clears the jitter statistics at the start of a round.
+	 */
+	private void resetJitter()
+	{
+		ticks = 0;
+		sumLateMs = 0;
+		maxLateMs = 0;
+	}
+
+	/**
+	 * Prints the jitter statistics at the end of a round.
+	 */
+	private void reportJitter()
+	{
+		System.out.println(getJitterReport());
+		System.out.println(mouse.getReport());
+		if (DETERMINISTIC)
+			System.out.println("State hash: " + hash);
+	}
+
+	/**
+	 * @return A summary of the lateness of the ticks since the start of the
+	 *         current round
+	 */
+	public String getJitterReport()
+	{
+		return String.format("Tick jitter: mean %.3f ms, max %.3f ms over %d ticks", ticks == 0 ? 0 : sumLateMs / ticks, maxLateMs, ticks);
+	}
+}
@@ -0,0 +1,338 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Predicts where and when the ball will reach a paddle, so that the paddle can
+ * move there in time.
+ * 
+ * With the LINEAR strategy (the original one), the ball is assumed to keep its
+ * current velocity, and the prediction is made from scratch at every decision.
+ * With the PHYSICS strategy, the ball is followed along its closed-form drag
+ * trajectory, bouncing off the floor with the ball's energy loss exactly as
+ * ppEventSolver does, until it reaches the paddle's plane. Since nothing but a
+ * paddle can change the trajectory, that prediction is computed once per
+ * volley (at the first decision after the ball was served or hit) and reused
+ * until the next hit. With the TABLE strategy, the prediction is looked up in
+ * ppInterceptTable from the ball's current state at every decision; the table
+ * is only built for the agent's side and for the compiled physics, so the
+ * player's paddle, any state with another ppSimConfig, and any program that has
+ * not installed the table (ppInterceptTable.loadDefault()) use PHYSICS instead.
+ * 
+ * Each paddle has its own predictor, since the cache depends on the side.
+ */
+public strictfp class ppInterceptPredictor
+{
+	/**
+	 * How the intercept is predicted
+	 */
+	public enum Strategy
+	{
+		LINEAR, PHYSICS, TABLE
+	}
+
+	static final int MAX_BOUNCES = 64; // Floor bounces after which the ball is considered to have stopped
+
+	private Strategy strategy;
+	private final boolean left; // TRUE for the agent (left side), FALSE for the player's paddle
+	private long volley = -1; // Volley for which the cached prediction was computed
+	private double time; // Time since the serve at which the ball reaches the plane, or -1 if it does not (in sec)
+	private double y; // Height at which the ball reaches the plane (in m)
+	private double targetY; // Result of the last prediction (in m)
+	private long computations; // Number of trajectory predictions computed (PHYSICS only)
+	private final double[] result = new double[2]; // Time and height computed by intercept() or looked up in the table
+
+	/**
+	 * Creates a predictor.
+	 * 
+	 * @param left     TRUE for the agent (left side), FALSE for the player's
+	 *                 paddle (right side)
+	 * @param strategy How to predict the intercept
+	 */
+	public ppInterceptPredictor(boolean left, Strategy strategy)
+	{
+		this.left = left;
+		this.strategy = strategy;
+	}
+
+	/**
+	 * Copies the strategy and the cached prediction of another predictor for the
+	 * same side.
+	 * 
+	 * @param other The predictor to copy
+	 */
+	public void copyFrom(ppInterceptPredictor other)
+	{
+		strategy = other.strategy;
+		volley = other.volley;
+		time = other.time;
+		y = other.y;
+		targetY = other.targetY;
+		computations = other.computations;
+	}
+
+	/**
+	 * Predicts when the ball will reach the paddle, and where (see getTargetY()).
+	 * 
+	 * @param s       The state of the rally
+	 * @param paddleX The x-coordinate of the center of the paddle (in m)
+	 * @return The time until the ball reaches the paddle (in seconds) or -1 if the
+	 *         ball is not approaching the paddle
+	 */
+	public double predict(ppSimState s, double paddleX)
+	{
+		double timeToCollision;
+
+		if (strategy == Strategy.LINEAR)
+		{
+			timeToCollision = (left ? ppSimEngine.predictTime(s.x, s.vx) : ppSimEngine.predictTimeRight(s.x, s.vx, paddleX));
+			targetY = ppSimEngine.predictY(s.y, s.vy, timeToCollision);
+			return timeToCollision;
+		}
+
+		ppInterceptTable table = ppInterceptTable.getDefault();
+		if (strategy == Strategy.TABLE && left && s.config.compiled && table != null)
+		{
+			if (s.vx >= 0)
+			{
+				targetY = AGENT_YINIT;
+				return -1;
+			}
+			table.lookup(s.x, s.y, s.vx, s.vy, s.loss, result);
+			targetY = (result[0] < 0 ? AGENT_YINIT : result[1]);
+			return (result[0] < 0 ? -1 : Math.max(TICK, result[0]));
+		}
+
+		if (s.volley != volley)
+		{
+			volley = s.volley;
+			computeIntercept(s, paddleX);
+		}
+
+		if (time < 0)
+		{
+			targetY = AGENT_YINIT;
+			return -1;
+		}
+
+		// If the ball is due now (or a little late, since the tick stepper detects collisions up to one TICK late), just hurry
+		targetY = y;
+		return Math.max(TICK, time - s.time);
+	}
+
+	/**
+	 * @param s The state of the rally
+	 * @return TRUE if predict() reads the ball's current position and velocity,
+	 *         FALSE if it only needs the current trajectory segment and the time
+	 *         since the serve (PHYSICS, including the cases where TABLE falls back
+	 *         to it)
+	 */
+	public boolean readsBall(ppSimState s)
+	{
+		return strategy == Strategy.LINEAR || (strategy == Strategy.TABLE && left && s.config.compiled && ppInterceptTable.getDefault() != null);
+	}
+
+	/**
+	 * Follows the ball from the start of its current trajectory segment to the
+	 * paddle's plane, and caches the time and height at which it gets there.
+	 * 
+	 * @param s       The state of the rally
+	 * @param paddleX The x-coordinate of the center of the paddle (in m)
+	 */
+	private void computeIntercept(ppSimState s, double paddleX)
+	{
+		computations++;
+		intercept(s.x0, s.y0, s.v0x, s.v0y, s.loss, plane(left, paddleX), left, s.config.vt, result);
+		time = (result[0] < 0 ? -1 : s.time - s.t + result[0]);
+		y = result[1];
+	}
+
+	/**
+	 * @param left    TRUE for the agent (left side), FALSE for the player's paddle
+	 * @param paddleX The x-coordinate of the center of the paddle (in m)
+	 * @return The x-coordinate of the ball's center when it touches the paddle (in
+	 *         m)
+	 */
+	static double plane(boolean left, double paddleX)
+	{
+		return (left ? paddleX + PADDLE_WIDTH / 2 + BALL_RAD : paddleX - PADDLE_WIDTH / 2 - BALL_RAD);
+	}
+
+	/**
+	 * Follows a ball along its drag trajectory, bouncing off the floor, until it
+	 * reaches a paddle's plane.
+	 * 
+	 * @param x0     The x-position of the ball (in m)
+	 * @param y0     The y-position of the ball (in m)
+	 * @param v0x    The x-velocity of the ball (in m/s)
+	 * @param v0y    The y-velocity of the ball (in m/s)
+	 * @param loss   The collision energy loss factor of the ball
+	 * @param plane  The x-coordinate of the ball's center when it touches the
+	 *               paddle (in m)
+	 * @param left   TRUE if the paddle is on the left side
+	 * @param result Receives the time until the ball reaches the plane (in sec, or
+	 *               -1 if it does not) and the height of the paddle's center that
+	 *               meets it there (in m)
+	 */
+	static void intercept(double x0, double y0, double v0x, double v0y, double loss, double plane, boolean left, double[] result)
+	{
+		intercept(x0, y0, v0x, v0y, loss, plane, left, VT, result);
+	}
+
+	/**
+	 * Same as intercept() above, for a ball with a different terminal velocity.
+	 * 
+	 * @param x0     The x-position of the ball (in m)
+	 * @param y0     The y-position of the ball (in m)
+	 * @param v0x    The x-velocity of the ball (in m/s)
+	 * @param v0y    The y-velocity of the ball (in m/s)
+	 * @param loss   The collision energy loss factor of the ball
+	 * @param plane  The x-coordinate of the ball's center when it touches the
+	 *               paddle (in m)
+	 * @param left   TRUE if the paddle is on the left side
+	 * @param vt     The terminal velocity of the ball (in m/s)
+	 * @param result Receives the time and height, as above
+	 */
+	static void intercept(double x0, double y0, double v0x, double v0y, double loss, double plane, boolean left, double vt, double[] result)
+	{
+		double start = 0; // Time at which the current segment started
+
+		result[0] = -1;
+		result[1] = AGENT_YINIT;
+		if (left ? v0x >= 0 : v0x <= 0)
+			return;
+
+		for (int bounce = 0; bounce < MAX_BOUNCES; bounce++)
+		{
+			double tWall = ppEventSolver.planeTime(x0, v0x, plane, vt);
+			double tFloor = ppEventSolver.floorTime(y0, v0y, vt);
+			double tCeiling = ppEventSolver.ceilingTime(y0, v0y, vt);
+
+			if (tWall <= tFloor && tWall < tCeiling)
+			{
+				result[0] = start + tWall;
+				result[1] = ppSimEngine.clampPaddleY(y0 + ppSimEngine.yDisp(tWall, v0y, vt));
+				return;
+			}
+			if (tCeiling < tFloor)
+				return; // Out through the ceiling
+
+			// Bounce off the floor, as in ppSimEngine.stepBall()
+			double vx = ppSimEngine.xVel(tFloor, v0x, vt);
+			double vy = ppSimEngine.yVel(tFloor, v0y, vt);
+			double KEx = 0.5 * BALL_MASS * vx * vx * (1 - loss);
+			double KEy = 0.5 * BALL_MASS * vy * vy * (1 - loss);
+			if (KEx + KEy < KE_MIN)
+				return; // Stops before reaching the paddle
+
+			x0 += ppSimEngine.xDisp(tFloor, v0x, vt);
+			y0 = BALL_RAD;
+			v0x = Math.copySign(Math.sqrt(2 * KEx / BALL_MASS), v0x);
+			v0y = Math.sqrt(2 * KEy / BALL_MASS);
+			start += tFloor;
+		}
+	}
+
+	/**
+	 * @return The y-position the paddle should aim for, according to the last
+	 *         prediction (in m)
+	 */
+	public double getTargetY()
+	{
+		return targetY;
+	}
+
+	/**
+	 * @return The strategy used
+	 */
+	public Strategy getStrategy()
+	{
+		return strategy;
+	}
+
+	/**
+	 * Changes the strategy. The cached prediction is discarded.
+	 * 
+	 * @param strategy The new strategy
+	 */
+	public void setStrategy(Strategy strategy)
+	{
+		this.strategy = strategy;
+		this.volley = -1;
+	}
+
+	/**
+	 * @return The number of trajectory predictions computed so far (PHYSICS only)
+	 */
+	public long getComputations()
+	{
+		return computations;
+	}
+
+	/**
+	 * Plays the same random serves with the agent using each strategy against the
+	 * same reference opponent, and prints how far the agent's target was from the
+	 * ball when it reached the agent, how often the agent returned the ball, and
+	 * the time taken to move the agent per tick (including its decisions).
+	 * 
+	 * @param args Number of serves (default 20000)
+	 */
+	public static void main(String[] args)
+	{
+		int serves = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+
+		System.out.printf("%-10s %14s %14s %12s %14s %14s\n", "Strategy", "Mean |error|", "Agent returns", "Agent wins", "Predictions", "ns/agent tick");
+		for (Strategy strategy : Strategy.values())
+		{
+			ppRandom rgen = new ppRandom(RSEED);
+			ppSimState s = new ppSimState();
+			double sumError = 0;
+			long arrivals = 0;
+			long returns = 0;
+			long wins = 0;
+			long agentTicks = 0;
+			long agentNs = 0;
+
+			s.agentPredictor.setStrategy(strategy);
+			s.paddlePredictor.setStrategy(Strategy.LINEAR);
+			ppSimEngine.setReactTime(s, 200);
+			ppSimEngine.setPaddleAgent(s, 100);
+			for (int i = 0; i < serves; i++)
+			{
+				double randYinit = rgen.nextDouble(YINIT_MIN, YINIT_MAX);
+				double randLoss = rgen.nextDouble(LOSS_MIN, LOSS_MAX);
+				double randV0 = rgen.nextDouble(V0_MIN, V0_MAX);
+				double randTheta = rgen.nextDouble(THETA_MIN, THETA_MAX);
+
+				s.agentY = AGENT_YINIT;
+				s.paddleY = PADDLE_YINIT;
+				ppSimEngine.serve(s, XINIT, randYinit, randV0, randTheta, randLoss);
+				while (s.ballInPlay && s.tick < ppBatchRunner.MAX_TICKS)
+				{
+					int events = ppSimEngine.stepBall(s);
+
+					// Error of the target when the ball reaches the agent's plane
+					if ((events & ppSimEngine.EVENT_AGENT) != 0 || s.endState == EndState.OUT_LEFT)
+					{
+						sumError += Math.abs(s.y - s.agentTargetY);
+						arrivals++;
+						if ((events & ppSimEngine.EVENT_AGENT) != 0)
+							returns++;
+					}
+
+					long start = System.nanoTime();
+					ppSimEngine.stepAgent(s);
+					agentNs += System.nanoTime() - start;
+					agentTicks++;
+					ppSimEngine.stepPaddleAgent(s);
+				}
+				if (s.endState != null && s.endState.agentScores())
+					wins++;
+			}
+
+			System.out.printf("%-10s %12.1f mm %13.2f%% %11.2f%% %14d %14.1f\n", strategy, 1000 * sumError / arrivals, 100.0 * returns / arrivals,
+					100.0 * wins / serves, s.agentPredictor.getComputations(), (double) agentNs / agentTicks);
+		}
+	}
+}
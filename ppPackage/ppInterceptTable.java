@@ -0,0 +1,442 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A precomputed table of the agent's intercepts, for predictions that have to
+ * be made from scratch from a ball in mid-flight.
+ * 
+ * The table is a regular grid over the ball's state (x, y, vx, vy, loss), for
+ * balls moving towards the agent. Each cell holds the time until the ball
+ * reaches the agent's plane (or -1 if it does not) and the height the agent
+ * should be at, computed with ppInterceptPredictor.intercept(). A lookup either
+ * takes the nearest cell or interpolates linearly between the 32 cells around
+ * the state; cells the ball never comes back from are not interpolated with the
+ * others, and the nearest cell is used instead. States outside the grid are
+ * clamped to its edges.
+ * 
+ * Both quantities are stored side by side in one float array (so that a lookup
+ * touches as few cache lines as possible), and saved to a file as a short
+ * header followed by the array, so that loading the table is one bulk copy. A
+ * file built with different physics (terminal velocity, agent's plane or grid)
+ * is rejected, and the table is rebuilt instead.
+ * 
+ * A lookup costs about 80 ns (nearest cell) to 300 ns (interpolated), against
+ * about 600 ns for an exact prediction, so the table only pays off where every
+ * decision needs a new prediction. The PHYSICS strategy computes its
+ * prediction once per volley and reuses it at every decision until the next
+ * hit, which makes it cheaper per agent tick than a lookup at every decision:
+ * that is why AGENT_STRATEGY is PHYSICS.
+ * 
+ * The file is only written by main(). Programs that play with the TABLE
+ * strategy install the table at startup (see loadDefault()), so that it is
+ * never loaded or built in the middle of a rally; until then, TABLE predicts
+ * like PHYSICS.
+ */
+public strictfp class ppInterceptTable
+{
+	static final int MAGIC = 0x50504954; // "PPIT"
+	static final int VERSION = 1;
+	static final int DIMS = 5;
+
+	// Grid: number of points and range of each dimension (x, y, vx, vy, loss)
+	static final int[] POINTS = { 24, 24, 24, 24, LOSS_MIN == LOSS_MAX ? 1 : 4 };
+	static final double[] MIN = { XINIT, BALL_RAD, -VX_MAX, -VY_MAX, LOSS_MIN };
+	static final double[] MAX = { XMAX - BALL_RAD, YMAX, 0, VY_MAX, LOSS_MAX };
+
+	private static volatile ppInterceptTable defaultTable; // Table used by the TABLE strategy, once installed by loadDefault()
+
+	private final float[] cells; // For each cell, the time until the ball reaches the agent's plane (in sec, or -1) and the height the agent should be at (in m)
+	private final int[] strides = new int[DIMS]; // Distance between two neighbouring cells along each dimension
+	private boolean interpolate = INTERCEPT_INTERPOLATE;
+
+	/**
+	 * Creates an empty table.
+	 */
+	private ppInterceptTable()
+	{
+		int cells = 1;
+
+		for (int d = DIMS - 1; d >= 0; d--)
+		{
+			strides[d] = cells;
+			cells *= POINTS[d];
+		}
+		this.cells = new float[2 * cells];
+	}
+
+	/**
+	 * Computes every cell of the table from the physics.
+	 * 
+	 * @return The table
+	 */
+	public static ppInterceptTable build()
+	{
+		ppInterceptTable table = new ppInterceptTable();
+		double plane = ppInterceptPredictor.plane(true, AGENT_XINIT);
+		double[] result = new double[2];
+		int[] index = new int[DIMS];
+
+		for (int cell = 0; cell < table.getCells(); cell++)
+		{
+			for (int d = 0; d < DIMS; d++)
+				index[d] = cell / table.strides[d] % POINTS[d];
+
+			double vx = Math.min(value(2, index[2]), -1e-6); // The last column is for balls that have (almost) stopped moving towards the agent
+			ppInterceptPredictor.intercept(value(0, index[0]), value(1, index[1]), vx, value(3, index[3]), value(4, index[4]), plane, true, result);
+			table.cells[2 * cell] = (float) result[0];
+			table.cells[2 * cell + 1] = (float) result[1];
+		}
+
+		return table;
+	}
+
+	/**
+	 * @param d     A dimension
+	 * @param index The index of a grid point along that dimension
+	 * @return The value of the grid point
+	 */
+	private static double value(int d, int index)
+	{
+		return (POINTS[d] == 1 ? MIN[d] : MIN[d] + (MAX[d] - MIN[d]) * index / (POINTS[d] - 1));
+	}
+
+	/**
+	 * Loads a table saved by save().
+	 * 
+	 * @param path The file to load
+	 * @return The table
+	 * @throws IOException If the file cannot be read, or was built for another
+	 *                     grid or other physics
+	 */
+	public static ppInterceptTable load(Path path) throws IOException
+	{
+		ppInterceptTable table = new ppInterceptTable();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buf.limit() != headerSize() + 4 * table.cells.length || buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException("Not an intercept table: " + path);
+			if (buf.getDouble() != VT || buf.getDouble() != ppInterceptPredictor.plane(true, AGENT_XINIT))
+				throw new IOException("Intercept table built with different physics: " + path);
+			for (int d = 0; d < DIMS; d++)
+			{
+				if (buf.getInt() != POINTS[d] || buf.getDouble() != MIN[d] || buf.getDouble() != MAX[d])
+					throw new IOException("Intercept table built with a different grid: " + path);
+			}
+
+			buf.asFloatBuffer().get(table.cells);
+		}
+
+		return table;
+	}
+
+	/**
+	 * Saves the table.
+	 * 
+	 * @param path The file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void save(Path path) throws IOException
+	{
+		ByteBuffer buf = ByteBuffer.allocate(headerSize() + 4 * cells.length);
+
+		buf.putInt(MAGIC).putInt(VERSION);
+		buf.putDouble(VT).putDouble(ppInterceptPredictor.plane(true, AGENT_XINIT));
+		for (int d = 0; d < DIMS; d++)
+			buf.putInt(POINTS[d]).putDouble(MIN[d]).putDouble(MAX[d]);
+		buf.asFloatBuffer().put(cells);
+		buf.rewind();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (buf.hasRemaining())
+				channel.write(buf);
+		}
+	}
+
+	/**
+	 * @return The size of the file header (in bytes)
+	 */
+	private static int headerSize()
+	{
+		return 8 + 16 + DIMS * 20;
+	}
+
+	/**
+	 * Installs the table used by the TABLE strategy, if it is not installed yet:
+	 * the one saved in INTERCEPT_TABLE by main(), or, if there is none that
+	 * matches the current physics, a new one built in memory (about half a
+	 * second). Nothing is written.
+	 * 
+	 * @return The table
+	 */
+	public static synchronized ppInterceptTable loadDefault()
+	{
+		if (defaultTable == null)
+		{
+			try
+			{
+				defaultTable = load(Paths.get(INTERCEPT_TABLE));
+			}
+			catch (IOException e)
+			{
+				defaultTable = build();
+			}
+		}
+
+		return defaultTable;
+	}
+
+	/**
+	 * Installs the table with loadDefault() if the default agent
+	 * (AGENT_STRATEGY) uses it. Called at startup by the programs that play with
+	 * the default agent.
+	 */
+	public static void loadForDefaultAgent()
+	{
+		if (AGENT_STRATEGY == ppInterceptPredictor.Strategy.TABLE)
+			loadDefault();
+	}
+
+	/**
+	 * @return The table used by the TABLE strategy, or null if loadDefault() has
+	 *         not been called
+	 */
+	public static ppInterceptTable getDefault()
+	{
+		return defaultTable;
+	}
+
+	/**
+	 * Looks up the intercept of a ball moving towards the agent.
+	 * 
+	 * @param x      The x-position of the ball (in m)
+	 * @param y      The y-position of the ball (in m)
+	 * @param vx     The x-velocity of the ball (in m/s)
+	 * @param vy     The y-velocity of the ball (in m/s)
+	 * @param loss   The collision energy loss factor of the ball
+	 * @param result Receives the time until the ball reaches the agent's plane (in
+	 *               sec, or -1 if it does not) and the height the agent should be
+	 *               at (in m)
+	 */
+	public void lookup(double x, double y, double vx, double vy, double loss, double[] result)
+	{
+		double g0 = grid(0, x);
+		double g1 = grid(1, y);
+		double g2 = grid(2, vx);
+		double g3 = grid(3, vy);
+		double g4 = grid(4, loss);
+		int i0 = lower(0, g0);
+		int i1 = lower(1, g1);
+		int i2 = lower(2, g2);
+		int i3 = lower(3, g3);
+		int i4 = lower(4, g4);
+		double f0 = g0 - i0; // Position between the lower and the upper point along each dimension
+		double f1 = g1 - i1;
+		double f2 = g2 - i2;
+		double f3 = g3 - i3;
+		double f4 = g4 - i4;
+		int base = i0 * strides[0] + i1 * strides[1] + i2 * strides[2] + i3 * strides[3] + i4 * strides[4]; // Cell at the lower corner
+		int nearest = (int) (g0 + 0.5) * strides[0] + (int) (g1 + 0.5) * strides[1] + (int) (g2 + 0.5) * strides[2] + (int) (g3 + 0.5) * strides[3]
+				+ (int) (g4 + 0.5) * strides[4];
+
+		if (interpolate)
+		{
+			double time = 0;
+			double height = 0;
+			int corner;
+
+			for (corner = 0; corner < 1 << DIMS; corner++)
+			{
+				int cell = base + ((corner & 1) != 0 ? strides[0] : 0) + ((corner & 2) != 0 ? strides[1] : 0) + ((corner & 4) != 0 ? strides[2] : 0)
+						+ ((corner & 8) != 0 ? strides[3] : 0) + ((corner & 16) != 0 ? strides[4] : 0);
+				double w = ((corner & 1) != 0 ? f0 : 1 - f0) * ((corner & 2) != 0 ? f1 : 1 - f1) * ((corner & 4) != 0 ? f2 : 1 - f2) * ((corner & 8) != 0 ? f3 : 1 - f3)
+						* ((corner & 16) != 0 ? f4 : 1 - f4);
+				if (w == 0)
+					continue; // Also keeps the upper corner of single-point dimensions out of the table
+				if (cells[2 * cell] < 0)
+					break;
+				time += w * cells[2 * cell];
+				height += w * cells[2 * cell + 1];
+			}
+
+			if (corner == 1 << DIMS)
+			{
+				result[0] = time;
+				result[1] = height;
+				return;
+			}
+		}
+
+		result[0] = cells[2 * nearest];
+		result[1] = cells[2 * nearest + 1];
+	}
+
+	/**
+	 * @param d     A dimension
+	 * @param value A value along that dimension
+	 * @return The position of the value in the grid, in points from the first one
+	 *         (clamped to the grid)
+	 */
+	private static double grid(int d, double value)
+	{
+		if (POINTS[d] == 1)
+			return 0;
+		double g = (value - MIN[d]) / (MAX[d] - MIN[d]) * (POINTS[d] - 1);
+		return Math.max(0, Math.min(POINTS[d] - 1, g));
+	}
+
+	/**
+	 * @param d A dimension
+	 * @param g A position in the grid along that dimension (see grid())
+	 * @return The index of the lower of the two points around the position
+	 */
+	private static int lower(int d, double g)
+	{
+		return Math.min((int) g, Math.max(0, POINTS[d] - 2));
+	}
+
+	/**
+	 * @return TRUE if lookups interpolate between cells, FALSE if they take the
+	 *         nearest one
+	 */
+	public boolean getInterpolate()
+	{
+		return interpolate;
+	}
+
+	/**
+	 * @param interpolate TRUE to interpolate between cells, FALSE to take the
+	 *                    nearest one
+	 */
+	public void setInterpolate(boolean interpolate)
+	{
+		this.interpolate = interpolate;
+	}
+
+	/**
+	 * @return The number of cells of the table
+	 */
+	public int getCells()
+	{
+		return cells.length / 2;
+	}
+
+	/**
+	 * Builds the table and saves it to a file, then compares it with the exact
+	 * prediction on the states seen by the agent in seeded headless rallies, with
+	 * and without interpolation, and prints the errors and the time per lookup.
+	 * 
+	 * @param args The file to write (default INTERCEPT_TABLE), and the number of
+	 *             serves to sample the states from (default 2000)
+	 * @throws IOException If the file cannot be written or read back
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		Path path = Paths.get(args.length > 0 ? args[0] : INTERCEPT_TABLE);
+		int serves = (args.length > 1 ? Integer.parseInt(args[1]) : 2000);
+
+		long start = System.nanoTime();
+		ppInterceptTable table = build();
+		double buildMs = (System.nanoTime() - start) / 1e6;
+		table.save(path);
+		start = System.nanoTime();
+		table = load(path);
+		double loadMs = (System.nanoTime() - start) / 1e6;
+		System.out.printf("Cells:  %d (%d bytes)\n", table.getCells(), headerSize() + 8 * table.getCells());
+		System.out.printf("Build:  %.0f ms\n", buildMs);
+		System.out.printf("Load:   %.1f ms\n\n", loadMs);
+
+		// States of the ball at every tick it moves towards the agent
+		ppRandom rgen = new ppRandom(RSEED);
+		ppSimState s = new ppSimState();
+		double[][] states = new double[DIMS][1 << 16];
+		int count = 0;
+		ppSimEngine.setReactTime(s, 200);
+		ppSimEngine.setPaddleAgent(s, 100);
+		for (int i = 0; i < serves; i++)
+		{
+			s.agentY = AGENT_YINIT;
+			s.paddleY = PADDLE_YINIT;
+			ppSimEngine.serve(s, XINIT, rgen.nextDouble(YINIT_MIN, YINIT_MAX), rgen.nextDouble(V0_MIN, V0_MAX), rgen.nextDouble(THETA_MIN, THETA_MAX),
+					rgen.nextDouble(LOSS_MIN, LOSS_MAX));
+			while (s.ballInPlay && s.tick < ppBatchRunner.MAX_TICKS)
+			{
+				ppSimEngine.stepBall(s);
+				ppSimEngine.stepAgent(s);
+				ppSimEngine.stepPaddleAgent(s);
+				if (s.ballInPlay && s.vx < 0)
+				{
+					if (count == states[0].length)
+					{
+						for (int d = 0; d < DIMS; d++)
+							states[d] = Arrays.copyOf(states[d], 2 * count);
+					}
+					states[0][count] = s.x;
+					states[1][count] = s.y;
+					states[2][count] = s.vx;
+					states[3][count] = s.vy;
+					states[4][count] = s.loss;
+					count++;
+				}
+			}
+		}
+
+		// Exact predictions
+		double plane = ppInterceptPredictor.plane(true, AGENT_XINIT);
+		double[] exactTimes = new double[count];
+		double[] exactHeights = new double[count];
+		double[] result = new double[2];
+		start = System.nanoTime();
+		for (int i = 0; i < count; i++)
+		{
+			ppInterceptPredictor.intercept(states[0][i], states[1][i], states[2][i], states[3][i], states[4][i], plane, true, result);
+			exactTimes[i] = result[0];
+			exactHeights[i] = result[1];
+		}
+		double exactNs = (double) (System.nanoTime() - start) / count;
+
+		System.out.printf("%d states, exact prediction %.0f ns\n\n", count, exactNs);
+		System.out.printf("%-12s %10s %12s %12s %12s %12s %10s\n", "Lookup", "ns", "Mean |dy|", "95% |dy|", "Max |dy|", "Mean |dt|", "Misses");
+		for (boolean interpolate : new boolean[] { false, true })
+		{
+			double[] errors = new double[count];
+			double sumError = 0;
+			double sumTimeError = 0;
+			int both = 0;
+			int misses = 0; // States for which only one of the two says the ball reaches the agent
+
+			table.setInterpolate(interpolate);
+			for (int i = 0; i < count; i++)
+				table.lookup(states[0][i], states[1][i], states[2][i], states[3][i], states[4][i], result); // Warm up
+			start = System.nanoTime();
+			for (int i = 0; i < count; i++)
+			{
+				table.lookup(states[0][i], states[1][i], states[2][i], states[3][i], states[4][i], result);
+				if ((result[0] < 0) != (exactTimes[i] < 0))
+					misses++;
+				else if (result[0] >= 0)
+				{
+					errors[both] = Math.abs(result[1] - exactHeights[i]);
+					sumError += errors[both++];
+					sumTimeError += Math.abs(result[0] - exactTimes[i]);
+				}
+			}
+			double lookupNs = (double) (System.nanoTime() - start) / count;
+
+			Arrays.sort(errors, 0, both);
+			System.out.printf("%-12s %10.0f %9.1f mm %9.1f mm %9.1f mm %9.1f ms %10d\n", interpolate ? "interpolate" : "nearest", lookupNs, 1000 * sumError / both,
+					1000 * errors[(int) (0.95 * both)], 1000 * errors[both - 1], 1000 * sumTimeError / both, misses);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package ppPackage;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations (in ns), cheap enough to record every tick.
+ * 
+ * Values are counted in buckets that are linear within each power of two (16
+ * buckets per octave, so any value is known to within about 6%), from 1 ns to
+ * the largest long, in a fixed array: recording is an index computation and
+ * an increment, with no allocation and no lock.
+ * 
+ * There is a single writer (the thread that records) and any number of
+ * readers. The count is volatile and written last, so a reader that reads it
+ * first sees at least the buckets of that many values; readers may see a few
+ * values recorded after that, which does not matter for percentiles. A reset
+ * is only requested by readers, and carried out by the writer at its next
+ * record(), so that the two never race on the buckets.
+ */
+public class ppLatencyHistogram
+{
+	private static final int SUB_BITS = 4;
+	private static final int SUB = 1 << SUB_BITS; // Buckets per octave
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+	private final long[] counts = new long[BUCKETS];
+	private long sum;
+	private long max;
+	private volatile long count;
+	private volatile boolean resetRequested;
+
+	/**
+	 * Records a value. Must always be called from the same thread.
+	 * 
+	 * @param nanos The duration to record (in ns; negative values count as 0)
+	 */
+	public void record(long nanos)
+	{
+		if (resetRequested)
+		{
+			Arrays.fill(counts, 0);
+			sum = 0;
+			max = 0;
+			count = 0;
+			resetRequested = false;
+		}
+
+		long v = Math.max(0, nanos);
+		counts[index(v)]++;
+		sum += v;
+		max = Math.max(max, v);
+		count = count + 1;
+	}
+
+	/**
+	 * Asks the writer to clear the histogram before it records the next value.
+	 */
+	public void reset()
+	{
+		resetRequested = true;
+	}
+
+	/**
+	 * @param v A value (not negative)
+	 * @return The bucket the value is counted in
+	 */
+	private static int index(long v)
+	{
+		if (v < SUB)
+			return (int) v;
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+		return (shift + 1) * SUB + (int) (v >>> shift & (SUB - 1));
+	}
+
+	/**
+	 * @param index A bucket
+	 * @return The smallest value counted in the bucket
+	 */
+	private static long lowerBound(int index)
+	{
+		if (index < SUB)
+			return index;
+		return (long) (SUB + index % SUB) << (index / SUB - 1);
+	}
+
+	/**
+	 * @return The number of values recorded
+	 */
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @param p A fraction of the values, in [0, 1] (e.g. 0.99)
+	 * @return The value below which that fraction of the values lie, to within
+	 *         the width of a bucket (in ns), or 0 if nothing was recorded
+	 */
+	public long percentile(double p)
+	{
+		long n = count;
+		if (n == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(p * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank)
+				return (i + 1 < BUCKETS ? (lowerBound(i) + lowerBound(i + 1) - 1) / 2 : lowerBound(i));
+		}
+		return max;
+	}
+
+	/**
+	 * @return The mean of the values (in ns), or 0 if nothing was recorded
+	 */
+	public double getMean()
+	{
+		long n = count;
+		return (n == 0 ? 0 : (double) sum / n);
+	}
+
+	/**
+	 * @return The largest value recorded (in ns)
+	 */
+	public long getMax()
+	{
+		long n = count; // Read first, for visibility
+		return (n == 0 ? 0 : max);
+	}
+}
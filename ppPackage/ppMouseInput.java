@@ -0,0 +1,82 @@
+package ppPackage;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces the mouse movements of the player into the latest position only.
+ * 
+ * A mouse can report its position several hundred times per second, far more
+ * often than the physics ticks. The event dispatch thread only stores each
+ * position (replacing the previous one, which nobody will ever need), and the
+ * game loop takes the latest one once per tick and moves the paddle, so the
+ * paddle and its image are updated at most once per tick whatever the polling
+ * rate of the mouse.
+ * 
+ * The position is kept as the bits of a double in an AtomicLong, so neither
+ * side locks or allocates. Counters of the positions received and applied show
+ * how many were coalesced.
+ */
+public class ppMouseInput
+{
+	private static final long NONE = Double.doubleToLongBits(Double.NaN); // No position received since the last poll()
+
+	private final AtomicLong latest = new AtomicLong(NONE);
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong applied = new AtomicLong();
+
+	/**
+	 * Stores the latest position of the mouse. Called by the event dispatch
+	 * thread for every mouse event.
+	 * 
+	 * @param y The y-position the paddle should be moved to (in m)
+	 */
+	public void post(double y)
+	{
+		latest.set(Double.doubleToLongBits(y));
+		received.incrementAndGet();
+	}
+
+	/**
+	 * Takes the latest position, if any was posted since the last call. Called
+	 * by the game loop once per tick.
+	 * 
+	 * @return The latest position (in m), or NaN if the mouse has not moved
+	 */
+	public double poll()
+	{
+		long bits = latest.getAndSet(NONE);
+
+		if (bits == NONE)
+			return Double.NaN;
+		applied.incrementAndGet();
+		return Double.longBitsToDouble(bits);
+	}
+
+	/**
+	 * @return The number of mouse positions posted
+	 */
+	public long getReceived()
+	{
+		return received.get();
+	}
+
+	/**
+	 * @return The number of mouse positions taken by poll() (the others were
+	 *         replaced by a later one before the next tick)
+	 */
+	public long getApplied()
+	{
+		return applied.get();
+	}
+
+	/**
+	 * @return A summary of the counters
+	 */
+	public String getReport()
+	{
+		long r = getReceived();
+		long a = getApplied();
+
+		return String.format("Mouse events: %d received, %d applied (%.1f%% coalesced)", r, a, r == 0 ? 0 : 100.0 * (r - a) / r);
+	}
+}
@@ -0,0 +1,532 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.Arrays;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Multi-ball mode for stress tests: any number of balls share one table, one
+ * player's paddle and one agent, and are all advanced by a single loop.
+ * 
+ * Instead of one ppBall thread (with its own GOval and trace) per ball, the
+ * state of every ball lives in primitive arrays (struct of arrays) indexed by
+ * ball, kept dense by moving the last ball into the slot of any ball that
+ * leaves play. Each ball follows the same closed-form trajectory and collision
+ * rules as in ppSimEngine, using the incremental decay factor of
+ * ppDecayKernel. Ball-ball collisions are found through a uniform grid with
+ * cells the size of a ball's diameter, rebuilt every tick with a counting sort,
+ * so each ball is only tested against the balls in the cells around it.
+ * 
+ * The agent aims for the approaching ball that will reach it first; the
+ * player's paddle is either moved by the caller or controlled the same way.
+ */
+public strictfp class ppMultiBall
+{
+	private static final double CELL = 2 * BALL_RAD; // Size of a grid cell (in m)
+	private static final int GRID_W = (int) Math.ceil(XMAX / CELL) + 1; // Number of columns of the grid
+	private static final int GRID_H = (int) Math.ceil(YMAX / CELL) + 1; // Number of rows of the grid
+	private static final double STRESS_FILL = 0.1; // Fraction of the area between the paddles covered by balls in main() (a dilute gas)
+
+	// Ball state, one entry per ball (only the first count entries are in use)
+	final double[] x0, y0, v0x, v0y, t, loss, decay;
+	final double[] x, y, vx, vy;
+	int count;
+
+	// Broadphase
+	private final int[] cellStart = new int[GRID_W * GRID_H + 1]; // Index in sorted of the first ball of each cell
+	private final int[] cellOf; // Cell of each ball
+	private final int[] sorted; // Ball indices, sorted by cell
+
+	// Paddles
+	double paddleX, paddleY, paddleVy;
+	boolean paddleAgent;
+	int paddleDelay, paddleCounter;
+	double agentX, agentY, agentVy;
+	int agentDelay, agentCounter;
+
+	private final long[] outcomes = new long[EndState.values().length];
+	private long ballCollisions;
+	private long tick;
+	private ppRandom rgen; // If not null, every ball that leaves play is replaced with a new random one
+
+	/**
+	 * Creates an empty table that can hold up to <code>capacity</code> balls.
+	 * 
+	 * @param capacity The maximum number of simultaneous balls
+	 */
+	public ppMultiBall(int capacity)
+	{
+		x0 = new double[capacity];
+		y0 = new double[capacity];
+		v0x = new double[capacity];
+		v0y = new double[capacity];
+		t = new double[capacity];
+		loss = new double[capacity];
+		decay = new double[capacity];
+		x = new double[capacity];
+		y = new double[capacity];
+		vx = new double[capacity];
+		vy = new double[capacity];
+		cellOf = new int[capacity];
+		sorted = new int[capacity];
+
+		paddleX = PADDLE_XINIT;
+		paddleY = PADDLE_YINIT;
+		paddleDelay = 1;
+		agentX = AGENT_XINIT;
+		agentY = AGENT_YINIT;
+		agentDelay = 1;
+	}
+
+	/**
+	 * Puts a new ball in play, if there is room for it.
+	 * 
+	 * @param Xinit Initial x-position of the ball (in m)
+	 * @param Yinit Initial y-position of the ball (in m)
+	 * @param V0    Initial speed (in m/s)
+	 * @param theta Launch angle (in degrees)
+	 * @param loss  Collision energy loss factor (in the range [0, 1])
+	 * @return TRUE if the ball was added and FALSE if the table is full
+	 */
+	public boolean addBall(double Xinit, double Yinit, double V0, double theta, double loss)
+	{
+		if (count == x0.length)
+			return false;
+
+		int i = count++;
+		this.loss[i] = loss;
+		startSegment(i, Xinit, Yinit, V0 * StrictMath.cos(theta * Math.PI / 180), V0 * StrictMath.sin(theta * Math.PI / 180));
+		return true;
+	}
+
+	/**
+	 * Puts a ball with a random position, speed and direction in play.
+	 * 
+	 * @param rgen The generator to draw from
+	 * @return TRUE if the ball was added and FALSE if the table is full
+	 */
+	public boolean addRandomBall(ppRandom rgen)
+	{
+		double randX = rgen.nextDouble(XINIT, PADDLE_XINIT - PADDLE_WIDTH / 2 - BALL_RAD);
+		double randYinit = rgen.nextDouble(YINIT_MIN, YINIT_MAX);
+		double randLoss = rgen.nextDouble(LOSS_MIN, LOSS_MAX);
+		double randV0 = rgen.nextDouble(V0_MIN, V0_MAX);
+		double randTheta = rgen.nextDouble(-180, 180);
+
+		return addBall(randX, randYinit, randV0, randTheta, randLoss);
+	}
+
+	/**
+	 * Replaces every ball that leaves play with a new random ball, so that the
+	 * number of balls stays constant.
+	 * 
+	 * @param rgen The generator to draw the new balls from, or null to stop
+	 *             replacing balls
+	 */
+	public void setRespawn(ppRandom rgen)
+	{
+		this.rgen = rgen;
+	}
+
+	/**
+	 * Makes the agent and, optionally, the player's paddle react with the given
+	 * reaction times.
+	 * 
+	 * @param agentMillis  The agent's reaction time (in milliseconds)
+	 * @param paddleMillis The reaction time of the player's paddle (in
+	 *                     milliseconds), or -1 if the caller moves it with
+	 *                     movePaddle()
+	 */
+	public void setReactTimes(int agentMillis, int paddleMillis)
+	{
+		agentDelay = Math.max(1, (int) Math.round(agentMillis / (1000 * TICK)));
+		agentCounter = 0;
+		paddleAgent = (paddleMillis >= 0);
+		paddleDelay = Math.max(1, (int) Math.round(paddleMillis / (1000 * TICK)));
+		paddleCounter = 0;
+	}
+
+	/**
+	 * Moves the player's paddle to the specified y-position (clamped to the table)
+	 * and sets its velocity from the displacement over one TICK.
+	 * 
+	 * @param newY The y-position the center of the paddle should be moved to
+	 */
+	public void movePaddle(double newY)
+	{
+		double lastY = paddleY;
+		paddleY = ppSimEngine.clampPaddleY(newY);
+		paddleVy = (paddleY - lastY) / TICK;
+	}
+
+	/**
+	 * Advances every ball, then the agent and the player's paddle, by one TICK.
+	 */
+	public void step()
+	{
+		// Balls against the floor, the paddles and the ceiling. Iterating backwards lets a finished ball be replaced by the last one.
+		for (int i = count - 1; i >= 0; i--)
+			stepBall(i);
+
+		collideBalls();
+
+		// Advance the clock of every segment
+		tick++;
+		boolean resync = (tick & (ppDecayKernel.RESYNC_TICKS - 1)) == 0;
+		for (int i = 0; i < count; i++)
+		{
+			t[i] += TICK;
+			if (resync)
+				decay[i] = StrictMath.exp(-G * t[i] / VT);
+			else
+				decay[i] *= ppDecayKernel.DECAY_PER_TICK;
+		}
+
+		stepAgent();
+		if (paddleAgent)
+			stepPaddleAgent();
+	}
+
+	/**
+	 * Computes the position and velocity of one ball at the current time and
+	 * resolves its collisions with the floor, the agent, the paddle and the
+	 * ceiling, in the same way as ppSimEngine.stepBall().
+	 * 
+	 * @param i The index of the ball
+	 */
+	private void stepBall(int i)
+	{
+		double d = decay[i];
+		x[i] = x0[i] + VT * v0x[i] / G * (1 - d);
+		y[i] = y0[i] + VT / G * (VT + v0y[i]) * (1 - d) - VT * t[i];
+		vx[i] = v0x[i] * d;
+		vy[i] = d * (v0y[i] + VT) - VT;
+
+		// Collision with floor
+		if (vy[i] < 0 && y[i] - BALL_RAD <= 0)
+		{
+			double KEx = 0.5 * BALL_MASS * vx[i] * vx[i] * (1 - loss[i]);
+			double KEy = 0.5 * BALL_MASS * vy[i] * vy[i] * (1 - loss[i]);
+
+			if (KEx + KEy < KE_MIN)
+			{
+				remove(i, vx[i] < 0 ? EndState.NO_ENERGY_PLAYER : EndState.NO_ENERGY_AGENT);
+				return;
+			}
+
+			double newVx = Math.sqrt(2 * KEx / BALL_MASS);
+			startSegment(i, x[i], BALL_RAD, vx[i] < 0 ? -newVx : newVx, Math.sqrt(2 * KEy / BALL_MASS));
+		}
+		// Collision with agent or with left boundary
+		if (vx[i] < 0 && x[i] - BALL_RAD <= agentX + PADDLE_WIDTH / 2)
+		{
+			if (!ppSimEngine.contact(agentX, agentY, agentX - PADDLE_WIDTH / 2 + BALL_RAD, y[i], true))
+			{
+				remove(i, EndState.OUT_LEFT);
+				return;
+			}
+			startSegment(i, X_LEFT_WALL + BALL_RAD, y[i], ppSimEngine.collisionVox(vx[i], AGENT_VX),
+					ppSimEngine.collisionVoy(vy[i], AGENT_VY_FACTOR * agentVy));
+		}
+		// Collision with paddle or with right boundary
+		if (vx[i] > 0 && x[i] + BALL_RAD >= paddleX - PADDLE_WIDTH / 2)
+		{
+			if (!ppSimEngine.contact(paddleX, paddleY, paddleX + PADDLE_WIDTH / 2 - BALL_RAD, y[i], false))
+			{
+				remove(i, EndState.OUT_RIGHT);
+				return;
+			}
+			startSegment(i, paddleX - PADDLE_WIDTH / 2 - BALL_RAD, y[i], ppSimEngine.collisionVox(vx[i], PADDLE_VX),
+					ppSimEngine.collisionVoy(vy[i], PLAYER_VY_FACTOR * paddleVy));
+		}
+		// Collision with ceiling
+		if (vy[i] > 0 && y[i] + BALL_RAD >= YMAX)
+			remove(i, vx[i] < 0 ? EndState.TOP_PLAYER : EndState.TOP_AGENT);
+	}
+
+	/**
+	 * Finds every pair of overlapping balls that are moving towards each other
+	 * and bounces them off each other (perfectly elastic collision between equal
+	 * masses, i.e. the components of their velocities along the line between
+	 * their centers are exchanged).
+	 */
+	private void collideBalls()
+	{
+		// Counting sort of the balls by cell
+		Arrays.fill(cellStart, 0);
+		for (int i = 0; i < count; i++)
+		{
+			cellOf[i] = cell(x[i], y[i]);
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (int c = 0; c < GRID_W * GRID_H; c++)
+			cellStart[c + 1] += cellStart[c];
+		for (int i = 0; i < count; i++)
+			sorted[--cellStart[cellOf[i] + 1]] = i;
+		// cellStart[c + 1] now points at the first ball of cell c; shift it back into place
+		for (int c = 0; c < GRID_W * GRID_H; c++)
+			cellStart[c] = cellStart[c + 1];
+		cellStart[GRID_W * GRID_H] = count;
+
+		// Each pair is tested once: within a cell, and between a cell and the 4 neighbours after it
+		for (int cy = 0; cy < GRID_H; cy++)
+		{
+			for (int cx = 0; cx < GRID_W; cx++)
+			{
+				int c = cy * GRID_W + cx;
+				for (int k = cellStart[c]; k < cellStart[c + 1]; k++)
+				{
+					int i = sorted[k];
+					for (int m = k + 1; m < cellStart[c + 1]; m++)
+						collide(i, sorted[m]);
+					if (cx + 1 < GRID_W)
+						collideCell(i, c + 1);
+					if (cy + 1 < GRID_H)
+					{
+						if (cx > 0)
+							collideCell(i, c + GRID_W - 1);
+						collideCell(i, c + GRID_W);
+						if (cx + 1 < GRID_W)
+							collideCell(i, c + GRID_W + 1);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tests one ball against every ball in a grid cell.
+	 * 
+	 * @param i The index of the ball
+	 * @param c The index of the cell
+	 */
+	private void collideCell(int i, int c)
+	{
+		for (int k = cellStart[c]; k < cellStart[c + 1]; k++)
+			collide(i, sorted[k]);
+	}
+
+	/**
+	 * Bounces two balls off each other if they overlap and are approaching.
+	 * 
+	 * @param i The index of the first ball
+	 * @param j The index of the second ball
+	 */
+	private void collide(int i, int j)
+	{
+		double dx = x[j] - x[i];
+		double dy = y[j] - y[i];
+		double dist2 = dx * dx + dy * dy;
+
+		if (dist2 >= 4 * BALL_RAD * BALL_RAD || dist2 == 0)
+			return;
+
+		double dist = Math.sqrt(dist2);
+		double nx = dx / dist;
+		double ny = dy / dist;
+		double approach = (vx[j] - vx[i]) * nx + (vy[j] - vy[i]) * ny;
+
+		if (approach >= 0)
+			return;
+
+		startSegment(i, x[i], y[i], vx[i] + approach * nx, vy[i] + approach * ny);
+		startSegment(j, x[j], y[j], vx[j] - approach * nx, vy[j] - approach * ny);
+		ballCollisions++;
+	}
+
+	/**
+	 * Moves the agent towards the approaching ball that will reach it first,
+	 * updating its target every agentDelay ticks.
+	 */
+	private void stepAgent()
+	{
+		if (agentCounter % agentDelay == agentDelay - 1)
+		{
+			double timeToCollision = -1;
+			double targetY = AGENT_YINIT;
+
+			for (int i = 0; i < count; i++)
+			{
+				double tt = ppSimEngine.predictTime(x[i], vx[i]);
+				if (tt >= 0 && (timeToCollision == -1 || tt < timeToCollision))
+				{
+					timeToCollision = tt;
+					targetY = ppSimEngine.predictY(y[i], vy[i], tt);
+				}
+			}
+			agentVy = ppSimEngine.agentVelocity(agentY, targetY, timeToCollision);
+		}
+
+		agentY = ppSimEngine.clampPaddleY(agentY + TICK * agentVy);
+		agentCounter = (agentCounter + 1) % agentDelay;
+	}
+
+	/**
+	 * Moves the player's paddle like the agent, mirrored to the right side of the
+	 * table.
+	 */
+	private void stepPaddleAgent()
+	{
+		if (paddleCounter % paddleDelay == paddleDelay - 1)
+		{
+			double timeToCollision = -1;
+			double targetY = PADDLE_YINIT;
+
+			for (int i = 0; i < count; i++)
+			{
+				double tt = ppSimEngine.predictTimeRight(x[i], vx[i], paddleX);
+				if (tt >= 0 && (timeToCollision == -1 || tt < timeToCollision))
+				{
+					timeToCollision = tt;
+					targetY = ppSimEngine.predictY(y[i], vy[i], tt);
+				}
+			}
+			paddleVy = ppSimEngine.agentVelocity(paddleY, targetY, timeToCollision);
+		}
+
+		paddleY = ppSimEngine.clampPaddleY(paddleY + TICK * paddleVy);
+		paddleCounter = (paddleCounter + 1) % paddleDelay;
+	}
+
+	/**
+	 * Starts a new trajectory segment for one ball at its current time.
+	 * 
+	 * @param i      The index of the ball
+	 * @param startX Initial x-position of the segment (in m)
+	 * @param startY Initial y-position of the segment (in m)
+	 * @param startVx Initial x-velocity of the segment (in m/s)
+	 * @param startVy Initial y-velocity of the segment (in m/s)
+	 */
+	private void startSegment(int i, double startX, double startY, double startVx, double startVy)
+	{
+		x0[i] = startX;
+		y0[i] = startY;
+		v0x[i] = startVx;
+		v0y[i] = startVy;
+		t[i] = 0;
+		decay[i] = 1;
+		x[i] = startX;
+		y[i] = startY;
+		vx[i] = startVx;
+		vy[i] = startVy;
+	}
+
+	/**
+	 * Takes a ball out of play, records how it left, and either replaces it with a
+	 * new random ball or moves the last ball into its slot.
+	 * 
+	 * @param i   The index of the ball
+	 * @param end The reason the ball left play
+	 */
+	private void remove(int i, EndState end)
+	{
+		outcomes[end.ordinal()]++;
+
+		int last = --count;
+		x0[i] = x0[last];
+		y0[i] = y0[last];
+		v0x[i] = v0x[last];
+		v0y[i] = v0y[last];
+		t[i] = t[last];
+		loss[i] = loss[last];
+		decay[i] = decay[last];
+		x[i] = x[last];
+		y[i] = y[last];
+		vx[i] = vx[last];
+		vy[i] = vy[last];
+
+		if (rgen != null)
+			addRandomBall(rgen);
+	}
+
+	/**
+	 * @param px An x-coordinate (in m)
+	 * @param py A y-coordinate (in m)
+	 * @return The index of the grid cell containing (px, py), clamped to the grid
+	 */
+	private static int cell(double px, double py)
+	{
+		int cx = Math.min(GRID_W - 1, Math.max(0, (int) (px / CELL)));
+		int cy = Math.min(GRID_H - 1, Math.max(0, (int) (py / CELL)));
+		return cy * GRID_W + cx;
+	}
+
+	/**
+	 * @return The number of balls currently in play
+	 */
+	public int getCount()
+	{
+		return count;
+	}
+
+	/**
+	 * @param end An end state
+	 * @return The number of balls that left play that way
+	 */
+	public long getOutcome(EndState end)
+	{
+		return outcomes[end.ordinal()];
+	}
+
+	/**
+	 * @return The number of ball-ball collisions so far
+	 */
+	public long getBallCollisions()
+	{
+		return ballCollisions;
+	}
+
+	/**
+	 * Stress test: keeps a given number of balls in play against two agents and
+	 * reports the time taken per tick, which must stay under TICK for the
+	 * simulation to keep up with real time.
+	 * 
+	 * By default, the balls cover STRESS_FILL of the area between the paddles, so
+	 * that each one travels several diameters between two collisions. Much denser
+	 * tables jam into a pile in which every ball touches its neighbours at every
+	 * tick, and time the collision response rather than the simulation; the
+	 * collision rate is printed to tell the two apart.
+	 * 
+	 * @param args Number of balls (default: STRESS_FILL of the table), number of
+	 *             ticks (default 30000: with so few balls, shorter runs
+	 *             time the JIT compiler more than the simulation)
+	 */
+	public static void main(String[] args)
+	{
+		double area = (PADDLE_XINIT - AGENT_XINIT - PADDLE_WIDTH) * YMAX; // Area between the paddles (in m^2)
+		double ballArea = Math.PI * BALL_RAD * BALL_RAD;
+		int balls = (args.length > 0 ? Integer.parseInt(args[0]) : (int) (STRESS_FILL * area / ballArea));
+		int ticks = (args.length > 1 ? Integer.parseInt(args[1]) : 30000);
+		ppRandom rgen = new ppRandom(RSEED);
+		ppMultiBall table = new ppMultiBall(balls);
+		long[] nanos = new long[ticks];
+
+		while (table.addRandomBall(rgen))
+			;
+		table.setRespawn(rgen);
+		table.setReactTimes(100, 100);
+
+		for (int i = 0; i < ticks; i++)
+		{
+			long start = System.nanoTime();
+			table.step();
+			nanos[i] = System.nanoTime() - start;
+		}
+
+		// Skip the first third of the ticks (JIT warm-up)
+		long[] measured = Arrays.copyOfRange(nanos, ticks / 3, ticks);
+		Arrays.sort(measured);
+		long total = 0;
+		for (long n : measured)
+			total += n;
+
+		System.out.printf("Balls:                %d\n", table.getCount());
+		System.out.printf("Area covered:         %.1f%%\n", 100 * table.getCount() * ballArea / area);
+		System.out.printf("Ball-ball collisions: %d (%.2f per ball per second)\n", table.getBallCollisions(),
+				table.getBallCollisions() / (table.getCount() * ticks * TICK));
+		System.out.printf("Tick time (mean):     %.3f ms\n", total / 1e6 / measured.length);
+		System.out.printf("Tick time (p99):      %.3f ms\n", measured[(int) (0.99 * (measured.length - 1))] / 1e6);
+		System.out.printf("Tick time (max):      %.3f ms\n", measured[measured.length - 1] / 1e6);
+		System.out.printf("Budget (TICK):        %.3f ms\n", TICK * 1000);
+	}
+}
@@ -0,0 +1,284 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Client of a match hosted by a ppNetHost: plays the agent's paddle on the left
+ * side of the table.
+ * 
+ * The client does not wait for the host to show the effect of its input.
+ * Every tick it takes the latest local position of its paddle (coalesced by a
+ * ppMouseInput), numbers it, moves its paddle there at once and advances the
+ * ball itself: its own paddle therefore responds instantly however long the
+ * round trip to the host, and the ball bounces off it as soon as it hits.
+ * The positions that the host has not acknowledged yet (at most
+ * NET_INPUT_REDUNDANCY) are sent in every input packet, so a lost packet is
+ * made up for by the next one.
+ * 
+ * When a newer state packet arrives, the client reconciles: it restarts from
+ * the authoritative snapshot, which is a round trip old, and replays on top of
+ * it every one of its own positions the host had not applied yet (the snapshot
+ * says which was the last one), one per tick, as the host will. Where the
+ * prediction was right the replayed state is identical to the predicted one;
+ * where it was wrong (the host's paddle moved, the host skipped or held an
+ * input) the state is corrected. The host's paddle is shown where the last
+ * snapshot has it.
+ * 
+ * Every input packet also acknowledges the newest snapshot received, which the
+ * host then uses as the baseline of its delta encoding (see ppNetSnapshot).
+ * 
+ * The link is connected to the host, so packets from other addresses never
+ * get here; state packets that are truncated or out of range are dropped.
+ */
+public class ppNetClient
+{
+	static final int MAX_INPUT_SIZE = 1 + 3 * 10 + NET_INPUT_REDUNDANCY * 4; // Upper bound on the size of an input packet (in bytes)
+
+	private final ppNetLink link;
+	private final ppMouseInput input;
+	private final ppSimState predicted = ppNetSnapshot.newState(); // What the client shows
+	private final ppNetSnapshot[] received = new ppNetSnapshot[NET_HISTORY]; // Snapshots received, indexed by tick mod NET_HISTORY
+	private final ppNetSnapshot latest = new ppNetSnapshot(); // Newest snapshot received
+	private final ppNetSnapshot next = new ppNetSnapshot(); // Snapshot being decoded
+	private final double[] inputs = new double[NET_HISTORY]; // Positions of the paddle, indexed by sequence number mod NET_HISTORY
+	private final ByteBuffer buf = ByteBuffer.allocate(Math.max(ppNetSnapshot.MAX_SIZE, MAX_INPUT_SIZE));
+	private long seq = -1; // Sequence number of the newest input
+	private long acked = -1; // Sequence number of the last input applied by the host, in the newest snapshot
+	private boolean fresh; // TRUE if a newer snapshot arrived since the last reconciliation
+
+	// Counters
+	private long snapshots; // State packets received that were newer than the ones before
+	private long undecodable; // State packets whose baseline was no longer in the history
+	private long malformed; // Packets dropped because they could not be read
+	private long stale; // State packets older than the newest one received
+	private long reconciliations;
+	private long corrections; // Reconciliations that moved the ball by more than 1 mm
+	private double sumCorrection; // Sum of the distances the ball was moved by reconciliations (in m)
+	private double maxCorrection;
+	private long sumPending; // Sum of the inputs not yet applied by the host, at each reconciliation
+
+	/**
+	 * @param link  The link to the host (connected to its address)
+	 * @param input The positions of the client's own paddle
+	 */
+	public ppNetClient(ppNetLink link, ppMouseInput input)
+	{
+		this.link = link;
+		this.input = input;
+		for (int i = 0; i < NET_HISTORY; i++)
+			received[i] = new ppNetSnapshot();
+	}
+
+	/**
+	 * Runs one tick.
+	 * 
+	 * @throws IOException If the socket fails
+	 */
+	public void tick() throws IOException
+	{
+		link.flush();
+		while (link.receive(buf))
+		{
+			try
+			{
+				if (!readState(buf))
+					malformed++;
+			}
+			catch (RuntimeException e)
+			{
+				malformed++; // Truncated (BufferUnderflowException) or otherwise unreadable
+			}
+		}
+
+		// Take the latest position of the paddle
+		double y = input.poll();
+		if (Double.isNaN(y))
+			y = (seq < 0 ? AGENT_YINIT : inputs[index(seq)]);
+		y = (float) y; // Sent as a float: use the same value
+		seq++;
+		inputs[index(seq)] = y;
+
+		if (fresh)
+			reconcile();
+
+		// Predict this tick
+		ppSimEngine.moveAgent(predicted, y);
+		ppSimEngine.stepBall(predicted);
+
+		sendInput();
+	}
+
+	/**
+	 * Replaces the predicted state with the newest snapshot, and replays on top
+	 * of it the inputs the host had not applied yet, except the current one.
+	 */
+	private void reconcile()
+	{
+		double x = predicted.x;
+		double y = predicted.y;
+		boolean inPlay = predicted.ballInPlay;
+
+		latest.apply(predicted);
+		acked = latest.v[ppNetSnapshot.INPUT_SEQ];
+		long from = Math.max(acked + 1, seq - NET_HISTORY + 1);
+		for (long k = from; k < seq; k++)
+		{
+			ppSimEngine.moveAgent(predicted, inputs[index(k)]);
+			ppSimEngine.stepBall(predicted);
+		}
+
+		reconciliations++;
+		sumPending += seq - acked;
+		if (inPlay && predicted.ballInPlay)
+		{
+			double correction = Math.hypot(predicted.x - x, predicted.y - y);
+			sumCorrection += correction;
+			maxCorrection = Math.max(maxCorrection, correction);
+			if (correction > 1e-3)
+				corrections++;
+		}
+		fresh = false;
+	}
+
+	/**
+	 * Reads a state packet, keeping it if it is the newest one. The packet is
+	 * decoded into a scratch snapshot, so nothing is changed unless it is valid.
+	 * 
+	 * @param buf The packet
+	 * @return FALSE if the packet is not a valid state packet
+	 */
+	private boolean readState(ByteBuffer buf)
+	{
+		if (!buf.hasRemaining() || buf.get() != ppNetSnapshot.STATE)
+			return false;
+
+		long baseTick = next.decodeHeader(buf);
+		if (baseTick < -1)
+			return false;
+		if (next.tick <= latest.tick)
+		{
+			stale++;
+			return true;
+		}
+
+		ppNetSnapshot base = null;
+		if (baseTick >= 0)
+		{
+			base = received[(int) (baseTick & (NET_HISTORY - 1))];
+			if (base.tick != baseTick)
+			{
+				undecodable++;
+				return true;
+			}
+		}
+		if (!next.decodeFields(buf, base))
+			return false;
+		received[(int) (next.tick & (NET_HISTORY - 1))].copyFrom(next);
+		latest.copyFrom(next);
+		snapshots++;
+		fresh = true;
+		return true;
+	}
+
+	/**
+	 * Sends the inputs the host has not acknowledged, at most
+	 * NET_INPUT_REDUNDANCY of them, with the acknowledgement of the newest
+	 * snapshot.
+	 * 
+	 * @throws IOException If the socket fails
+	 */
+	private void sendInput() throws IOException
+	{
+		long first = Math.max(acked + 1, seq - NET_INPUT_REDUNDANCY + 1);
+
+		buf.clear();
+		buf.put(ppNetSnapshot.INPUT);
+		ppReplayFrame.putVarLong(buf, latest.tick + 1);
+		ppReplayFrame.putVarLong(buf, first);
+		ppReplayFrame.putVarLong(buf, seq - first + 1);
+		for (long k = first; k <= seq; k++)
+			buf.putFloat((float) inputs[index(k)]);
+		buf.flip();
+		link.send(buf);
+	}
+
+	/**
+	 * @param seq An input sequence number
+	 * @return Its index in the input history
+	 */
+	private static int index(long seq)
+	{
+		return (int) (seq & (NET_HISTORY - 1));
+	}
+
+	/**
+	 * @return The predicted state (only to be read on the thread calling tick())
+	 */
+	public ppSimState getState()
+	{
+		return predicted;
+	}
+
+	/**
+	 * @return Sequence number of the newest input
+	 */
+	public long getSeq()
+	{
+		return seq;
+	}
+
+	/**
+	 * @return The position of the paddle given by the newest input (in m)
+	 */
+	public double getInputY()
+	{
+		return ppSimEngine.clampPaddleY(inputs[index(seq)]);
+	}
+
+	/**
+	 * @return The newest snapshot received (only to be read on the thread calling
+	 *         tick())
+	 */
+	ppNetSnapshot getLatest()
+	{
+		return latest;
+	}
+
+	/**
+	 * @return Points won by the host, as of the newest snapshot
+	 */
+	public int getHostScore()
+	{
+		return (int) latest.v[ppNetSnapshot.HOST_SCORE];
+	}
+
+	/**
+	 * @return Points won by the client, as of the newest snapshot
+	 */
+	public int getClientScore()
+	{
+		return (int) latest.v[ppNetSnapshot.CLIENT_SCORE];
+	}
+
+	/**
+	 * @return The mean number of ticks between an input and the snapshot in which
+	 *         the host applied it (the round trip, plus the host's queue)
+	 */
+	public double getMeanPending()
+	{
+		return (reconciliations == 0 ? 0 : (double) sumPending / reconciliations);
+	}
+
+	/**
+	 * @return A summary of the counters
+	 */
+	public String getReport()
+	{
+		return String.format(
+				"Client: input %d, %d snapshots (%d stale, %d undecodable, %d malformed), inputs applied %.1f ticks later, %d of %d reconciliations moved the ball (mean %.2f mm, max %.1f mm)\n  %s",
+				seq, snapshots, stale, undecodable, malformed, getMeanPending(), corrections, reconciliations, reconciliations == 0 ? 0 : 1000 * sumCorrection / reconciliations,
+				1000 * maxCorrection, link.getReport());
+	}
+}
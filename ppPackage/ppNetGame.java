@@ -0,0 +1,197 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import acm.graphics.GOval;
+import acm.program.GraphicsProgram;
+
+/**
+ * A match between two players on separate machines, on the same table display
+ * as the game. One player hosts (and plays the right paddle), the other joins
+ * (and plays the left paddle); see ppNetHost and ppNetClient.
+ * 
+ * Started without arguments, the program hosts on NET_PORT ("port=..." to
+ * change it); with "connect=host" or "connect=host:port", it joins. For
+ * testing by hand, "latency=..." (in ms) and "loss=..." add latency and packet
+ * loss to the packets sent (see ppNetLink).
+ * 
+ * A network thread runs the host's or the client's ticks, once per TICK of real
+ * time, and hands a copy of the state after each one to the event dispatch
+ * thread, which places the ball and the paddles. As in ppReplayViewer, a state
+ * is skipped while the previous one is still waiting to be shown. The mouse
+ * moves the local paddle through a ppMouseInput, as in the game.
+ */
+@SuppressWarnings("serial")
+public class ppNetGame extends GraphicsProgram
+{
+	private final ppMouseInput mouse = new ppMouseInput();
+	private ppNetLink link;
+	private ppNetHost host;
+	private ppNetClient client;
+	private ppPaddle paddle;
+	private ppPaddle agent;
+	private GOval ball;
+	private JLabel status;
+	private String role; // Shown in the status line
+
+	// State handed from the network thread to the event dispatch thread
+	private final ppSimState shown = new ppSimState();
+	private int shownHostScore;
+	private int shownClientScore;
+	private boolean shownWaiting;
+	private final AtomicBoolean framePending = new AtomicBoolean();
+
+	/**
+	 * Opens the socket, sets up the display, and starts the network thread.
+	 */
+	public void init()
+	{
+		String connect = getParameter("connect");
+		String port = getParameter("port");
+		String latency = getParameter("latency");
+		String loss = getParameter("loss");
+
+		resize(SCR_WIDTH + BORDER, SCR_HEIGHT + BORDER);
+		status = new JLabel();
+		add(status, NORTH);
+
+		try
+		{
+			int localPort = (connect != null ? 0 : port != null ? Integer.parseInt(port) : NET_PORT);
+			link = new ppNetLink(localPort, latency != null ? Double.parseDouble(latency) : 0, loss != null ? Double.parseDouble(loss) : 0, RSEED);
+			if (connect == null)
+			{
+				host = new ppNetHost(link, mouse, RSEED);
+				role = "Hosting on port " + link.getLocalPort();
+			}
+			else
+			{
+				int colon = connect.lastIndexOf(':');
+				link.connect(colon < 0 ? new InetSocketAddress(connect, NET_PORT) : new InetSocketAddress(connect.substring(0, colon), Integer.parseInt(connect.substring(colon + 1))));
+				client = new ppNetClient(link, mouse);
+				role = "Joined " + link.getPeer();
+			}
+		}
+		catch (IOException e)
+		{
+			status.setText("Could not open the connection: " + e.getMessage());
+			return;
+		}
+
+		// Table, paddles and ball (placed from the host's or the client's state, never simulated here)
+		ppTable table = new ppTable(this);
+		table.newScreen();
+		paddle = new ppPaddle(PADDLE_XINIT, PADDLE_YINIT, PADDLE_COLOR, table);
+		agent = new ppPaddle(AGENT_XINIT, AGENT_YINIT, AGENT_COLOR, table);
+		ball = new GOval(2 * BALL_RAD * SCALE, 2 * BALL_RAD * SCALE);
+		ball.setFilled(true);
+		ball.setColor(BALL_COLOR);
+		ball.setVisible(false);
+		add(ball);
+		addMouseListeners();
+
+		Thread network = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				play();
+			}
+		}, "ppNetGame");
+		network.setDaemon(true);
+		network.start();
+	}
+
+	/**
+	 * Body of the network thread: runs a tick and hands its state to the event
+	 * dispatch thread, once per TICK of real time, until the socket fails.
+	 */
+	private void play()
+	{
+		long deadline = System.nanoTime();
+
+		try
+		{
+			while (true)
+			{
+				deadline = ppNetTest.pace(deadline);
+				if (host != null)
+				{
+					host.tick();
+					post(host.getState(), host.getHostScore(), host.getClientScore());
+				}
+				else
+				{
+					client.tick();
+					post(client.getState(), client.getHostScore(), client.getClientScore());
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			final String message = "Connection failed: " + e.getMessage();
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					status.setText(message);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies a state and has the event dispatch thread show it, unless the
+	 * previous state has not been shown yet. Called on the network thread.
+	 * 
+	 * @param s           The state to show
+	 * @param hostScore   Points won by the host
+	 * @param clientScore Points won by the client
+	 */
+	private void post(ppSimState s, int hostScore, int clientScore)
+	{
+		if (!framePending.compareAndSet(false, true))
+			return; // The previous state has not been shown yet
+		shown.copyFrom(s);
+		shownHostScore = hostScore;
+		shownClientScore = clientScore;
+		shownWaiting = link.getSilence() > NET_TIMEOUT;
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			public void run()
+			{
+				showState();
+				framePending.set(false);
+			}
+		});
+	}
+
+	/**
+	 * Places the ball and the paddles according to the state handed over by
+	 * post(), and updates the status line. Called on the event dispatch thread.
+	 */
+	private void showState()
+	{
+		ball.setLocation(ppTable.toScrX(shown.x - BALL_RAD), ppTable.toScrY(shown.y + BALL_RAD));
+		ball.setVisible(shown.ballInPlay);
+		paddle.setY(shown.paddleY);
+		agent.setY(shown.agentY);
+
+		if (shownWaiting)
+			status.setText("  " + role + "   waiting for the other player...  ");
+		else
+			status.setText(String.format("  %s   Left %02d : %02d Right  ", role, shownClientScore, shownHostScore));
+	}
+
+	/**
+	 * Posts the position of the mouse for the local paddle.
+	 */
+	public void mouseMoved(MouseEvent e)
+	{
+		mouse.post(ppTable.scrToY((double) e.getY()));
+	}
+}
@@ -0,0 +1,317 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Host of a match between two players on separate machines. The host runs the
+ * authoritative physics (ppSimEngine, the same as ppBall) and plays the player's
+ * paddle on the right side of the table; the client (see ppNetClient) plays the
+ * agent's paddle on the left side.
+ * 
+ * Each tick, the host:
+ * <ol>
+ * <li>reads the input packets of the client and queues the paddle positions it
+ * has not seen yet;</li>
+ * <li>moves the client's paddle to the next queued position, one per tick so
+ * that the paddle moves at the velocity the client gave it. If more than
+ * NET_MAX_BACKLOG positions are queued (the client's clock runs ahead, or a
+ * burst of packets arrived at once), the host skips to the latest; if none is
+ * queued, the paddle stays where it is;</li>
+ * <li>moves its own paddle to the latest local position (coalesced by a
+ * ppMouseInput);</li>
+ * <li>advances the ball, scores the rally if it ended, and serves a new ball
+ * NET_SERVE_TICKS later;</li>
+ * <li>sends a snapshot of the state, delta-encoded against the latest snapshot
+ * the client has acknowledged (see ppNetSnapshot).</li>
+ * </ol>
+ * 
+ * The host waits for the first packet of the client before serving, and then
+ * only listens to the address it came from (see ppNetLink). Packets that are
+ * truncated or out of range are dropped whole.
+ */
+public class ppNetHost
+{
+	private final ppNetLink link;
+	private final ppMouseInput input;
+	private final ppRandom rgen;
+	private final ppSimState s = ppNetSnapshot.newState();
+	private final ppNetSnapshot[] sent = new ppNetSnapshot[NET_HISTORY]; // Snapshots sent, indexed by tick mod NET_HISTORY
+	private final double[] inputs = new double[NET_HISTORY]; // Positions of the client's paddle, indexed by sequence number mod NET_HISTORY
+	private final ByteBuffer buf = ByteBuffer.allocate(Math.max(ppNetSnapshot.MAX_SIZE, ppNetClient.MAX_INPUT_SIZE));
+	private long tick; // Match tick
+	private long received = -1; // Sequence number of the newest input received
+	private long applied = -1; // Sequence number of the last input applied
+	private long acked = -1; // Tick of the newest snapshot acknowledged by the client
+	private boolean connected;
+	private int serveCountdown = NET_SERVE_TICKS;
+	private int hostScore;
+	private int clientScore;
+
+	// Counters
+	private long malformed; // Packets dropped because they could not be read
+	private long inputsSkipped; // Inputs dropped to catch up with the client
+	private long ticksStarved; // Ticks in which no input of the client was queued
+	private long statePackets;
+	private long deltaPackets; // State packets encoded against a baseline (the others are encoded against zeros)
+	private long stateBytes;
+	private long uncompressedBytes; // What the state packets would have taken, all encoded against zeros
+
+	/**
+	 * @param link  The link to the client
+	 * @param input The positions of the host's own paddle
+	 * @param seed  Seed of the random serves
+	 */
+	public ppNetHost(ppNetLink link, ppMouseInput input, long seed)
+	{
+		this.link = link;
+		this.input = input;
+		this.rgen = new ppRandom(seed);
+		for (int i = 0; i < NET_HISTORY; i++)
+			sent[i] = new ppNetSnapshot();
+	}
+
+	/**
+	 * Runs one tick.
+	 * 
+	 * @throws IOException If the socket fails
+	 */
+	public void tick() throws IOException
+	{
+		link.flush();
+		while (link.receive(buf))
+		{
+			try
+			{
+				if (!readInput(buf))
+					malformed++;
+			}
+			catch (RuntimeException e)
+			{
+				malformed++; // Truncated (BufferUnderflowException) or otherwise unreadable
+			}
+		}
+
+		// The client's paddle
+		if (received > applied)
+		{
+			if (received - applied > NET_MAX_BACKLOG)
+			{
+				inputsSkipped += received - applied - 1;
+				applied = received - 1;
+			}
+			applied++;
+			ppSimEngine.moveAgent(s, inputs[(int) (applied & (NET_HISTORY - 1))]);
+		}
+		else
+		{
+			ppSimEngine.moveAgent(s, s.agentY);
+			if (connected)
+				ticksStarved++;
+		}
+
+		// The host's paddle
+		double y = input.poll();
+		ppSimEngine.movePaddle(s, Double.isNaN(y) ? s.paddleY : y);
+
+		// The ball
+		if (s.ballInPlay)
+		{
+			if ((ppSimEngine.stepBall(s) & ppSimEngine.EVENT_END) != 0)
+			{
+				if (s.endState.agentScores())
+					clientScore++;
+				else
+					hostScore++;
+				serveCountdown = NET_SERVE_TICKS;
+			}
+		}
+		else if (connected && --serveCountdown <= 0)
+			serve();
+
+		tick++;
+		sendSnapshot();
+	}
+
+	/**
+	 * Serves a random ball from the left side, with the same draws as
+	 * ppSimPaddleAgent.newBall(), leaving the paddles where the players put them.
+	 */
+	private void serve()
+	{
+		ppSimConfig c = s.config;
+		double randYinit = rgen.nextDouble(YINIT_MIN, YINIT_MAX);
+		double randLoss = rgen.nextDouble(c.lossMin, c.lossMax);
+		double randV0 = rgen.nextDouble(c.v0Min, c.v0Max);
+		double randTheta = rgen.nextDouble(c.thetaMin, c.thetaMax);
+
+		ppSimEngine.serve(s, XINIT, randYinit, randV0, randTheta, randLoss);
+	}
+
+	/**
+	 * Reads an input packet: the snapshot it acknowledges, and the positions of
+	 * the client's paddle not received before. The whole packet is checked
+	 * before anything is changed. The first valid packet connects the link to
+	 * its sender.
+	 * 
+	 * @param buf The packet
+	 * @return FALSE if the packet is not a valid input packet (nothing is
+	 *         changed then)
+	 */
+	private boolean readInput(ByteBuffer buf)
+	{
+		if (!buf.hasRemaining() || buf.get() != ppNetSnapshot.INPUT)
+			return false;
+
+		long ack = ppReplayFrame.getVarLong(buf) - 1;
+		long first = ppReplayFrame.getVarLong(buf);
+		long count = ppReplayFrame.getVarLong(buf);
+		if (first < 0 || count < 1 || count > NET_INPUT_REDUNDANCY || buf.remaining() != count * 4)
+			return false;
+		for (int k = 0; k < count; k++)
+		{
+			float y = buf.getFloat(buf.position() + 4 * k);
+			if (Float.isNaN(y) || Float.isInfinite(y))
+				return false;
+		}
+
+		if (link.getPeer() == null)
+			link.connect(link.getSender());
+		connected = true;
+		if (ack > acked && ack <= tick)
+			acked = ack;
+		for (long seq = first; seq < first + count; seq++)
+		{
+			double y = buf.getFloat();
+			if (seq <= received)
+				continue;
+			if (seq - applied > NET_HISTORY)
+				applied = seq - NET_HISTORY; // Would overwrite positions not applied yet
+			inputs[(int) (seq & (NET_HISTORY - 1))] = y;
+			received = seq;
+		}
+		return true;
+	}
+
+	/**
+	 * Sends the snapshot of the current tick, encoded against the latest one the
+	 * client acknowledged if it is still in the history.
+	 * 
+	 * @throws IOException If the socket fails
+	 */
+	private void sendSnapshot() throws IOException
+	{
+		ppNetSnapshot snapshot = sent[(int) (tick & (NET_HISTORY - 1))];
+		snapshot.capture(tick, s, applied, hostScore, clientScore);
+		if (!connected)
+			return;
+
+		ppNetSnapshot base = null;
+		if (acked >= 0 && tick - acked < NET_HISTORY)
+			base = sent[(int) (acked & (NET_HISTORY - 1))];
+
+		buf.clear();
+		if (base != null)
+		{
+			snapshot.encode(buf, null);
+			uncompressedBytes += buf.position();
+			buf.clear();
+			deltaPackets++;
+		}
+		snapshot.encode(buf, base);
+		buf.flip();
+		statePackets++;
+		stateBytes += buf.remaining();
+		if (base == null)
+			uncompressedBytes += buf.remaining();
+		link.send(buf);
+	}
+
+	/**
+	 * @return The authoritative state (only to be read on the thread calling
+	 *         tick())
+	 */
+	public ppSimState getState()
+	{
+		return s;
+	}
+
+	/**
+	 * @param tick A match tick
+	 * @return The snapshot sent at that tick, or null if it is no longer in the
+	 *         history
+	 */
+	ppNetSnapshot getSnapshot(long tick)
+	{
+		ppNetSnapshot snapshot = sent[(int) (tick & (NET_HISTORY - 1))];
+		return (snapshot.tick == tick ? snapshot : null);
+	}
+
+	/**
+	 * @return The match tick
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+
+	/**
+	 * @return Sequence number of the last input of the client applied
+	 */
+	public long getApplied()
+	{
+		return applied;
+	}
+
+	/**
+	 * @return Points won by the host
+	 */
+	public int getHostScore()
+	{
+		return hostScore;
+	}
+
+	/**
+	 * @return Points won by the client
+	 */
+	public int getClientScore()
+	{
+		return clientScore;
+	}
+
+	/**
+	 * @return Mean size of the state packets sent (in bytes)
+	 */
+	public double getMeanStateSize()
+	{
+		return (statePackets == 0 ? 0 : (double) stateBytes / statePackets);
+	}
+
+	/**
+	 * @return Mean size the state packets would have had without delta
+	 *         compression (in bytes)
+	 */
+	public double getMeanUncompressedSize()
+	{
+		return (statePackets == 0 ? 0 : (double) uncompressedBytes / statePackets);
+	}
+
+	/**
+	 * @return The number of packets dropped because they could not be read
+	 */
+	public long getMalformed()
+	{
+		return malformed;
+	}
+
+	/**
+	 * @return A summary of the counters
+	 */
+	public String getReport()
+	{
+		return String.format(
+				"Host: tick %d, score %d-%d, %d state packets (%d delta-encoded) of %.1f bytes (%.1f without delta compression), %d inputs skipped, %d ticks without input, %d malformed packets\n  %s",
+				tick, hostScore, clientScore, statePackets, deltaPackets, getMeanStateSize(), getMeanUncompressedSize(), inputsSkipped, ticksStarved, malformed, link.getReport());
+	}
+}
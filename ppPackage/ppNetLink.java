@@ -0,0 +1,234 @@
+package ppPackage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Non-blocking UDP socket shared by ppNetHost and ppNetClient, with optional
+ * injected latency and packet loss so that the netcode can be tested over the
+ * loopback interface under the conditions of a real network.
+ * 
+ * Injected latency is added to every packet sent, so two links with L ms each
+ * give a round trip of 2L ms. Delayed packets are queued in order and only go
+ * out when flush() is called once their time has come, which the host and the
+ * client do at every tick: the latency is therefore rounded up to a whole
+ * number of ticks. Lost packets are dropped before they are queued.
+ * 
+ * The link only has one peer: the address it was connected to. The client
+ * connects to the host's address when it starts; the host connects to the
+ * sender of the first valid packet it receives (see ppNetHost). From then on,
+ * packets from any other address are dropped, so a third party cannot take
+ * over the match.
+ */
+public class ppNetLink implements Closeable
+{
+	private final DatagramChannel channel;
+	private final ArrayDeque<Delayed> delayed = new ArrayDeque<Delayed>();
+	private final long latencyNs;
+	private final double loss;
+	private final ppRandom rgen;
+	private SocketAddress peer;
+	private SocketAddress sender; // Address of the last packet received
+
+	// Counters
+	private long packetsSent;
+	private long packetsDropped; // Dropped on purpose (injected loss)
+	private long bytesSent;
+	private long packetsReceived;
+	private long packetsRejected; // Received from an address other than the peer
+	private long lastReceived = System.nanoTime(); // Value of System.nanoTime() when the last packet arrived
+
+	/**
+	 * A packet waiting for its injected latency to elapse.
+	 */
+	private static class Delayed
+	{
+		final long due; // Value of System.nanoTime() at which the packet is sent
+		final ByteBuffer data;
+		final SocketAddress to;
+
+		Delayed(long due, ByteBuffer data, SocketAddress to)
+		{
+			this.due = due;
+			this.data = data;
+			this.to = to;
+		}
+	}
+
+	/**
+	 * Opens a socket.
+	 * 
+	 * @param port      The local port to bind to (0 for any free port)
+	 * @param latencyMs Latency added to every packet sent (in ms)
+	 * @param loss      Probability that a packet sent is dropped
+	 * @param seed      Seed of the random stream deciding which packets are lost
+	 * @throws IOException If the socket cannot be opened
+	 */
+	public ppNetLink(int port, double latencyMs, double loss, long seed) throws IOException
+	{
+		channel = DatagramChannel.open();
+		channel.bind(new InetSocketAddress(port));
+		channel.configureBlocking(false);
+		this.latencyNs = (long) (latencyMs * 1e6);
+		this.loss = loss;
+		this.rgen = new ppRandom(seed);
+	}
+
+	/**
+	 * @param peer The address to send packets to
+	 */
+	public void connect(SocketAddress peer)
+	{
+		this.peer = peer;
+	}
+
+	/**
+	 * @return The address packets are sent to, or null if none is known yet
+	 */
+	public SocketAddress getPeer()
+	{
+		return peer;
+	}
+
+	/**
+	 * @return The address of the last packet received, or null if none was
+	 */
+	public SocketAddress getSender()
+	{
+		return sender;
+	}
+
+	/**
+	 * @return The local port of the socket
+	 * @throws IOException If the socket is closed
+	 */
+	public int getLocalPort() throws IOException
+	{
+		return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Sends a packet to the peer (after the injected latency), unless it is
+	 * randomly lost or there is no peer yet.
+	 * 
+	 * @param buf The packet, between position and limit
+	 * @throws IOException If the packet cannot be sent
+	 */
+	public void send(ByteBuffer buf) throws IOException
+	{
+		if (peer == null)
+			return;
+		if (loss > 0 && rgen.nextDouble() < loss)
+		{
+			packetsDropped++;
+			return;
+		}
+
+		if (latencyNs == 0)
+		{
+			transmit(buf, peer);
+			return;
+		}
+		ByteBuffer copy = ByteBuffer.allocate(buf.remaining());
+		copy.put(buf).flip();
+		delayed.add(new Delayed(System.nanoTime() + latencyNs, copy, peer));
+	}
+
+	/**
+	 * Sends the delayed packets whose time has come.
+	 * 
+	 * @throws IOException If a packet cannot be sent
+	 */
+	public void flush() throws IOException
+	{
+		long now = System.nanoTime();
+
+		while (!delayed.isEmpty() && delayed.peek().due - now <= 0)
+		{
+			Delayed d = delayed.poll();
+			transmit(d.data, d.to);
+		}
+	}
+
+	/**
+	 * @param buf The packet
+	 * @param to  Its destination
+	 * @throws IOException If the packet cannot be sent
+	 */
+	private void transmit(ByteBuffer buf, SocketAddress to) throws IOException
+	{
+		int size = buf.remaining();
+
+		channel.send(buf, to);
+		packetsSent++;
+		bytesSent += size;
+	}
+
+	/**
+	 * Takes the next packet received, if any, without waiting. Once the link is
+	 * connected, packets from other addresses are dropped.
+	 * 
+	 * @param buf The buffer to receive into (cleared first, flipped on return)
+	 * @return TRUE if a packet was received
+	 * @throws IOException If the socket is closed
+	 */
+	public boolean receive(ByteBuffer buf) throws IOException
+	{
+		while (true)
+		{
+			buf.clear();
+			SocketAddress from = channel.receive(buf);
+			buf.flip();
+			if (from == null)
+				return false;
+			if (peer != null && !peer.equals(from))
+			{
+				packetsRejected++;
+				continue;
+			}
+
+			sender = from;
+			packetsReceived++;
+			if (peer != null)
+				lastReceived = System.nanoTime();
+			return true;
+		}
+	}
+
+	/**
+	 * @return The time since the last packet was received, or since the link was
+	 *         opened (in sec)
+	 */
+	public double getSilence()
+	{
+		return (System.nanoTime() - lastReceived) / 1e9;
+	}
+
+	/**
+	 * @return A summary of the counters
+	 */
+	public String getReport()
+	{
+		return String.format("%d packets sent (%d bytes, %.1f bytes/packet), %d dropped, %d received, %d rejected from other addresses", packetsSent, bytesSent,
+				packetsSent == 0 ? 0 : (double) bytesSent / packetsSent, packetsDropped, packetsReceived, packetsRejected);
+	}
+
+	/**
+	 * @return The number of packets dropped because they came from an address
+	 *         other than the peer
+	 */
+	public long getRejected()
+	{
+		return packetsRejected;
+	}
+
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,285 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.nio.ByteBuffer;
+import ppPackage.ppBall.EndState;
+
+/**
+ * The authoritative state of a network match at one tick of the host, and the
+ * delta encoding of the state packets sent to the client.
+ * 
+ * A snapshot holds exactly what the client needs to carry on simulating the
+ * rally from where the host was: the ball's trajectory segment, its decay
+ * factor and clocks (so that the client's ppSimEngine.stepBall() reproduces the
+ * host's bit for bit), both paddles, the scores, and the sequence number of the
+ * last input of the client the host applied.
+ * 
+ * A state packet is encoded against a baseline, the latest snapshot the client
+ * has acknowledged receiving (or against zeros when there is none yet): only
+ * the fields that differ from the baseline are sent. Integer fields are sent
+ * as the zigzag varint of their difference with the baseline. Doubles are sent
+ * as the XOR of their bits with the baseline's, without its leading and
+ * trailing zero bytes (a byte gives both counts): a value close to the
+ * baseline's shares its sign, exponent and first bits of mantissa, and a
+ * paddle position received as a float has a short mantissa. The client
+ * therefore decodes the exact values. Between collisions only the clocks, the
+ * decay factor and the paddles change.
+ * 
+ * Packet layout (varints as in ppReplayFrame):
+ * 
+ * <pre>
+ * STATE                 1 byte
+ * tick                  varint, the host's match tick
+ * tick - baseline tick  varint, 0 if encoded against zeros
+ * mask                  varint, bit i: field i follows
+ * fields                one per set mask bit
+ * </pre>
+ */
+public class ppNetSnapshot
+{
+	static final byte INPUT = 1; // Type of the packets sent by the client (see ppNetClient)
+	static final byte STATE = 2; // Type of the packets sent by the host
+
+	// Fields holding the raw bits of a double
+	static final int TIME = 0, X0 = 1, Y0 = 2, V0X = 3, V0Y = 4, T = 5, LOSS = 6, DECAY = 7;
+	static final int PADDLE_Y = 8, PADDLE_VY = 9, AGENT_Y = 10, AGENT_VY = 11;
+	// Integer fields
+	static final int SIM_TICK = 12, DECAY_TICKS = 13, BALL = 14, VOLLEY = 15, INPUT_SEQ = 16, HOST_SCORE = 17, CLIENT_SCORE = 18;
+	static final int FIRST_INT = SIM_TICK;
+	static final int FIELDS = 19;
+	static final int MAX_SIZE = 1 + 3 * 10 + FIELDS * 10; // Upper bound on the size of a state packet (in bytes)
+
+	// Values of the BALL field
+	static final long BALL_NONE = 0; // No ball served yet
+	static final long BALL_IN_PLAY = 1;
+	static final long BALL_ENDED = 2; // Plus the ordinal of the end state
+
+	long tick = -1; // Host match tick of the snapshot (-1 while the snapshot is empty)
+	final long[] v = new long[FIELDS];
+
+	/**
+	 * @return A state set up for a match between two players: the agent's paddle
+	 *         is moved by the client (see ppSimEngine.moveAgent()) and hits like
+	 *         the player's paddle. Both sides must simulate with the same
+	 *         settings.
+	 */
+	static ppSimState newState()
+	{
+		ppSimState s = new ppSimState();
+		s.agentVyFactor = PLAYER_VY_FACTOR;
+		return s;
+	}
+
+	/**
+	 * Takes a snapshot of a state.
+	 * 
+	 * @param tick        The host's match tick
+	 * @param s           The state
+	 * @param inputSeq    Sequence number of the last input of the client applied
+	 *                    to the state (-1 if none)
+	 * @param hostScore   Points won by the host
+	 * @param clientScore Points won by the client
+	 */
+	void capture(long tick, ppSimState s, long inputSeq, int hostScore, int clientScore)
+	{
+		this.tick = tick;
+		put(TIME, s.time);
+		put(X0, s.x0);
+		put(Y0, s.y0);
+		put(V0X, s.v0x);
+		put(V0Y, s.v0y);
+		put(T, s.t);
+		put(LOSS, s.loss);
+		put(DECAY, s.decay);
+		put(PADDLE_Y, s.paddleY);
+		put(PADDLE_VY, s.paddleVy);
+		put(AGENT_Y, s.agentY);
+		put(AGENT_VY, s.agentVy);
+		v[SIM_TICK] = s.tick;
+		v[DECAY_TICKS] = s.decayTicks;
+		v[BALL] = (s.ballInPlay ? BALL_IN_PLAY : s.endState == null ? BALL_NONE : BALL_ENDED + s.endState.ordinal());
+		v[VOLLEY] = s.volley;
+		v[INPUT_SEQ] = inputSeq;
+		v[HOST_SCORE] = hostScore;
+		v[CLIENT_SCORE] = clientScore;
+	}
+
+	/**
+	 * Copies the snapshot into a state, and places the ball where it is at the
+	 * snapshot's time.
+	 * 
+	 * @param s The state to overwrite
+	 */
+	void apply(ppSimState s)
+	{
+		s.time = get(TIME);
+		s.x0 = get(X0);
+		s.y0 = get(Y0);
+		s.v0x = get(V0X);
+		s.v0y = get(V0Y);
+		s.t = get(T);
+		s.loss = get(LOSS);
+		s.decay = get(DECAY);
+		s.paddleY = get(PADDLE_Y);
+		s.paddleVy = get(PADDLE_VY);
+		s.agentY = get(AGENT_Y);
+		s.agentVy = get(AGENT_VY);
+		s.tick = v[SIM_TICK];
+		s.decayTicks = (int) v[DECAY_TICKS];
+		s.ballInPlay = (v[BALL] == BALL_IN_PLAY);
+		s.endState = (v[BALL] >= BALL_ENDED ? EndState.values()[(int) (v[BALL] - BALL_ENDED)] : null);
+		s.volley = v[VOLLEY];
+		ppDecayKernel.evaluate(s);
+	}
+
+	/**
+	 * Appends a state packet.
+	 * 
+	 * @param buf  The buffer to write to (at least MAX_SIZE bytes left)
+	 * @param base The baseline, or null to encode against zeros
+	 */
+	void encode(ByteBuffer buf, ppNetSnapshot base)
+	{
+		long mask = 0;
+
+		for (int i = 0; i < FIELDS; i++)
+			if (v[i] != baseline(base, i))
+				mask |= 1L << i;
+
+		buf.put(STATE);
+		ppReplayFrame.putVarLong(buf, tick);
+		ppReplayFrame.putVarLong(buf, base == null ? 0 : tick - base.tick);
+		ppReplayFrame.putVarLong(buf, mask);
+		for (int i = 0; i < FIELDS; i++)
+		{
+			if ((mask & (1L << i)) == 0)
+				continue;
+			if (i >= FIRST_INT)
+				ppReplayFrame.putVarLong(buf, ppReplayFrame.zigzag(v[i] - baseline(base, i)));
+			else
+				putXor(buf, v[i] ^ baseline(base, i));
+		}
+	}
+
+	/**
+	 * Appends a non-zero 64-bit value without its leading and trailing zero
+	 * bytes: one byte with both counts (4 bits each), then the bytes in between,
+	 * most significant first.
+	 * 
+	 * @param buf   The buffer to write to
+	 * @param value The value
+	 */
+	static void putXor(ByteBuffer buf, long value)
+	{
+		int lead = Long.numberOfLeadingZeros(value) / 8;
+		int trail = Long.numberOfTrailingZeros(value) / 8;
+
+		buf.put((byte) (lead << 4 | trail));
+		for (int b = 7 - lead; b >= trail; b--)
+			buf.put((byte) (value >>> 8 * b));
+	}
+
+	/**
+	 * Reads a value written by putXor().
+	 * 
+	 * @param buf The buffer to read from
+	 * @return The value
+	 */
+	static long getXor(ByteBuffer buf)
+	{
+		int counts = buf.get();
+		int lead = (counts >> 4) & 0xF;
+		int trail = counts & 0xF;
+		long value = 0;
+
+		for (int b = 7 - lead; b >= trail; b--)
+			value |= (buf.get() & 0xFFL) << 8 * b;
+		return value;
+	}
+
+	/**
+	 * Reads the header of a state packet.
+	 * 
+	 * @param buf The buffer to read from, positioned after the packet type
+	 * @return The tick of the baseline the packet was encoded against, -1 if it
+	 *         was encoded against zeros, or -2 if the header is out of range. The
+	 *         buffer is then positioned at the mask, and the snapshot's tick is
+	 *         set.
+	 */
+	long decodeHeader(ByteBuffer buf)
+	{
+		tick = ppReplayFrame.getVarLong(buf);
+		long distance = ppReplayFrame.getVarLong(buf);
+		if (tick < 0 || distance < 0 || distance > tick)
+			return -2;
+		return (distance == 0 ? -1 : tick - distance);
+	}
+
+	/**
+	 * Reads the fields of a state packet, after decodeHeader(). A packet cut
+	 * short throws a BufferUnderflowException.
+	 * 
+	 * @param buf  The buffer to read from, positioned at the mask
+	 * @param base The baseline named by the header, or null
+	 * @return FALSE if the mask or a field is out of range (the snapshot must
+	 *         then be discarded)
+	 */
+	boolean decodeFields(ByteBuffer buf, ppNetSnapshot base)
+	{
+		long mask = ppReplayFrame.getVarLong(buf);
+
+		// Every field in the mask takes at least one byte
+		if ((mask >>> FIELDS) != 0 || buf.remaining() < Long.bitCount(mask))
+			return false;
+		for (int i = 0; i < FIELDS; i++)
+		{
+			if ((mask & (1L << i)) == 0)
+				v[i] = baseline(base, i);
+			else if (i >= FIRST_INT)
+				v[i] = baseline(base, i) + ppReplayFrame.unzigzag(ppReplayFrame.getVarLong(buf));
+			else
+				v[i] = baseline(base, i) ^ getXor(buf);
+		}
+		return (v[SIM_TICK] >= 0 && v[DECAY_TICKS] >= 0 && v[DECAY_TICKS] <= Integer.MAX_VALUE && v[BALL] >= BALL_NONE && v[BALL] < BALL_ENDED + EndState.values().length
+				&& !buf.hasRemaining());
+	}
+
+	/**
+	 * @param base A baseline, or null
+	 * @param i    Index of a field
+	 * @return The field's value in the baseline, or 0
+	 */
+	private static long baseline(ppNetSnapshot base, int i)
+	{
+		return (base == null ? 0 : base.v[i]);
+	}
+
+	/**
+	 * @param field Index of a double field
+	 * @param value Its value
+	 */
+	private void put(int field, double value)
+	{
+		v[field] = Double.doubleToRawLongBits(value);
+	}
+
+	/**
+	 * @param field Index of a double field
+	 * @return Its value
+	 */
+	double get(int field)
+	{
+		return Double.longBitsToDouble(v[field]);
+	}
+
+	/**
+	 * Copies another snapshot into this one.
+	 * 
+	 * @param other The snapshot to copy
+	 */
+	void copyFrom(ppNetSnapshot other)
+	{
+		tick = other.tick;
+		System.arraycopy(other.v, 0, v, 0, FIELDS);
+	}
+}
@@ -0,0 +1,264 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a network match over the loopback interface, with injected latency and
+ * packet loss, between two scripted players, and checks the netcode:
+ * <ul>
+ * <li>the client's own paddle is always exactly where its latest input put it
+ * (client-side prediction: no round trip before it moves);</li>
+ * <li>the newest snapshot decoded by the client is bit for bit the one the host
+ * captured at that tick (delta compression against acknowledged snapshots);
+ * </li>
+ * <li>delta compression makes the state packets smaller;</li>
+ * <li>the ball was actually served and hit;</li>
+ * <li>stray packets neither stop nor take over the match: truncated and
+ * out-of-range packets sent to the host before the client connects are
+ * dropped, and so are the well-formed packets a third socket sends to both
+ * sides once the client has connected.</li>
+ * </ul>
+ * 
+ * The host and the client run on separate threads with separate sockets, each
+ * ticking once per TICK of real time, as they would in two processes. The
+ * scripted players follow the ball they see (the authoritative one for the
+ * host, the predicted one for the client) at a human-like speed.
+ * 
+ * Arguments are "name=value": latency=... one-way latency added by each side
+ * (in ms, default 50, i.e. a 100 ms round trip), loss=... probability that a
+ * packet is lost (default 0.05), seconds=... (default 20), seed=... (default
+ * RSEED).
+ */
+public class ppNetTest
+{
+	static final double HOST_SPEED = 2.5; // Speed at which the scripted host player moves (in m/s)
+	static final double CLIENT_SPEED = 3; // Speed at which the scripted client player moves (in m/s)
+	static final int SETTLE_TICKS = 50; // Ticks the client keeps running after the host stopped, to receive the packets in flight
+	static final int INTRUDER_TICKS = 10; // Ticks between two packets of the third socket
+	static final double INTRUDER_Y = (float) 0.123456789; // Paddle position sent by the third socket
+
+	/**
+	 * @return Packets a host must drop without reading past their end: empty,
+	 *         of an unknown type, cut short, and with too many inputs for their
+	 *         length
+	 */
+	static ByteBuffer[] malformedPackets()
+	{
+		ByteBuffer empty = ByteBuffer.allocate(0);
+		ByteBuffer unknown = ByteBuffer.wrap(new byte[] { 42, 1, 2, 3 });
+		ByteBuffer truncated = ByteBuffer.wrap(new byte[] { ppNetSnapshot.INPUT, (byte) 0x80, (byte) 0xFF });
+		ByteBuffer overlong = ByteBuffer.allocate(64);
+		overlong.put(ppNetSnapshot.INPUT);
+		ppReplayFrame.putVarLong(overlong, 0);
+		ppReplayFrame.putVarLong(overlong, 0);
+		ppReplayFrame.putVarLong(overlong, 1L << 40);
+		overlong.putFloat(0.5f).flip();
+
+		return new ByteBuffer[] { empty, unknown, truncated, overlong };
+	}
+
+	/**
+	 * @param seq Sequence number of the input
+	 * @return A well-formed input packet with one position, INTRUDER_Y
+	 */
+	static ByteBuffer intruderInput(long seq)
+	{
+		ByteBuffer buf = ByteBuffer.allocate(ppNetClient.MAX_INPUT_SIZE);
+
+		buf.put(ppNetSnapshot.INPUT);
+		ppReplayFrame.putVarLong(buf, 0);
+		ppReplayFrame.putVarLong(buf, seq);
+		ppReplayFrame.putVarLong(buf, 1);
+		buf.putFloat((float) INTRUDER_Y).flip();
+		return buf;
+	}
+
+	/**
+	 * Moves a scripted player's paddle one tick toward the ball if it is coming
+	 * its way, and back toward the center otherwise.
+	 * 
+	 * @param input    Where to post the paddle's new position
+	 * @param paddleY  The paddle's current position (in m)
+	 * @param s        The state the player sees
+	 * @param left     TRUE for the player on the left side
+	 * @param maxSpeed The player's speed (in m/s)
+	 */
+	static void play(ppMouseInput input, double paddleY, ppSimState s, boolean left, double maxSpeed)
+	{
+		boolean coming = s.ballInPlay && (left ? s.vx < 0 : s.vx > 0);
+		double target = (coming ? s.y : YMAX / 2);
+		double step = Math.max(-maxSpeed * TICK, Math.min(maxSpeed * TICK, target - paddleY));
+
+		input.post(paddleY + step);
+	}
+
+	/**
+	 * Waits for the next tick.
+	 * 
+	 * @param deadline Value of System.nanoTime() at which the next tick is due
+	 * @return The deadline of the tick after that
+	 */
+	static long pace(long deadline)
+	{
+		long now;
+		while ((now = System.nanoTime()) - deadline < 0)
+			LockSupport.parkNanos(deadline - now);
+		return deadline + (long) (TICK * 1e9);
+	}
+
+	/**
+	 * Runs the match and prints the checks.
+	 * 
+	 * @param args See above
+	 * @throws Exception If a socket fails or a thread is interrupted
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		double latencyMs = 50;
+		double loss = 0.05;
+		double seconds = 20;
+		long seed = RSEED;
+
+		for (String arg : args)
+		{
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("Expected NAME=VALUE: " + arg);
+			String name = arg.substring(0, eq);
+			String value = arg.substring(eq + 1);
+
+			if (name.equals("latency"))
+				latencyMs = Double.parseDouble(value);
+			else if (name.equals("loss"))
+				loss = Double.parseDouble(value);
+			else if (name.equals("seconds"))
+				seconds = Double.parseDouble(value);
+			else if (name.equals("seed"))
+				seed = Long.parseLong(value);
+			else
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+		}
+
+		final long ticks = (long) (seconds / TICK);
+		final ppNetLink hostLink = new ppNetLink(0, latencyMs, loss, seed);
+		final ppNetLink clientLink = new ppNetLink(0, latencyMs, loss, seed + 1);
+		clientLink.connect(new InetSocketAddress("127.0.0.1", hostLink.getLocalPort()));
+		final ppMouseInput hostInput = new ppMouseInput();
+		final ppMouseInput clientInput = new ppMouseInput();
+		final ppNetHost host = new ppNetHost(hostLink, hostInput, seed);
+		final ppNetClient client = new ppNetClient(clientLink, clientInput);
+		final long[] lagged = new long[1]; // Client ticks in which its paddle was not where its input put it
+		final long[] hijacked = new long[1]; // Host ticks in which the client's paddle was where the third socket put it
+		final InetSocketAddress hostAddress = new InetSocketAddress("127.0.0.1", hostLink.getLocalPort());
+		final InetSocketAddress clientAddress = new InetSocketAddress("127.0.0.1", clientLink.getLocalPort());
+		final DatagramChannel intruder = DatagramChannel.open();
+		ByteBuffer[] malformed = malformedPackets();
+
+		// Garbage reaches the host before the client does
+		for (ByteBuffer packet : malformed)
+			intruder.send(packet, hostAddress);
+		final IOException[] failure = new IOException[2];
+
+		Thread hostThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					long deadline = System.nanoTime();
+					for (long t = 0; t < ticks; t++)
+					{
+						deadline = pace(deadline);
+						host.tick();
+						if (host.getState().agentY == INTRUDER_Y)
+							hijacked[0]++;
+						play(hostInput, host.getState().paddleY, host.getState(), false, HOST_SPEED);
+						if (hostLink.getPeer() != null && t % INTRUDER_TICKS == 0)
+						{
+							// Once the client has connected
+							intruder.send(intruderInput(t), hostAddress);
+							intruder.send(ByteBuffer.wrap(new byte[] { ppNetSnapshot.STATE, 1, 0, 0 }), clientAddress);
+						}
+					}
+				}
+				catch (IOException e)
+				{
+					failure[0] = e;
+				}
+			}
+		}, "ppNetHost");
+		Thread clientThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					long deadline = System.nanoTime();
+					for (long t = 0; t < ticks + SETTLE_TICKS; t++)
+					{
+						deadline = pace(deadline);
+						client.tick();
+						if (client.getState().agentY != client.getInputY())
+							lagged[0]++;
+						if (t < ticks)
+							play(clientInput, client.getState().agentY, client.getState(), true, CLIENT_SPEED);
+					}
+				}
+				catch (IOException e)
+				{
+					failure[1] = e;
+				}
+			}
+		}, "ppNetClient");
+
+		System.out.printf("Playing %.0f s over loopback with %.0f ms round trip and %.0f%% loss each way\n", seconds, 2 * latencyMs, 100 * loss);
+		hostThread.start();
+		clientThread.start();
+		hostThread.join();
+		clientThread.join();
+		hostLink.close();
+		clientLink.close();
+		intruder.close();
+		for (IOException e : failure)
+			if (e != null)
+				throw e;
+
+		System.out.println(host.getReport());
+		System.out.println(client.getReport());
+
+		// The host's history still holds the snapshot the client decoded last, if the client is not too far behind
+		ppNetSnapshot decoded = client.getLatest();
+		ppNetSnapshot captured = host.getSnapshot(decoded.tick);
+		boolean exact = (captured != null && Arrays.equals(decoded.v, captured.v));
+
+		int failed = 0;
+		failed += check(lagged[0] == 0, "Own paddle responds instantly (" + lagged[0] + " ticks behind its input)");
+		failed += check(exact, "Newest snapshot decoded exactly (tick " + decoded.tick + " of " + host.getTick() + ")");
+		failed += check(host.getMeanStateSize() < host.getMeanUncompressedSize(),
+				String.format("Delta compression shrinks the state packets (%.1f instead of %.1f bytes)", host.getMeanStateSize(), host.getMeanUncompressedSize()));
+		failed += check(host.getState().volley > 1, "Ball served and hit (" + host.getState().volley + " times)");
+		failed += check(host.getMalformed() == malformed.length, "Malformed packets dropped (" + host.getMalformed() + " of " + malformed.length + ")");
+		failed += check(hostLink.getRejected() > 0 && clientLink.getRejected() > 0 && hijacked[0] == 0, String.format(
+				"Packets from a third address ignored (%d by the host, %d by the client, %d ticks taken over)", hostLink.getRejected(), clientLink.getRejected(), hijacked[0]));
+		System.out.println(failed == 0 ? "All checks passed" : failed + " checks failed");
+		if (failed != 0)
+			System.exit(1);
+	}
+
+	/**
+	 * @param passed  TRUE if the check passed
+	 * @param message What was checked
+	 * @return 0 if the check passed, 1 otherwise
+	 */
+	private static int check(boolean passed, String message)
+	{
+		System.out.println((passed ? "  ok    " : "  FAIL  ") + message);
+		return (passed ? 0 : 1);
+	}
+}
@@ -7,14 +7,16 @@ import acm.graphics.GRect;
 /**
  * Models a ping pong paddle
  */
-public class ppPaddle extends Thread
+public class ppPaddle
 {
 	private Color color;
 	private double x, lastX, vx;
-	private double y, lastY, vy;
+	private volatile double y; // Also read by ppRenderPanel's thread
+	private double lastY, vy;
 	private GRect paddleImage;
 	private ppTable table;
-	private boolean frozen;
+	private volatile boolean frozen; // Also set by the event dispatch thread (new round, restart)
+	private ppVelocityEstimator estimator; // If set, gives the y-velocity instead of the difference between ticks
 
 	/**
 	 * Instantiates and draws a paddle object centered at (x, y)
@@ -47,25 +49,21 @@ public class ppPaddle extends Thread
 	}
 
 	/**
-	 * Keeps the paddle's velocity updated in real-time (or some factor of real-time
-	 * if TIME_FACTOR is not 1000)
+	 * Keeps the paddle's velocity updated. Called by ppGameLoop once per TICK, so
+	 * the estimate no longer depends on when a separate thread gets scheduled.
+	 * The y-velocity given to the ball at a contact comes from the velocity
+	 * estimator instead, if the paddle has one (see getContactVy()).
 	 * 
 	 * Provided entirely by Prof. Frank Ferrie
 	 */
-	public void run()
+	public void tick()
 	{
-		while (true)
+		if (!isFrozen())
 		{
-			if (!isFrozen())
-			{
-				vx = (x - lastX) / TICK;
-				vy = (y - lastY) / TICK;
-				lastX = x;
-				lastY = y;
-			}
-
-			// Pause the paddle for TICK seconds (scaled by the current value of the time factor slider)
-			table.getDisplay().pause(TICK * table.getDisplay().getTimeFactor());
+			vx = (x - lastX) / TICK;
+			vy = (y - lastY) / TICK;
+			lastX = x;
+			lastY = y;
 		}
 	}
 
@@ -164,13 +162,48 @@ public class ppPaddle extends Thread
 	}
 
 	/**
-	 * @return The current y-component of the paddle's velocity (in m/s)
+	 * Makes the paddle take its y-velocity at a contact from an estimator fed
+	 * with the timestamped positions of whatever moves it (see
+	 * ppVelocityEstimator and getContactVy()).
+	 * 
+	 * @param estimator The estimator
+	 */
+	public void setVelocityEstimator(ppVelocityEstimator estimator)
+	{
+		this.estimator = estimator;
+	}
+
+	/**
+	 * @return The current y-component of the paddle's velocity, from its
+	 *         positions one TICK apart (in m/s of game time)
 	 */
 	public double getVy()
 	{
 		return this.vy;
 	}
 
+	/**
+	 * Gives the y-velocity to pass on to the ball if it hits the paddle: the
+	 * velocity estimator's, if the paddle has one, or getVy() otherwise. The
+	 * estimate is taken at the scheduled time of the tick rather than at the time
+	 * the game loop happens to run it, so that the same stroke gives the same
+	 * spin however late the tick is (see ppSimState.paddleContactVy).
+	 * 
+	 * @param tickNanos The scheduled time of the current tick (in the time base
+	 *                  of System.nanoTime())
+	 * @return The y-component of the paddle's velocity (in m/s of game time)
+	 */
+	public double getContactVy(long tickNanos)
+	{
+		if (estimator == null)
+			return this.vy;
+		if (frozen)
+			return 0;
+
+		// The estimator works in real time; one TICK of game time lasts TICK * timeFactor ms of real time
+		return estimator.velocity(tickNanos) * table.getGame().getTimeFactor() / 1000;
+	}
+
 	/**
 	 * @return 1 if the paddle is moving up or is stationary and -1 otherwise
 	 */
@@ -198,38 +231,6 @@ public class ppPaddle extends Thread
 	 */
 	public boolean contact(double Sx, double Sy, boolean ballFromRight)
 	{
-		double paddleTop = y + PADDLE_HEIGHT / 2;
-		double paddleBot = y - PADDLE_HEIGHT / 2;
-		double paddleFront = (ballFromRight ? x + PADDLE_WIDTH / 2 : x - PADDLE_WIDTH / 2);
-
-		//System.out.println("CONTACT");
-		//System.out.printf("    Bot: %.4f Ball: %.4f Top: %.4f\n", paddleBot, Sy, paddleTop);
-
-		if (Sy >= paddleBot && Sy <= paddleTop)
-			return true;
-		else if (Sy < paddleBot)
-		{
-			//System.out.printf("    |(%.2f, %.2f) - (%.2f, %.2f)| = %.2f\n", Sx, Sy, paddleFront, paddleBot, dist(Sx, Sy, paddleFront, paddleBot));
-			return dist(Sx, Sy, paddleFront, paddleBot) <= BALL_RAD;
-		}
-		else
-		{
-			//System.out.printf("    |(%.2f, %.2f) - (%.2f, %.2f)| = %.2f\n", Sx, Sy, paddleFront, paddleBot, dist(Sx, Sy, paddleFront, paddleBot));
-			return dist(Sx, Sy, paddleFront, paddleTop) <= BALL_RAD;
-		}
-	}
-
-	/**
-	 * Calculates the distance between two points
-	 * 
-	 * @param x0 The x-coordinate of the first point (in meters)
-	 * @param y0 The y-coordinate of the first point (in meters)
-	 * @param x1 The x-coordinate of the second point (in meters)
-	 * @param y1 The y-coordinate of the second point (in meters)
-	 * @return The distance between (x0, y0) and (x1, y1) (in meters)
-	 */
-	private double dist(double x0, double y0, double x1, double y1)
-	{
-		return Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+		return ppSimEngine.contact(x, y, Sx, Sy, ballFromRight);
 	}
 }
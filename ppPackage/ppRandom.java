@@ -0,0 +1,86 @@
+package ppPackage;
+
+/**
+ * Small splittable pseudo-random number generator (SplitMix64) for headless
+ * batch runs.
+ * 
+ * Unlike the shared acm.util.RandomGenerator instance, every ppRandom is
+ * independent and its whole state is a single long, so a batch can hand each
+ * block of serves its own deterministic stream derived from RSEED, and the
+ * results do not depend on which thread plays which block.
+ */
+public class ppRandom
+{
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long seed;
+
+	/**
+	 * Creates a generator with the given seed
+	 * 
+	 * @param seed The initial seed
+	 */
+	public ppRandom(long seed)
+	{
+		this.seed = seed;
+	}
+
+	/**
+	 * Creates a new generator whose stream is statistically independent of this
+	 * one. Splitting the same generator the same number of times always gives the
+	 * same children.
+	 * 
+	 * @return The new generator
+	 */
+	public ppRandom split()
+	{
+		return new ppRandom(nextLong());
+	}
+
+	/**
+	 * @return The next pseudo-random 64-bit value
+	 */
+	public long nextLong()
+	{
+		long z = (seed += GOLDEN_GAMMA);
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return The next pseudo-random value, uniformly distributed in [0, 1)
+	 */
+	public double nextDouble()
+	{
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param low  The lower bound of the range
+	 * @param high The upper bound of the range
+	 * @return The next pseudo-random value, uniformly distributed in [low, high)
+	 */
+	public double nextDouble(double low, double high)
+	{
+		return low + (high - low) * nextDouble();
+	}
+
+	/**
+	 * @return The current state of the generator
+	 */
+	public long getSeed()
+	{
+		return seed;
+	}
+
+	/**
+	 * Restores a state previously returned by getSeed()
+	 * 
+	 * @param seed The state to restore
+	 */
+	public void setSeed(long seed)
+	{
+		this.seed = seed;
+	}
+}
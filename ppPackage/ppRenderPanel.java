@@ -0,0 +1,418 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JComponent;
+import acm.graphics.GRectangle;
+
+/**
+ * Renderer for the table: one thread draws the ball, the paddles and the trace
+ * into a back buffer with Java2D, at RENDER_HZ, and asks Swing to repaint only
+ * the rectangles that changed. The screen itself is only drawn on the event
+ * dispatch thread, by paintComponent(), which copies those rectangles from the
+ * back buffer.
+ * 
+ * In this mode the ACM objects of the game (the ball's GOval, the paddles'
+ * GRects, the trace) are still updated by the game loop, but the canvas does
+ * not repaint on every change: this panel covers it and draws the same scene
+ * itself, from the ball's latest snapshot and the paddles' positions. The
+ * physics keeps running at its own pace on ppGameLoop; frames are paced against
+ * absolute deadlines, independently of the ticks.
+ * 
+ * With RENDER_INTERPOLATE, the ball is drawn one tick behind the physics, at
+ * the point between the two last ticks given by the real time elapsed since the
+ * latest one, so that it moves at every frame rather than only at every tick
+ * (at the default time factor, a tick lasts 50 ms of real time: seven frames).
+ * The point is computed along the closed-form trajectory of whichever segment
+ * the ball was on at that time (see ppBallSnapshot.xAt()), so bounces stay
+ * sharp instead of being cut across.
+ * 
+ * Each frame redraws the union of the old and new bounds of each object that
+ * moved (the trace only grows along the ball's path, so the ball's rectangles
+ * cover it as the ball passes), unless something requires a full repaint (new
+ * round, trace shown or hidden or simplified). If the work of a frame exceeds RENDER_BUDGET_MS,
+ * the next frame is skipped, so that an overloaded renderer drops frames at a
+ * steady pace instead of falling behind. The frame rate, the frame time and the
+ * number of frames over budget are shown in the top left corner.
+ */
+@SuppressWarnings("serial")
+public class ppRenderPanel extends JComponent
+{
+	private static final long REPORT_NS = 500000000; // Time between two updates of the readout (0.5 s)
+	private static final int PAD = 2; // Margin around each dirty rectangle, for rounding and antialiasing (in pixels)
+
+	private final ppTable table;
+	private final ppPaddle paddle;
+	private final ppPaddle agent;
+	private volatile ppBall ball;
+	private volatile ppStatsOverlay overlay;
+	private volatile boolean fullRepaint = true;
+
+	private final Object bufferLock = new Object(); // Guards the back buffer, drawn by the render thread and copied by the EDT
+	private BufferedImage back;
+
+	// State of the last frame (render thread only)
+	private final Rectangle ballRect = new Rectangle();
+	private final Rectangle paddleRect = new Rectangle();
+	private final Rectangle agentRect = new Rectangle();
+	private final Rectangle readoutRect = new Rectangle(0, 0, 520, 20);
+	private final Rectangle[] dirty = { new Rectangle(), new Rectangle(), new Rectangle(), new Rectangle(), new Rectangle() };
+	private final Rectangle next = new Rectangle();
+	private ppTrace lastTrace;
+	private boolean lastTraceVisible;
+	private int lastTracePoints;
+
+	// Frame statistics for the readout (render thread only)
+	private String readout = "";
+	private long frames;
+	private long overBudget; // Frames whose work took longer than RENDER_BUDGET_MS
+	private long skipped; // Frame deadlines skipped, because of a frame over budget or because the thread fell behind
+	private double sumFrameMs;
+	private double maxFrameMs;
+
+	/**
+	 * Creates the panel, covering the whole canvas.
+	 * 
+	 * @param table  A reference to the ppTable object controlling the display
+	 * @param paddle The player's paddle
+	 * @param agent  The agent
+	 */
+	public ppRenderPanel(ppTable table, ppPaddle paddle, ppPaddle agent)
+	{
+		this.table = table;
+		this.paddle = paddle;
+		this.agent = agent;
+		setOpaque(true);
+		setBounds(0, 0, SCR_WIDTH + BORDER, SCR_HEIGHT + BORDER);
+	}
+
+	/**
+	 * Starts the render thread.
+	 */
+	public void start()
+	{
+		Thread thread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				renderLoop();
+			}
+		}, "ppRenderPanel");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Sets the ball to draw, and redraws the whole table.
+	 * 
+	 * @param ball The ball in play, or null if there is none
+	 */
+	public void setBall(ppBall ball)
+	{
+		this.ball = ball;
+		fullRepaint = true;
+	}
+
+	/**
+	 * Sets an overlay to draw over the table, redrawn at every frame.
+	 * 
+	 * @param overlay The overlay, or null for none
+	 */
+	public void setOverlay(ppStatsOverlay overlay)
+	{
+		this.overlay = overlay;
+		fullRepaint = true;
+	}
+
+	/**
+	 * Body of the render thread: renders a frame at every deadline, one every
+	 * 1/RENDER_HZ seconds.
+	 */
+	private void renderLoop()
+	{
+		long period = (long) (1e9 / RENDER_HZ);
+		long deadline = System.nanoTime();
+		long reportStart = deadline;
+
+		while (true)
+		{
+			long start = System.nanoTime();
+			renderFrame();
+			double frameMs = (System.nanoTime() - start) / 1e6;
+
+			frames++;
+			sumFrameMs += frameMs;
+			maxFrameMs = Math.max(maxFrameMs, frameMs);
+			deadline += period;
+			if (frameMs > RENDER_BUDGET_MS)
+			{
+				overBudget++;
+				skipped++;
+				deadline += period;
+			}
+
+			long now = System.nanoTime();
+			if (now - reportStart >= REPORT_NS)
+			{
+				readout = String.format("%.0f fps   frame %.2f ms (max %.2f)   over %.1f ms budget: %d   skipped: %d", frames * 1e9 / (now - reportStart),
+						sumFrameMs / frames, maxFrameMs, RENDER_BUDGET_MS, overBudget, skipped);
+				reportStart = now;
+				frames = 0;
+				sumFrameMs = 0;
+				maxFrameMs = 0;
+			}
+
+			while (now < deadline)
+			{
+				LockSupport.parkNanos(deadline - now);
+				now = System.nanoTime();
+			}
+			if (now - deadline > period)
+			{
+				skipped += (now - deadline) / period;
+				deadline = now;
+			}
+		}
+	}
+
+	/**
+	 * Draws the objects that moved since the last frame into the back buffer and
+	 * schedules a repaint of the changed rectangles.
+	 */
+	private void renderFrame()
+	{
+		ppBall b = ball;
+		ppBallSnapshot s = (b == null ? null : b.getSnapshot());
+		ppTrace trace = (b == null ? null : b.getTrace());
+		ppStatsOverlay o = overlay;
+		int count = 0;
+
+		// A full repaint if the trace changed other than by growing
+		boolean traceVisible = (trace != null && trace.isVisible());
+		int tracePoints = (trace == null ? 0 : trace.getPointCount());
+		boolean full = fullRepaint || back == null || trace != lastTrace || traceVisible != lastTraceVisible || tracePoints < lastTracePoints;
+		fullRepaint = false;
+		lastTrace = trace;
+		lastTraceVisible = traceVisible;
+		lastTracePoints = tracePoints;
+
+		// Collect the rectangles that changed
+		if (s != null)
+			ballBounds(ballX(s), ballY(s), next);
+		else
+			next.setBounds(0, 0, 0, 0);
+		count = addDirty(ballRect, next, count);
+		paddleBounds(paddle, next);
+		count = addDirty(paddleRect, next, count);
+		paddleBounds(agent, next);
+		count = addDirty(agentRect, next, count);
+		dirty[count++].setBounds(readoutRect);
+		if (o != null)
+		{
+			GRectangle r = o.getBounds();
+			dirty[count++].setBounds((int) r.getX(), (int) r.getY(), (int) Math.ceil(r.getWidth()), (int) Math.ceil(r.getHeight()));
+		}
+
+		synchronized (bufferLock)
+		{
+			if (back == null)
+			{
+				GraphicsConfiguration gc = getGraphicsConfiguration();
+				back = (gc != null ? gc.createCompatibleImage(getWidth(), getHeight()) : new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB));
+			}
+
+			Graphics2D g = back.createGraphics();
+			if (full)
+				drawScene(g, s, traceVisible ? trace : null, o, 0, 0, back.getWidth(), back.getHeight());
+			else
+			{
+				for (int k = 0; k < count; k++)
+				{
+					Rectangle r = dirty[k];
+					drawScene(g, s, traceVisible ? trace : null, o, r.x, r.y, r.width, r.height);
+				}
+			}
+			g.dispose();
+		}
+
+		// Let the event dispatch thread copy the changes to the screen (Swing coalesces the requests)
+		if (full)
+			repaint();
+		else
+		{
+			for (int k = 0; k < count; k++)
+			{
+				Rectangle r = dirty[k];
+				repaint(r.x, r.y, r.width, r.height);
+			}
+		}
+	}
+
+	/**
+	 * Adds the union of the old and new bounds of an object to the dirty
+	 * rectangles if the object moved, and remembers the new bounds.
+	 * 
+	 * @param last  The bounds at the last frame (updated)
+	 * @param now   The bounds now
+	 * @param count The number of dirty rectangles so far
+	 * @return The new number of dirty rectangles
+	 */
+	private int addDirty(Rectangle last, Rectangle now, int count)
+	{
+		if (now.equals(last))
+			return count;
+
+		Rectangle r = dirty[count];
+		r.setBounds(last);
+		if (r.isEmpty())
+			r.setBounds(now);
+		else if (!now.isEmpty())
+			r.add(now);
+		last.setBounds(now);
+		return (r.isEmpty() ? count : count + 1);
+	}
+
+	/**
+	 * Draws the whole scene, clipped to a rectangle.
+	 * 
+	 * @param g       The graphics context of the back buffer
+	 * @param s       The ball's snapshot, or null if there is no ball
+	 * @param trace   The trace to draw, or null
+	 * @param overlay The overlay to draw, or null
+	 * @param x       The left of the clip rectangle (in pixels)
+	 * @param y       The top of the clip rectangle (in pixels)
+	 * @param w       The width of the clip rectangle (in pixels)
+	 * @param h       The height of the clip rectangle (in pixels)
+	 */
+	private void drawScene(Graphics2D g, ppBallSnapshot s, ppTrace trace, ppStatsOverlay overlay, int x, int y, int w, int h)
+	{
+		g.setClip(x, y, w, h);
+		g.setColor(Color.WHITE);
+		g.fillRect(x, y, w, h);
+
+		table.paint(g);
+
+		if (trace != null)
+			trace.paint(g);
+
+		g.setColor(PADDLE_COLOR);
+		fillPaddle(g, paddleRect);
+		g.setColor(AGENT_COLOR);
+		fillPaddle(g, agentRect);
+
+		if (s != null)
+		{
+			g.setColor(BALL_COLOR);
+			g.fillOval(ballRect.x + PAD, ballRect.y + PAD, ballRect.width - 2 * PAD, ballRect.height - 2 * PAD);
+		}
+
+		g.setColor(Color.DARK_GRAY);
+		g.drawString(readout, readoutRect.x + 4, readoutRect.y + 15);
+		if (overlay != null)
+			overlay.paint(g);
+	}
+
+	/**
+	 * Fills a paddle.
+	 * 
+	 * @param g      The graphics context
+	 * @param bounds The bounds of the paddle computed for this frame
+	 */
+	private static void fillPaddle(Graphics2D g, Rectangle bounds)
+	{
+		g.fillRect(bounds.x + PAD, bounds.y + PAD, bounds.width - 2 * PAD, bounds.height - 2 * PAD);
+	}
+
+	/**
+	 * @param s The ball's latest snapshot
+	 * @return The time since the serve at which to draw the ball: between the two
+	 *         last ticks, in proportion to the real time elapsed since the latest
+	 *         one (in sec)
+	 */
+	private double renderTime(ppBallSnapshot s)
+	{
+		double tickNanos = TICK * table.getGame().getTimeFactor() * 1e6; // Real duration of a tick
+		double alpha = Math.min(1, (System.nanoTime() - s.nanos) / tickNanos);
+
+		return Math.max(0, s.shownTime() - TICK * (1 - alpha));
+	}
+
+	/**
+	 * @param s The ball's latest snapshot
+	 * @return The x-position at which to draw the ball (in m)
+	 */
+	private double ballX(ppBallSnapshot s)
+	{
+		if (!RENDER_INTERPOLATE || !s.inPlay)
+			return s.x;
+
+		// Before a hit, the previous segment runs on past the paddle (or the agent) until the tick that detects the hit
+		double x = s.xAt(renderTime(s));
+		return Math.max(agent.getX() + PADDLE_WIDTH / 2 + BALL_RAD, Math.min(paddle.getX() - PADDLE_WIDTH / 2 - BALL_RAD, x));
+	}
+
+	/**
+	 * @param s The ball's latest snapshot
+	 * @return The y-position at which to draw the ball (in m)
+	 */
+	private double ballY(ppBallSnapshot s)
+	{
+		if (!RENDER_INTERPOLATE || !s.inPlay)
+			return s.y;
+
+		// Likewise, the previous segment runs on below the floor until the tick that detects the bounce
+		return Math.max(BALL_RAD, s.yAt(renderTime(s)));
+	}
+
+	/**
+	 * Computes the bounds of the ball, with the margin.
+	 * 
+	 * @param x The x-position of the ball (in m)
+	 * @param y The y-position of the ball (in m)
+	 * @param r Receives the bounds (in pixels)
+	 */
+	private static void ballBounds(double x, double y, Rectangle r)
+	{
+		r.setBounds((int) Math.round(ppTable.toScrX(x - BALL_RAD)) - PAD, (int) Math.round(ppTable.toScrY(y + BALL_RAD)) - PAD,
+				(int) Math.round(2 * BALL_RAD * SCALE) + 2 * PAD, (int) Math.round(2 * BALL_RAD * SCALE) + 2 * PAD);
+	}
+
+	/**
+	 * Computes the bounds of a paddle, with the margin.
+	 * 
+	 * @param p The paddle
+	 * @param r Receives the bounds (in pixels)
+	 */
+	private static void paddleBounds(ppPaddle p, Rectangle r)
+	{
+		r.setBounds((int) Math.round(ppTable.toScrX(p.getX() - PADDLE_WIDTH / 2)) - PAD, (int) Math.round(ppTable.toScrY(p.getY() + PADDLE_HEIGHT / 2)) - PAD,
+				(int) Math.round(SCALE * PADDLE_WIDTH) + 2 * PAD, (int) Math.round(SCALE * PADDLE_HEIGHT) + 2 * PAD);
+	}
+
+	/**
+	 * Copies the back buffer to the screen, within the clip of the repaint: the
+	 * rectangles requested by the render thread, or the whole panel when it is
+	 * first shown, uncovered, and so on.
+	 * 
+	 * @param g The graphics context
+	 */
+	protected void paintComponent(Graphics g)
+	{
+		synchronized (bufferLock)
+		{
+			if (back != null)
+				g.drawImage(back, 0, 0, null);
+			else
+			{
+				g.setColor(Color.WHITE);
+				g.fillRect(0, 0, getWidth(), getHeight());
+			}
+		}
+	}
+}
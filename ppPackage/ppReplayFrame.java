@@ -0,0 +1,288 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.nio.ByteBuffer;
+
+/**
+ * One tick of a recorded match, and the binary encoding used by the replay
+ * files.
+ * 
+ * Every value is quantized (positions to 0.1 mm, velocities to 1 mm/s) and
+ * predicted from the previous tick: the ball is moved one TICK along its drag
+ * trajectory, and each paddle is moved by its velocity. A correction is only
+ * stored when the prediction is off by more than TOLERANCE quanta, so every
+ * decoded value is within 1.5 quanta of the recorded one. Between collisions
+ * and paddle decisions the prediction drifts only through rounding, so most
+ * ticks store nothing but a zero mask and take a single byte. The encoder keeps
+ * the decoded values rather than the exact ones, so both sides always predict
+ * from the same numbers.
+ * 
+ * Record layout (all integers are unsigned LEB128 varints, residuals and
+ * absolute values are zigzag-encoded first):
+ * 
+ * <pre>
+ * mask                  bit i (i &lt; FIELDS): residual of field i follows
+ *                       FLAG_EVENTS: an events varint follows
+ *                       FLAG_KEYFRAME: absolute values follow instead of residuals
+ * [tick]                keyframes only
+ * values or residuals   keyframes: all FIELDS values; otherwise one per set mask bit
+ * [events]              if FLAG_EVENTS
+ * </pre>
+ * 
+ * A non-keyframe record always describes the tick after the previous record.
+ * 
+ * A file that was closed properly ends with an index of its keyframes, so that
+ * a player can seek without decoding the file from the start:
+ * 
+ * <pre>
+ * INDEX_ENTRY_SIZE bytes per keyframe   tick (long), offset (long), events (int)
+ * footer                                index offset (long), last tick (long), keyframe count (int), INDEX_MAGIC (int)
+ * </pre>
+ */
+public class ppReplayFrame
+{
+	static final int MAGIC = 0x50505250; // "PPRP"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 4 + 4 + 3 * 8; // Magic, version, TICK, POS_QUANTUM, VEL_QUANTUM
+	static final int INDEX_MAGIC = 0x50505049; // "PPPI"
+	static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+	static final int FOOTER_SIZE = 8 + 8 + 4 + 4;
+	static final double POS_QUANTUM = 1e-4; // Resolution of the recorded positions (in m)
+	static final double VEL_QUANTUM = 1e-3; // Resolution of the recorded velocities (in m/s)
+	static final long TOLERANCE = 1; // Largest prediction error (in quanta) that is not corrected
+
+	// Fields of a frame, in the order they are stored
+	static final int BALL_X = 0, BALL_Y = 1, BALL_VX = 2, BALL_VY = 3;
+	static final int PADDLE_Y = 4, PADDLE_VY = 5, AGENT_Y = 6, AGENT_VY = 7;
+	static final int FIELDS = 8;
+	static final int MAX_RECORD_SIZE = 2 + 10 + FIELDS * 10 + 5; // Upper bound on the size of one record (in bytes)
+
+	static final int FLAG_EVENTS = 1 << 8;
+	static final int FLAG_KEYFRAME = 1 << 9;
+
+	public static final int EVENT_SERVE = 16; // A new ball was served on this tick (in addition to ppSimEngine's EVENT_* flags)
+
+	private static final double DECAY = StrictMath.exp(-G * TICK / VT); // Same on every JVM, so files decode identically everywhere
+
+	long tick; // Match tick of this frame
+	int events; // ppSimEngine.EVENT_* and EVENT_SERVE flags raised on this tick
+	boolean keyframe; // TRUE if the frame was stored with absolute values
+	final long[] q = new long[FIELDS]; // Quantized values
+
+	private final long[] predicted = new long[FIELDS];
+
+	/**
+	 * Encodes the next tick and makes it the current frame.
+	 * 
+	 * @param buf      The buffer to append the record to
+	 * @param tick     The match tick
+	 * @param events   The events raised on this tick
+	 * @param next     The quantized values of the tick (see quantize()),
+	 *                 overwritten with the values the decoder will see
+	 * @param keyframe TRUE to store absolute values (required for the first
+	 *                 record and whenever a tick was skipped)
+	 */
+	void encode(ByteBuffer buf, long tick, int events, long[] next, boolean keyframe)
+	{
+		int mask = (events != 0 ? FLAG_EVENTS : 0);
+
+		if (keyframe)
+		{
+			putVarLong(buf, mask | FLAG_KEYFRAME);
+			putVarLong(buf, tick);
+			for (int i = 0; i < q.length; i++)
+				putVarLong(buf, zigzag(next[i]));
+		}
+		else
+		{
+			predict(q, predicted);
+			for (int i = 0; i < q.length; i++)
+				if (Math.abs(next[i] - predicted[i]) > TOLERANCE)
+					mask |= 1 << i;
+			putVarLong(buf, mask);
+			for (int i = 0; i < q.length; i++)
+			{
+				if ((mask & (1 << i)) != 0)
+					putVarLong(buf, zigzag(next[i] - predicted[i]));
+				else
+					next[i] = predicted[i]; // What the decoder will see
+			}
+		}
+		if (events != 0)
+			putVarLong(buf, events);
+
+		this.tick = tick;
+		this.events = events;
+		this.keyframe = keyframe;
+		System.arraycopy(next, 0, q, 0, q.length);
+	}
+
+	/**
+	 * Decodes the next record and makes it the current frame.
+	 * 
+	 * @param buf The buffer to read from, positioned at the start of a record
+	 */
+	void decode(ByteBuffer buf)
+	{
+		int mask = (int) getVarLong(buf);
+
+		keyframe = (mask & FLAG_KEYFRAME) != 0;
+		if (keyframe)
+		{
+			tick = getVarLong(buf);
+			for (int i = 0; i < q.length; i++)
+				q[i] = unzigzag(getVarLong(buf));
+		}
+		else
+		{
+			predict(q, predicted);
+			for (int i = 0; i < q.length; i++)
+				q[i] = predicted[i] + ((mask & (1 << i)) != 0 ? unzigzag(getVarLong(buf)) : 0);
+			tick++;
+		}
+		events = ((mask & FLAG_EVENTS) != 0 ? (int) getVarLong(buf) : 0);
+	}
+
+	/**
+	 * Makes this frame a copy of another one.
+	 * 
+	 * @param other The frame to copy
+	 */
+	void copyFrom(ppReplayFrame other)
+	{
+		tick = other.tick;
+		events = other.events;
+		keyframe = other.keyframe;
+		System.arraycopy(other.q, 0, q, 0, q.length);
+	}
+
+	/**
+	 * Predicts the next tick from the current one: the ball follows its drag
+	 * trajectory for one TICK (the same closed form as ppSimEngine), the paddles
+	 * keep their velocities.
+	 * 
+	 * @param cur  The quantized values of the current tick
+	 * @param next Receives the predicted quantized values of the next tick
+	 */
+	private static void predict(long[] cur, long[] next)
+	{
+		double vx = cur[BALL_VX] * VEL_QUANTUM;
+		double vy = cur[BALL_VY] * VEL_QUANTUM;
+
+		next[BALL_X] = cur[BALL_X] + Math.round(VT * vx / G * (1 - DECAY) / POS_QUANTUM);
+		next[BALL_Y] = cur[BALL_Y] + Math.round((VT / G * (VT + vy) * (1 - DECAY) - VT * TICK) / POS_QUANTUM);
+		next[BALL_VX] = Math.round(vx * DECAY / VEL_QUANTUM);
+		next[BALL_VY] = Math.round((DECAY * (vy + VT) - VT) / VEL_QUANTUM);
+		next[PADDLE_Y] = cur[PADDLE_Y] + Math.round(cur[PADDLE_VY] * VEL_QUANTUM * TICK / POS_QUANTUM);
+		next[PADDLE_VY] = cur[PADDLE_VY];
+		next[AGENT_Y] = cur[AGENT_Y] + Math.round(cur[AGENT_VY] * VEL_QUANTUM * TICK / POS_QUANTUM);
+		next[AGENT_VY] = cur[AGENT_VY];
+	}
+
+	/**
+	 * @param field One of the field indices (BALL_X, ..., AGENT_VY)
+	 * @param value The value of the field (in m or m/s)
+	 * @return The value in units of the field's quantum
+	 */
+	static long quantize(int field, double value)
+	{
+		return Math.round(value / quantum(field));
+	}
+
+	/**
+	 * @param field One of the field indices (BALL_X, ..., AGENT_VY)
+	 * @return The value of the field in this frame (in m or m/s)
+	 */
+	double get(int field)
+	{
+		return q[field] * quantum(field);
+	}
+
+	/**
+	 * @param field One of the field indices (BALL_X, ..., AGENT_VY)
+	 * @return The resolution at which the field is stored
+	 */
+	static double quantum(int field)
+	{
+		switch (field)
+		{
+			case BALL_VX:
+			case BALL_VY:
+			case PADDLE_VY:
+			case AGENT_VY:
+				return VEL_QUANTUM;
+			default:
+				return POS_QUANTUM;
+		}
+	}
+
+	/**
+	 * Writes the file header.
+	 * 
+	 * @param buf The buffer to write to
+	 */
+	static void putHeader(ByteBuffer buf)
+	{
+		buf.putInt(MAGIC);
+		buf.putInt(VERSION);
+		buf.putDouble(TICK);
+		buf.putDouble(POS_QUANTUM);
+		buf.putDouble(VEL_QUANTUM);
+	}
+
+	/**
+	 * Appends an unsigned LEB128 varint (7 bits per byte, low bits first).
+	 * 
+	 * @param buf   The buffer to write to
+	 * @param value The value (treated as unsigned)
+	 */
+	static void putVarLong(ByteBuffer buf, long value)
+	{
+		while ((value & ~0x7FL) != 0)
+		{
+			buf.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buf.put((byte) value);
+	}
+
+	/**
+	 * Reads an unsigned LEB128 varint.
+	 * 
+	 * @param buf The buffer to read from
+	 * @return The value
+	 */
+	static long getVarLong(ByteBuffer buf)
+	{
+		long value = 0;
+		int shift = 0;
+		byte b;
+
+		do
+		{
+			b = buf.get();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		}
+		while (b < 0);
+
+		return value;
+	}
+
+	/**
+	 * Maps signed values to unsigned ones so that small magnitudes give short
+	 * varints (0, -1, 1, -2, ... become 0, 1, 2, 3, ...).
+	 */
+	static long zigzag(long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Inverse of zigzag()
+	 */
+	static long unzigzag(long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
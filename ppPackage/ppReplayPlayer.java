@@ -0,0 +1,308 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a file written by ppReplayRecorder through a memory mapping, so that
+ * the operating system pages in only the parts of the match being watched.
+ * 
+ * The keyframe index at the end of the file (rebuilt by scanning the file once
+ * if the recording was cut off before it could be written) gives the tick and
+ * position of every keyframe. Seeking to any tick is a binary search in the
+ * index followed by decoding at most KEYFRAME_INTERVAL records, whatever the
+ * length of the match. Rallies start at the keyframes marked EVENT_SERVE.
+ */
+public class ppReplayPlayer
+{
+	private final FileChannel channel;
+	private final ByteBuffer buf; // The mapped file, positioned after the current frame
+	private final int dataEnd; // Position of the end of the records
+
+	private long[] keyTicks; // Tick of each keyframe
+	private int[] keyOffsets; // Position of each keyframe in the file
+	private int keyCount;
+	private long[] rallyTicks; // First tick of each rally
+	private int rallyCount;
+	private long lastTick;
+
+	private final ppReplayFrame frame = new ppReplayFrame();
+
+	/**
+	 * Opens a replay file.
+	 * 
+	 * @param path The file to play
+	 * @throws IOException If the file cannot be read, or is not a replay recorded
+	 *                     with the current TICK
+	 */
+	public ppReplayPlayer(Path path) throws IOException
+	{
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		if (channel.size() > Integer.MAX_VALUE)
+			throw new IOException("Replay file too large: " + path);
+		buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+		if (buf.limit() < ppReplayFrame.HEADER_SIZE || buf.getInt(0) != ppReplayFrame.MAGIC || buf.getInt(4) != ppReplayFrame.VERSION)
+			throw new IOException("Not a replay file: " + path);
+		if (buf.getDouble(8) != TICK || buf.getDouble(16) != ppReplayFrame.POS_QUANTUM || buf.getDouble(24) != ppReplayFrame.VEL_QUANTUM)
+			throw new IOException("Replay recorded with different parameters: " + path);
+
+		if (buf.limit() >= ppReplayFrame.HEADER_SIZE + ppReplayFrame.FOOTER_SIZE && buf.getInt(buf.limit() - 4) == ppReplayFrame.INDEX_MAGIC)
+			dataEnd = readIndex();
+		else
+			dataEnd = scanIndex();
+
+		if (keyCount == 0)
+			throw new IOException("Replay file contains no ticks: " + path);
+		seek(keyTicks[0]);
+	}
+
+	/**
+	 * Loads the index written at the end of the file.
+	 * 
+	 * @return The position of the end of the records
+	 */
+	private int readIndex()
+	{
+		int footer = buf.limit() - ppReplayFrame.FOOTER_SIZE;
+		int indexOffset = (int) buf.getLong(footer);
+		int count = buf.getInt(footer + 16);
+
+		lastTick = buf.getLong(footer + 8);
+		keyTicks = new long[count];
+		keyOffsets = new int[count];
+		rallyTicks = new long[count];
+		for (int k = 0; k < count; k++)
+		{
+			int entry = indexOffset + k * ppReplayFrame.INDEX_ENTRY_SIZE;
+			addKeyframe(buf.getLong(entry), (int) buf.getLong(entry + 8), buf.getInt(entry + 16));
+		}
+
+		return indexOffset;
+	}
+
+	/**
+	 * Rebuilds the index by decoding the whole file, for recordings that were not
+	 * closed properly. A truncated record at the end is ignored.
+	 * 
+	 * @return The position of the end of the last complete record
+	 */
+	private int scanIndex()
+	{
+		int end = ppReplayFrame.HEADER_SIZE;
+
+		keyTicks = new long[64];
+		keyOffsets = new int[64];
+		rallyTicks = new long[64];
+		buf.position(end);
+		try
+		{
+			while (buf.hasRemaining())
+			{
+				frame.decode(buf);
+				if (frame.keyframe)
+					addKeyframe(frame.tick, end, frame.events);
+				lastTick = frame.tick;
+				end = buf.position();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// Truncated record (BufferUnderflowException): keep what was decoded before it
+		}
+
+		return end;
+	}
+
+	/**
+	 * Adds a keyframe to the index.
+	 * 
+	 * @param tick   The tick of the keyframe
+	 * @param offset The position of the keyframe in the file
+	 * @param events The events of the keyframe
+	 */
+	private void addKeyframe(long tick, int offset, int events)
+	{
+		if (keyCount == keyTicks.length)
+		{
+			keyTicks = Arrays.copyOf(keyTicks, 2 * keyCount);
+			keyOffsets = Arrays.copyOf(keyOffsets, 2 * keyCount);
+			rallyTicks = Arrays.copyOf(rallyTicks, 2 * keyCount);
+		}
+		keyTicks[keyCount] = tick;
+		keyOffsets[keyCount] = offset;
+		keyCount++;
+		if ((events & ppReplayFrame.EVENT_SERVE) != 0)
+			rallyTicks[rallyCount++] = tick;
+	}
+
+	/**
+	 * Moves to the last recorded tick at or before the given one, using the
+	 * keyframe index.
+	 * 
+	 * @param tick The tick to move to
+	 * @return The current frame (reused by every call)
+	 */
+	public synchronized ppReplayFrame seek(long tick)
+	{
+		int k = Math.max(0, floor(keyTicks, keyCount, tick));
+
+		buf.position(keyOffsets[k]);
+		frame.decode(buf);
+		return advanceTo(tick);
+	}
+
+	/**
+	 * Moves to the last recorded tick at or before the given one. Moving forward
+	 * by less than a keyframe interval decodes the records in between; anything
+	 * else is a seek.
+	 * 
+	 * @param tick The tick to move to
+	 * @return The current frame (reused by every call)
+	 */
+	public synchronized ppReplayFrame advanceTo(long tick)
+	{
+		if (tick < frame.tick || tick - frame.tick > ppReplayRecorder.KEYFRAME_INTERVAL && floor(keyTicks, keyCount, tick) > floor(keyTicks, keyCount, frame.tick))
+			return seek(tick);
+
+		while (buf.position() < dataEnd && peekTick() <= tick)
+			frame.decode(buf);
+		return frame;
+	}
+
+	/**
+	 * @return The tick of the next record, without moving past it
+	 */
+	private long peekTick()
+	{
+		int start = buf.position();
+		long mask = ppReplayFrame.getVarLong(buf);
+		long tick = ((mask & ppReplayFrame.FLAG_KEYFRAME) != 0 ? ppReplayFrame.getVarLong(buf) : frame.tick + 1);
+
+		buf.position(start);
+		return tick;
+	}
+
+	/**
+	 * @return The current frame
+	 */
+	public synchronized ppReplayFrame getFrame()
+	{
+		return frame;
+	}
+
+	/**
+	 * @return The first recorded tick
+	 */
+	public long getFirstTick()
+	{
+		return keyTicks[0];
+	}
+
+	/**
+	 * @return The last recorded tick
+	 */
+	public long getLastTick()
+	{
+		return lastTick;
+	}
+
+	/**
+	 * @return The number of rallies in the recording
+	 */
+	public int getRallyCount()
+	{
+		return rallyCount;
+	}
+
+	/**
+	 * @param rally The index of a rally (from 0)
+	 * @return The tick at which the rally was served
+	 */
+	public long getRallyStart(int rally)
+	{
+		return rallyTicks[rally];
+	}
+
+	/**
+	 * @param tick A tick
+	 * @return The index of the rally in progress at that tick (the last one served
+	 *         at or before it), or -1 if it is before the first serve
+	 */
+	public int getRally(long tick)
+	{
+		return floor(rallyTicks, rallyCount, tick);
+	}
+
+	/**
+	 * Closes the file. The mapping itself is released when it is garbage
+	 * collected.
+	 * 
+	 * @throws IOException If the file cannot be closed
+	 */
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	/**
+	 * @param ticks An array sorted in increasing order
+	 * @param count The number of elements of the array in use
+	 * @param tick  The tick to look for
+	 * @return The index of the last element at or before tick, or -1 if there is
+	 *         none
+	 */
+	private static int floor(long[] ticks, int count, long tick)
+	{
+		int i = Arrays.binarySearch(ticks, 0, count, tick);
+		return (i >= 0 ? i : -i - 2);
+	}
+
+	/**
+	 * Checks that seeking gives the same frames as decoding the file from the
+	 * start, and measures how long a random seek takes.
+	 * 
+	 * @param args The replay file to check (REPLAY_FILE if none is given)
+	 * @throws IOException If the file cannot be read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String file = (args.length > 0 ? args[0] : REPLAY_FILE);
+		ppReplayPlayer player = new ppReplayPlayer(Paths.get(file));
+		ppReplayPlayer sequential = new ppReplayPlayer(Paths.get(file));
+		ppRandom rgen = new ppRandom(RSEED);
+		long first = player.getFirstTick();
+		long span = player.getLastTick() - first + 1;
+		int mismatches = 0;
+
+		// Every recorded tick, reached both ways
+		for (long tick = first; tick <= player.getLastTick(); tick++)
+		{
+			ppReplayFrame a = sequential.advanceTo(tick);
+			ppReplayFrame b = player.seek(tick);
+			if (a.tick != b.tick || !Arrays.equals(a.q, b.q))
+				mismatches++;
+		}
+
+		// Random seeks
+		int seeks = 1000000;
+		long start = System.nanoTime();
+		for (int i = 0; i < seeks; i++)
+			player.seek(first + (long) (rgen.nextDouble() * span));
+		double seekNs = (double) (System.nanoTime() - start) / seeks;
+
+		System.out.printf("Ticks:            %d to %d\n", first, player.getLastTick());
+		System.out.printf("Rallies:          %d\n", player.getRallyCount());
+		System.out.printf("Keyframes:        %d\n", player.keyCount);
+		System.out.printf("Seek mismatches:  %d\n", mismatches);
+		System.out.printf("Random seek:      %.0f ns\n", seekNs);
+		player.close();
+		sequential.close();
+	}
+}
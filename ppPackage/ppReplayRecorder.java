@@ -0,0 +1,364 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Records every tick of a match to a compact binary file (see ppReplayFrame for
+ * the encoding).
+ * 
+ * The game loop only encodes each tick into an in-memory buffer, which takes
+ * about 100 ns and allocates nothing. Full buffers are handed to a
+ * background thread that writes them to a FileChannel and gives them back, so
+ * the game loop never waits for the disk.
+ */
+public class ppReplayRecorder
+{
+	static final int BUFFER_SIZE = 1 << 16; // Size of each buffer handed to the writer thread (in bytes)
+	static final int BUFFERS = 4; // Number of buffers allocated up front (more are allocated if the disk falls behind)
+	static final int KEYFRAME_INTERVAL = 500; // Maximum number of ticks between two keyframes (5 s of play)
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0); // Tells the writer thread to stop
+
+	private final FileChannel channel;
+	private final LinkedBlockingQueue<ByteBuffer> full = new LinkedBlockingQueue<ByteBuffer>();
+	private final LinkedBlockingQueue<ByteBuffer> free = new LinkedBlockingQueue<ByteBuffer>();
+	private final Thread writer;
+	private volatile IOException writeError;
+
+	private final ppReplayFrame frame = new ppReplayFrame();
+	private final long[] next = new long[ppReplayFrame.FIELDS];
+	private ByteBuffer buf;
+	private long lastTick = -1;
+	private long lastKeyframe;
+	private long[] keyTicks = new long[64]; // Ticks of the keyframes written so far
+	private long[] keyOffsets = new long[64]; // File offsets of the keyframes written so far
+	private int[] keyEvents = new int[64]; // Events of the keyframes written so far
+	private int keyCount;
+	private long ticks;
+	private long bytes;
+	private boolean closed;
+
+	/**
+	 * Creates (or truncates) a replay file and starts the writer thread.
+	 * 
+	 * @param path The file to record to
+	 * @throws IOException If the file cannot be opened
+	 */
+	public ppReplayRecorder(Path path) throws IOException
+	{
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+		for (int i = 0; i < BUFFERS; i++)
+			free.add(ByteBuffer.allocate(BUFFER_SIZE));
+		buf = free.poll();
+		ppReplayFrame.putHeader(buf);
+
+		writer = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				write();
+			}
+		}, "ppReplayRecorder");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Records one tick. Ticks must be recorded in increasing order, but need not be
+	 * consecutive (e.g. nothing needs to be recorded between two rallies).
+	 * 
+	 * @param tick     The match tick
+	 * @param events   The ppSimEngine.EVENT_* flags raised on this tick, plus
+	 *                 ppReplayFrame.EVENT_SERVE on the first tick of a rally
+	 * @param ballX    The ball's x-position (in m)
+	 * @param ballY    The ball's y-position (in m)
+	 * @param ballVx   The x-component of the ball's velocity (in m/s)
+	 * @param ballVy   The y-component of the ball's velocity (in m/s)
+	 * @param paddleY  The y-position of the player's paddle (in m)
+	 * @param paddleVy The y-component of the player's paddle velocity (in m/s)
+	 * @param agentY   The y-position of the agent (in m)
+	 * @param agentVy  The y-component of the agent's velocity (in m/s)
+	 */
+	public synchronized void record(long tick, int events, double ballX, double ballY, double ballVx, double ballVy, double paddleY, double paddleVy,
+			double agentY, double agentVy)
+	{
+		if (closed)
+			return;
+
+		next[ppReplayFrame.BALL_X] = ppReplayFrame.quantize(ppReplayFrame.BALL_X, ballX);
+		next[ppReplayFrame.BALL_Y] = ppReplayFrame.quantize(ppReplayFrame.BALL_Y, ballY);
+		next[ppReplayFrame.BALL_VX] = ppReplayFrame.quantize(ppReplayFrame.BALL_VX, ballVx);
+		next[ppReplayFrame.BALL_VY] = ppReplayFrame.quantize(ppReplayFrame.BALL_VY, ballVy);
+		next[ppReplayFrame.PADDLE_Y] = ppReplayFrame.quantize(ppReplayFrame.PADDLE_Y, paddleY);
+		next[ppReplayFrame.PADDLE_VY] = ppReplayFrame.quantize(ppReplayFrame.PADDLE_VY, paddleVy);
+		next[ppReplayFrame.AGENT_Y] = ppReplayFrame.quantize(ppReplayFrame.AGENT_Y, agentY);
+		next[ppReplayFrame.AGENT_VY] = ppReplayFrame.quantize(ppReplayFrame.AGENT_VY, agentVy);
+
+		// A keyframe at every serve, after any gap, and at least every KEYFRAME_INTERVAL ticks
+		boolean keyframe = (tick != lastTick + 1 || (events & ppReplayFrame.EVENT_SERVE) != 0 || tick - lastKeyframe >= KEYFRAME_INTERVAL);
+		if (keyframe)
+			lastKeyframe = tick;
+		lastTick = tick;
+
+		if (buf.remaining() < ppReplayFrame.MAX_RECORD_SIZE)
+			handOff();
+		if (keyframe)
+			addKeyframe(tick, ppReplayFrame.HEADER_SIZE + bytes, events);
+		int start = buf.position();
+		frame.encode(buf, tick, events, next, keyframe);
+		bytes += buf.position() - start;
+		ticks++;
+	}
+
+	/**
+	 * Remembers where a keyframe was written, for the index at the end of the file.
+	 * 
+	 * @param tick   The tick of the keyframe
+	 * @param offset The position of the keyframe in the file
+	 * @param events The events of the keyframe
+	 */
+	private void addKeyframe(long tick, long offset, int events)
+	{
+		if (keyCount == keyTicks.length)
+		{
+			keyTicks = Arrays.copyOf(keyTicks, 2 * keyCount);
+			keyOffsets = Arrays.copyOf(keyOffsets, 2 * keyCount);
+			keyEvents = Arrays.copyOf(keyEvents, 2 * keyCount);
+		}
+		keyTicks[keyCount] = tick;
+		keyOffsets[keyCount] = offset;
+		keyEvents[keyCount] = events;
+		keyCount++;
+	}
+
+	/**
+	 * Writes everything recorded so far followed by the keyframe index, stops the
+	 * writer thread and closes the file. Ticks recorded afterwards are ignored.
+	 * 
+	 * @throws IOException If any write failed
+	 */
+	public synchronized void close() throws IOException
+	{
+		if (closed)
+			return;
+		closed = true;
+
+		handOff();
+		full.add(END);
+		try
+		{
+			writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		// The writer thread has finished, so the index can be appended directly
+		if (writeError == null)
+		{
+			ByteBuffer index = ByteBuffer.allocate(keyCount * ppReplayFrame.INDEX_ENTRY_SIZE + ppReplayFrame.FOOTER_SIZE);
+			for (int k = 0; k < keyCount; k++)
+			{
+				index.putLong(keyTicks[k]);
+				index.putLong(keyOffsets[k]);
+				index.putInt(keyEvents[k]);
+			}
+			index.putLong(ppReplayFrame.HEADER_SIZE + bytes);
+			index.putLong(lastTick);
+			index.putInt(keyCount);
+			index.putInt(ppReplayFrame.INDEX_MAGIC);
+			index.flip();
+			try
+			{
+				while (index.hasRemaining())
+					channel.write(index);
+			}
+			catch (IOException e)
+			{
+				writeError = e;
+			}
+		}
+		channel.close();
+
+		if (writeError != null)
+			throw writeError;
+	}
+
+	/**
+	 * @return The number of ticks recorded
+	 */
+	public synchronized long getTicks()
+	{
+		return ticks;
+	}
+
+	/**
+	 * @return The number of bytes used by the recorded ticks (excluding the
+	 *         header)
+	 */
+	public synchronized long getBytes()
+	{
+		return bytes;
+	}
+
+	/**
+	 * Passes the current buffer to the writer thread and continues in a free one.
+	 */
+	private void handOff()
+	{
+		buf.flip();
+		full.add(buf);
+		buf = free.poll();
+		if (buf == null)
+			buf = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	/**
+	 * Body of the writer thread: writes buffers to the file in the order they were
+	 * filled, until END is received. After a write error, the remaining buffers
+	 * are discarded and the error is reported by close().
+	 */
+	private void write()
+	{
+		while (true)
+		{
+			ByteBuffer b;
+			try
+			{
+				b = full.take();
+			}
+			catch (InterruptedException e)
+			{
+				continue;
+			}
+			if (b == END)
+				return;
+
+			try
+			{
+				while (writeError == null && b.hasRemaining())
+					channel.write(b);
+			}
+			catch (IOException e)
+			{
+				writeError = e;
+			}
+			b.clear();
+			free.add(b);
+		}
+	}
+
+	/**
+	 * Records a batch of headless rallies and reports the size of the file, the
+	 * cost of recording, and the largest difference between the recorded and the
+	 * decoded values.
+	 * 
+	 * @param args Number of serves (default 2000), file (default: a temporary
+	 *             file, deleted afterwards)
+	 * @throws IOException If the file cannot be written or read
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int serves = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+		Path path = (args.length > 1 ? Paths.get(args[1]) : Files.createTempFile("pp", ".ppr"));
+		double[] maxErr = new double[2];
+
+		// Warm up, then time the same rallies without and with recording (each timed run is preceded by an untimed one)
+		play(serves, null, null, null);
+		long start = System.nanoTime();
+		play(serves, null, null, null);
+		long plainNs = System.nanoTime() - start;
+
+		ppReplayRecorder recorder = new ppReplayRecorder(path);
+		play(serves, recorder, null, null);
+		recorder.close();
+		recorder = new ppReplayRecorder(path);
+		start = System.nanoTime();
+		play(serves, recorder, null, null);
+		long recordNs = System.nanoTime() - start;
+		recorder.close();
+
+		// Play them once more, decoding the file alongside
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+		in.position(ppReplayFrame.HEADER_SIZE);
+		play(serves, null, in, maxErr);
+
+		System.out.printf("Ticks recorded:       %d (%d serves)\n", recorder.getTicks(), serves);
+		System.out.printf("File size:            %d bytes\n", Files.size(path));
+		System.out.printf("Bytes per tick:       %.3f\n", (double) recorder.getBytes() / recorder.getTicks());
+		System.out.printf("Max position error:   %.2e m\n", maxErr[0]);
+		System.out.printf("Max velocity error:   %.2e m/s\n", maxErr[1]);
+		System.out.printf("Simulation only:      %.1f ns/tick\n", (double) plainNs / recorder.getTicks());
+		System.out.printf("Simulation + record:  %.1f ns/tick\n", (double) recordNs / recorder.getTicks());
+
+		if (args.length < 2)
+			Files.delete(path);
+	}
+
+	/**
+	 * Plays the serves used by main(), with a short pause between rallies.
+	 * 
+	 * @param serves   The number of serves
+	 * @param recorder If not null, every tick is recorded
+	 * @param in       If not null, every tick is decoded from this buffer and
+	 *                 compared with the simulation
+	 * @param maxErr   Receives the largest position and velocity errors found
+	 *                 when decoding
+	 */
+	private static void play(int serves, ppReplayRecorder recorder, ByteBuffer in, double[] maxErr)
+	{
+		ppRandom rgen = new ppRandom(RSEED);
+		ppSimState s = new ppSimState();
+		ppReplayFrame frame = new ppReplayFrame();
+		long tick = 0;
+
+		ppSimEngine.setReactTime(s, 200);
+		ppSimEngine.setPaddleAgent(s, 100);
+		for (int i = 0; i < serves; i++)
+		{
+			double randYinit = rgen.nextDouble(YINIT_MIN, YINIT_MAX);
+			double randLoss = rgen.nextDouble(LOSS_MIN, LOSS_MAX);
+			double randV0 = rgen.nextDouble(V0_MIN, V0_MAX);
+			double randTheta = rgen.nextDouble(THETA_MIN, THETA_MAX);
+			int events = ppReplayFrame.EVENT_SERVE;
+
+			s.agentY = AGENT_YINIT;
+			s.paddleY = PADDLE_YINIT;
+			ppSimEngine.serve(s, XINIT, randYinit, randV0, randTheta, randLoss);
+			while (s.ballInPlay() && s.tick < ppBatchRunner.MAX_TICKS)
+			{
+				events |= ppSimEngine.step(s);
+				if (recorder != null)
+					recorder.record(tick, events, s.x, s.y, s.vx, s.vy, s.paddleY, s.paddleVy, s.agentY, s.agentVy);
+				if (in != null)
+				{
+					frame.decode(in);
+					maxErr[0] = Math.max(maxErr[0], Math.abs(frame.get(ppReplayFrame.BALL_X) - s.x));
+					maxErr[0] = Math.max(maxErr[0], Math.abs(frame.get(ppReplayFrame.BALL_Y) - s.y));
+					maxErr[0] = Math.max(maxErr[0], Math.abs(frame.get(ppReplayFrame.PADDLE_Y) - s.paddleY));
+					maxErr[0] = Math.max(maxErr[0], Math.abs(frame.get(ppReplayFrame.AGENT_Y) - s.agentY));
+					maxErr[1] = Math.max(maxErr[1], Math.abs(frame.get(ppReplayFrame.BALL_VX) - s.vx));
+					maxErr[1] = Math.max(maxErr[1], Math.abs(frame.get(ppReplayFrame.BALL_VY) - s.vy));
+					maxErr[1] = Math.max(maxErr[1], Math.abs(frame.get(ppReplayFrame.PADDLE_VY) - s.paddleVy));
+					maxErr[1] = Math.max(maxErr[1], Math.abs(frame.get(ppReplayFrame.AGENT_VY) - s.agentVy));
+					if (frame.tick != tick || frame.events != events)
+						throw new IllegalStateException("Decoded tick " + frame.tick + " does not match tick " + tick);
+				}
+				events = 0;
+				tick++;
+			}
+			tick += 300; // Pause between rallies (3 s)
+		}
+	}
+}
@@ -0,0 +1,260 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.awt.event.ActionEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JSlider;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import acm.graphics.GOval;
+import acm.program.GraphicsProgram;
+
+/**
+ * Plays back a match recorded by ppReplayRecorder on the same table display as
+ * the game, with the ball and paddles placed from the recorded state instead of
+ * being simulated.
+ * 
+ * Playback runs on its own clock: at 1x, one TICK of the recording is shown per
+ * TICK of real time, whatever the time factor slider of the game was set to
+ * during the match, and the speed slider fast-forwards up to 256 times
+ * faster by skipping the frames that cannot be displayed. Seeking (position
+ * slider, rally buttons) goes through the keyframe index of ppReplayPlayer.
+ * 
+ * The playback thread only decodes: each frame is copied out of the player and
+ * handed to the event dispatch thread, which places the objects and updates
+ * the controls. A frame is skipped while the previous one is still waiting to
+ * be shown, so a busy display never falls behind the recording.
+ * 
+ * The file is REPLAY_FILE, or the one given as "file=..." on the command line.
+ */
+@SuppressWarnings("serial")
+public class ppReplayViewer extends GraphicsProgram
+{
+	private static final long FRAME_NS = 16666667; // Time between two displayed frames (60 Hz)
+	private static final int MAX_SPEED_LOG2 = 8; // Highest playback speed: 2^8 = 256 times real time
+
+	private ppReplayPlayer player;
+	private ppTable table;
+	private ppPaddle paddle;
+	private ppPaddle agent;
+	private GOval ball;
+	private JSlider speed;
+	private JSlider position;
+	private JLabel status;
+	private ChangeListener seek; // Moves the playback position when the user moves the position slider
+	private volatile int speedLog2; // Copy of the speed slider's value for the playback thread
+
+	// Frame handed from the playback thread to the event dispatch thread
+	private final ppReplayFrame shown = new ppReplayFrame();
+	private final AtomicBoolean framePending = new AtomicBoolean();
+
+	// Playback position, shared between the playback thread and the event dispatch thread
+	private boolean playing;
+	private double playTick;
+
+	/**
+	 * Opens the replay file, sets up the display and the controls, and starts
+	 * playing.
+	 */
+	public void init()
+	{
+		String file = getParameter("file");
+
+		resize(SCR_WIDTH + BORDER, SCR_HEIGHT + BORDER);
+
+		try
+		{
+			player = new ppReplayPlayer(Paths.get(file != null ? file : REPLAY_FILE));
+		}
+		catch (IOException e)
+		{
+			add(new JLabel("Could not open the replay: " + e.getMessage()), NORTH);
+			return;
+		}
+
+		// Controls
+		JButton previous = new JButton("<< Rally");
+		previous.setActionCommand("PREVIOUS");
+		add(previous, SOUTH);
+		JButton play = new JButton("Play / Pause");
+		play.setActionCommand("PLAY");
+		add(play, SOUTH);
+		JButton next = new JButton("Rally >>");
+		next.setActionCommand("NEXT");
+		add(next, SOUTH);
+		add(new JLabel("    1x"), SOUTH);
+		speed = new JSlider(0, MAX_SPEED_LOG2, 0);
+		speed.addChangeListener(new ChangeListener()
+		{
+			public void stateChanged(ChangeEvent e)
+			{
+				speedLog2 = speed.getValue();
+			}
+		});
+		add(speed, SOUTH);
+		add(new JLabel((1 << MAX_SPEED_LOG2) + "x    "), SOUTH);
+		position = new JSlider(0, (int) (player.getLastTick() - player.getFirstTick()), 0);
+		seek = new ChangeListener()
+		{
+			public void stateChanged(ChangeEvent e)
+			{
+				moveTo(player.getFirstTick() + position.getValue());
+			}
+		};
+		position.addChangeListener(seek);
+		add(position, NORTH);
+		status = new JLabel();
+		add(status, NORTH);
+		addActionListeners();
+
+		// Table, paddles and ball (the paddles are only moved, never simulated)
+		table = new ppTable(this);
+		table.newScreen();
+		paddle = new ppPaddle(PADDLE_XINIT, PADDLE_YINIT, PADDLE_COLOR, table);
+		agent = new ppPaddle(AGENT_XINIT, AGENT_YINIT, AGENT_COLOR, table);
+		ball = new GOval(2 * BALL_RAD * SCALE, 2 * BALL_RAD * SCALE);
+		ball.setFilled(true);
+		ball.setColor(BALL_COLOR);
+		add(ball);
+
+		playTick = player.getFirstTick();
+		playing = true;
+		Thread playback = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				play();
+			}
+		}, "ppReplayViewer");
+		playback.setDaemon(true);
+		playback.start();
+	}
+
+	/**
+	 * Body of the playback thread: advances the playback position by the real time
+	 * elapsed times the playback speed, and hands the frame at that position to
+	 * the event dispatch thread, 60 times per second.
+	 */
+	private void play()
+	{
+		long last = System.nanoTime();
+
+		while (true)
+		{
+			LockSupport.parkNanos(FRAME_NS);
+			long now = System.nanoTime();
+			long tick;
+
+			synchronized (this)
+			{
+				if (playing)
+				{
+					playTick += (now - last) / 1e9 / TICK * (1 << speedLog2);
+					if (playTick >= player.getLastTick())
+					{
+						playTick = player.getLastTick();
+						playing = false;
+					}
+				}
+				tick = (long) playTick;
+			}
+			last = now;
+
+			if (!framePending.compareAndSet(false, true))
+				continue; // The previous frame has not been shown yet
+			synchronized (player)
+			{
+				shown.copyFrom(player.advanceTo(tick));
+			}
+			final long shownTick = tick;
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					show(shown, shownTick);
+					framePending.set(false);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Places the ball and the paddles according to a recorded frame, and updates
+	 * the position slider and the status line. Called on the event dispatch
+	 * thread.
+	 * 
+	 * @param frame The frame to show
+	 * @param tick  The playback position (may be past the frame, between rallies)
+	 */
+	private void show(ppReplayFrame frame, long tick)
+	{
+		int rally = player.getRally(tick);
+
+		ball.setLocation(ppTable.toScrX(frame.get(ppReplayFrame.BALL_X) - BALL_RAD), ppTable.toScrY(frame.get(ppReplayFrame.BALL_Y) + BALL_RAD));
+		ball.setVisible(frame.tick == tick && (frame.events & ppSimEngine.EVENT_END) == 0);
+		paddle.setY(frame.get(ppReplayFrame.PADDLE_Y));
+		agent.setY(frame.get(ppReplayFrame.AGENT_Y));
+
+		// Leave the slider alone while the user drags it, and keep this update from
+		// being taken for a seek
+		if (!position.getValueIsAdjusting())
+		{
+			position.removeChangeListener(seek);
+			position.setValue((int) (tick - player.getFirstTick()));
+			position.addChangeListener(seek);
+		}
+
+		double seconds = (tick - player.getFirstTick()) * TICK;
+		status.setText(String.format("  Rally %d/%d   %d:%04.1f   %dx  ", rally + 1, player.getRallyCount(), (int) (seconds / 60), seconds % 60,
+				1 << speedLog2));
+	}
+
+	/**
+	 * Moves the playback position.
+	 * 
+	 * @param tick The new position
+	 */
+	private synchronized void moveTo(long tick)
+	{
+		playTick = Math.max(player.getFirstTick(), Math.min(player.getLastTick(), tick));
+	}
+
+	/**
+	 * When the user presses a button, performs the corresponding action.
+	 */
+	public void actionPerformed(ActionEvent e)
+	{
+		int rally;
+
+		synchronized (this)
+		{
+			rally = player.getRally((long) playTick);
+		}
+
+		switch (e.getActionCommand())
+		{
+			case "PLAY":
+				synchronized (this)
+				{
+					if (!playing && playTick >= player.getLastTick())
+						playTick = player.getFirstTick();
+					playing = !playing;
+				}
+				break;
+			case "PREVIOUS":
+				if (rally > 0)
+					moveTo(player.getRallyStart(rally - 1));
+				break;
+			case "NEXT":
+				if (rally + 1 < player.getRallyCount())
+					moveTo(player.getRallyStart(rally + 1));
+				break;
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+
+/**
+ * Ring of saved match states, for rolling a simulation back to an earlier tick
+ * and simulating it again (e.g. with a late input of the other player), or for
+ * branching off "what if" continuations from the same tick.
+ * 
+ * Every frame holds a complete copy of a ppSimState (the ball's trajectory
+ * segment, both paddles, the agent's delay counter, target and cached
+ * prediction) and the position of the ppRandom the serves are drawn from, so a
+ * restored simulation continues exactly as the saved one did, bit for bit,
+ * serves included. All the frames are allocated up front: saving and restoring
+ * only copy fields (see ppSimState.copyFrom()) and allocate nothing.
+ * 
+ * Frames are indexed by the caller's tick counter, modulo the capacity; saving
+ * tick t overwrites tick t - capacity.
+ * 
+ * Running main() checks that restoring and simulating again reproduces the
+ * original rallies; ppBenchmark measures save() and restore().
+ */
+public class ppRollback
+{
+	private final ppSimState[] states;
+	private final long[] seeds; // Position of the random stream at each saved tick
+	private final long[] ticks; // Tick saved in each frame (-1 if none)
+	private final int mask;
+
+	/**
+	 * Allocates every frame.
+	 * 
+	 * @param capacity The number of ticks kept (rounded up to a power of 2)
+	 */
+	public ppRollback(int capacity)
+	{
+		int n = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+
+		states = new ppSimState[n];
+		seeds = new long[n];
+		ticks = new long[n];
+		mask = n - 1;
+		for (int i = 0; i < n; i++)
+		{
+			states[i] = new ppSimState();
+			ticks[i] = -1;
+		}
+	}
+
+	/**
+	 * Saves the state of a tick.
+	 * 
+	 * @param tick The caller's tick counter (not negative)
+	 * @param s    The state to save
+	 * @param rgen The random stream of the match, or null if it has none
+	 */
+	public void save(long tick, ppSimState s, ppRandom rgen)
+	{
+		int i = (int) tick & mask;
+
+		states[i].copyFrom(s);
+		seeds[i] = (rgen != null ? rgen.getSeed() : 0);
+		ticks[i] = tick;
+	}
+
+	/**
+	 * Restores the state of a tick, if it is still kept.
+	 * 
+	 * @param tick The tick to go back to
+	 * @param s    The state to overwrite
+	 * @param rgen The random stream of the match (its position is restored too),
+	 *             or null
+	 * @return TRUE if the tick was restored, FALSE if it was never saved or has
+	 *         been overwritten since (nothing is changed then)
+	 */
+	public boolean restore(long tick, ppSimState s, ppRandom rgen)
+	{
+		int i = (int) tick & mask;
+
+		if (ticks[i] != tick)
+			return false;
+		s.copyFrom(states[i]);
+		if (rgen != null)
+			rgen.setSeed(seeds[i]);
+		return true;
+	}
+
+	/**
+	 * @param tick A tick
+	 * @return TRUE if the state of that tick can be restored
+	 */
+	public boolean contains(long tick)
+	{
+		return tick >= 0 && ticks[(int) tick & mask] == tick;
+	}
+
+	/**
+	 * @return The number of ticks kept
+	 */
+	public int getCapacity()
+	{
+		return states.length;
+	}
+
+	/**
+	 * Plays rallies of the agent against the reference opponent, saving every
+	 * tick; at random ticks, rolls back a random number of ticks, simulates
+	 * forward again and compares the result with the states that were saved.
+	 * 
+	 * @param args The number of rollbacks to check (default 100000)
+	 */
+	public static void main(String[] args)
+	{
+		long rollbacks = (args.length > 0 ? Long.parseLong(args[0]) : 100000);
+		ppRollback history = new ppRollback(NET_HISTORY);
+		ppRandom rgen = new ppRandom(RSEED);
+		ppRandom choices = new ppRandom(RSEED + 1);
+		ppSimState s = new ppSimState();
+		ppSimState replayed = new ppSimState();
+		ppSimState expected = new ppSimState();
+		ppRandom replayedRgen = new ppRandom(0);
+		ppRandom expectedRgen = new ppRandom(0);
+		long mismatches = 0;
+		long tick = 0;
+
+		ppAgentConfig.getDefault(200).applyLeft(s);
+		ppAgentConfig.getReference(100).applyRight(s);
+		for (long r = 0; r < rollbacks; tick++)
+		{
+			// Each tick is saved after the serve, if any, and before it is simulated
+			if (!s.ballInPlay || s.tick >= ppBatchRunner.MAX_TICKS)
+				ppBatchRunner.serveRandom(s, rgen);
+			history.save(tick, s, rgen);
+			ppSimEngine.step(s);
+
+			if (tick < history.getCapacity() || choices.nextDouble() >= 0.1)
+				continue;
+
+			// Go back up to a full history, and simulate again up to the current tick
+			long from = tick - 1 - (long) (choices.nextDouble() * (history.getCapacity() - 1));
+			history.restore(from, replayed, replayedRgen);
+			for (long t = from + 1; t <= tick; t++)
+			{
+				ppSimEngine.step(replayed);
+				if (!replayed.ballInPlay || replayed.tick >= ppBatchRunner.MAX_TICKS)
+					ppBatchRunner.serveRandom(replayed, replayedRgen);
+				history.restore(t, expected, expectedRgen);
+				if (!same(replayed, expected) || replayedRgen.getSeed() != expectedRgen.getSeed())
+					mismatches++;
+			}
+			r++;
+		}
+		System.out.printf("%d rollbacks over %d ticks: %d mismatched states\n", rollbacks, tick, mismatches);
+	}
+
+	/**
+	 * @param a A state
+	 * @param b Another state
+	 * @return TRUE if the ball, both paddles and the agent's decision state are
+	 *         identical
+	 */
+	private static boolean same(ppSimState a, ppSimState b)
+	{
+		return a.x0 == b.x0 && a.y0 == b.y0 && a.v0x == b.v0x && a.v0y == b.v0y && a.t == b.t && a.decay == b.decay && a.loss == b.loss && a.ballInPlay == b.ballInPlay
+				&& a.tick == b.tick && a.volley == b.volley && a.paddleY == b.paddleY && a.paddleVy == b.paddleVy && a.paddleCounter == b.paddleCounter && a.agentY == b.agentY
+				&& a.agentVy == b.agentVy && a.agentCounter == b.agentCounter && a.agentTargetY == b.agentTargetY;
+	}
+}
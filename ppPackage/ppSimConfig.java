@@ -0,0 +1,138 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.Arrays;
+
+/**
+ * Physics constants of ppSimParams that can be changed at run time, so that
+ * headless simulations (see ppSweep) can explore them without recompiling.
+ * 
+ * A ppSimState holds the configuration it is simulated with, DEFAULT unless
+ * changed; the tick stepper, the event solver and the agent's predictions all
+ * read it from there. The GUI and the other constants of ppSimParams always
+ * use the compiled values.
+ * 
+ * Instances are immutable, and equal when all their parameters are.
+ */
+public final strictfp class ppSimConfig
+{
+	/**
+	 * The parameters that can be changed, named after their constant in
+	 * ppSimParams
+	 */
+	public enum Param
+	{
+		K, LOSS_MIN, LOSS_MAX, V0_MIN, V0_MAX, THETA_MIN, THETA_MAX, VX_MAX, VY_MAX, PADDLE_MASS
+	}
+
+	public static final ppSimConfig DEFAULT = new ppSimConfig(new double[] { K, LOSS_MIN, LOSS_MAX, V0_MIN, V0_MAX, THETA_MIN, THETA_MAX, VX_MAX, VY_MAX, PADDLE_MASS });
+
+	private final double[] values; // Indexed by Param ordinal
+
+	// Copies of the values (and values derived from them) read by the simulation
+	final double vt; // Terminal velocity (in m/s)
+	final double decayPerTick; // Factor by which exp(-G * t / vt) shrinks every tick
+	final double lossMin, lossMax;
+	final double v0Min, v0Max;
+	final double thetaMin, thetaMax;
+	final double vxMax, vyMax;
+	final double paddleMass;
+	final boolean compiled; // TRUE if every value is the one compiled in ppSimParams
+
+	/**
+	 * @param values The values of the parameters, indexed by Param ordinal
+	 */
+	private ppSimConfig(double[] values)
+	{
+		this.values = values;
+		vt = BALL_MASS * G / (4 * Math.PI * get(Param.K) * BALL_RAD * BALL_RAD);
+		decayPerTick = StrictMath.exp(-G * TICK / vt);
+		lossMin = get(Param.LOSS_MIN);
+		lossMax = get(Param.LOSS_MAX);
+		v0Min = get(Param.V0_MIN);
+		v0Max = get(Param.V0_MAX);
+		thetaMin = get(Param.THETA_MIN);
+		thetaMax = get(Param.THETA_MAX);
+		vxMax = get(Param.VX_MAX);
+		vyMax = get(Param.VY_MAX);
+		paddleMass = get(Param.PADDLE_MASS);
+		compiled = (DEFAULT == null || Arrays.equals(values, DEFAULT.values));
+
+		if (!(get(Param.K) > 0 && paddleMass > 0 && vxMax > 0 && vyMax > 0))
+			throw new IllegalArgumentException("K, PADDLE_MASS, VX_MAX and VY_MAX must be positive: " + this);
+		if (!(0 <= lossMin && lossMin <= lossMax && lossMax <= 1))
+			throw new IllegalArgumentException("Need 0 <= LOSS_MIN <= LOSS_MAX <= 1: " + this);
+		if (!(0 < v0Min && v0Min <= v0Max && thetaMin <= thetaMax))
+			throw new IllegalArgumentException("Need 0 < V0_MIN <= V0_MAX and THETA_MIN <= THETA_MAX: " + this);
+	}
+
+	/**
+	 * @param param A parameter
+	 * @return Its value
+	 */
+	public double get(Param param)
+	{
+		return values[param.ordinal()];
+	}
+
+	/**
+	 * @param param A parameter
+	 * @param value Its new value
+	 * @return A configuration equal to this one, except for that parameter
+	 * @throws IllegalArgumentException If the result is not a valid configuration
+	 */
+	public ppSimConfig with(Param param, double value)
+	{
+		return with(new Param[] { param }, new double[] { value });
+	}
+
+	/**
+	 * Changes several parameters at once. The result is only checked once all of
+	 * them are changed, so that, e.g., raising both V0_MIN and V0_MAX above the
+	 * current V0_MAX is valid in any order.
+	 * 
+	 * @param params Some parameters (the last value given for a parameter wins)
+	 * @param values Their new values
+	 * @return A configuration equal to this one, except for those parameters
+	 * @throws IllegalArgumentException If the result is not a valid configuration
+	 */
+	public ppSimConfig with(Param[] params, double[] values)
+	{
+		double[] changed = this.values.clone();
+		for (int p = 0; p < params.length; p++)
+			changed[params[p].ordinal()] = values[p];
+		return new ppSimConfig(changed);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		return (o instanceof ppSimConfig && Arrays.equals(values, ((ppSimConfig) o).values));
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(values);
+	}
+
+	/**
+	 * @return The parameters that differ from DEFAULT (e.g. "K=0.12 VX_MAX=10"),
+	 *         or "DEFAULT"
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (Param param : Param.values())
+		{
+			if (DEFAULT != null && get(param) == DEFAULT.get(param))
+				continue;
+			if (b.length() > 0)
+				b.append(' ');
+			b.append(param).append('=').append(get(param));
+		}
+		return (b.length() == 0 ? "DEFAULT" : b.toString());
+	}
+}
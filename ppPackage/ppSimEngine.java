@@ -0,0 +1,748 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import ppPackage.ppBall.EndState;
+
+/**
+ * GUI-free simulation core. All the physics of a rally (closed-form trajectory,
+ * floor bounces, collisions with the paddles, and the agent's decisions) lives
+ * here and operates on a ppSimState, so a rally can be played without an ACM
+ * display and without pausing between ticks.
+ * 
+ * ppBall, ppPaddle and ppPaddleAgent only copy their state in and out of a
+ * ppSimState and draw the result.
+ * 
+ * The same state and inputs give the same result bit for bit on any JVM: the
+ * floating-point code of the simulation is strictfp, and its exponentials and
+ * trigonometric functions come from StrictMath, whose results are fully
+ * specified, rather than from Math, whose intrinsics may differ in the last bit
+ * between JVMs and processors. ppStateHash checks it. (strictfp only matters on
+ * Java 8, the target: from Java 17 on, all code is strict, and javac warns that
+ * the modifier is redundant unless given -Xlint:-strictfp.)
+ * 
+ * Trajectory and collision formulas provided by Prof. Frank Ferrie
+ */
+public strictfp class ppSimEngine
+{
+	// Event flags returned by stepBall() and step(). More than one can be set in the same tick (e.g. a corner collision).
+	public static final int EVENT_NONE = 0;
+	public static final int EVENT_FLOOR = 1; // The ball bounced off the floor
+	public static final int EVENT_AGENT = 2; // The ball was hit by the agent
+	public static final int EVENT_PADDLE = 4; // The ball was hit by the player's paddle
+	public static final int EVENT_END = 8; // The rally ended (see ppSimState.getEndState())
+
+	/**
+	 * Puts a new ball in play.
+	 * 
+	 * @param s     The state to initialize
+	 * @param Xinit Initial x-position of the ball (in m)
+	 * @param Yinit Initial y-position of the ball (in m)
+	 * @param V0    Initial speed (in m/s)
+	 * @param theta Launch angle (in degrees)
+	 * @param loss  Collision energy loss factor (in the range [0, 1])
+	 */
+	public static void serve(ppSimState s, double Xinit, double Yinit, double V0, double theta, double loss)
+	{
+		s.x0 = Xinit;
+		s.y0 = Yinit;
+		s.v0x = V0 * StrictMath.cos(theta * Math.PI / 180);
+		s.v0y = V0 * StrictMath.sin(theta * Math.PI / 180);
+		s.t = 0;
+		s.loss = loss;
+		ppDecayKernel.start(s);
+		s.x = s.x0;
+		s.y = s.y0;
+		s.vx = s.v0x;
+		s.vy = s.v0y;
+		s.ballInPlay = true;
+		s.endState = null;
+		s.tick = 0;
+		s.time = 0;
+		s.volley++;
+		s.agentCounter = 0;
+		s.agentVy = 0;
+		s.agentTargetY = AGENT_YINIT;
+		s.paddleCounter = 0;
+		s.paddleTargetY = PADDLE_YINIT;
+		if (s.paddleAgent)
+			s.paddleVy = 0;
+	}
+
+	/**
+	 * Advances the whole rally by one TICK: the ball first, then the agent, then
+	 * the player's paddle if it is controlled like an agent.
+	 * 
+	 * Otherwise, the player's paddle is not moved; callers that control it should
+	 * call movePaddle() once per tick before calling this method.
+	 * 
+	 * @param s The state to advance
+	 * @return The events that occurred during the tick (EVENT_* flags)
+	 */
+	public static int step(ppSimState s)
+	{
+		int events = stepBall(s);
+		stepAgent(s);
+		if (s.paddleAgent)
+			stepPaddleAgent(s);
+		return events;
+	}
+
+	/**
+	 * Plays the rally until it ends, or until <code>maxTicks</code> ticks have
+	 * elapsed.
+	 * 
+	 * @param s        The state to advance (must already contain a served ball)
+	 * @param maxTicks The maximum number of ticks to simulate
+	 * @return The reason the rally ended, or null if it was still in progress after
+	 *         <code>maxTicks</code> ticks
+	 */
+	public static EndState playRally(ppSimState s, long maxTicks)
+	{
+		for (long i = 0; i < maxTicks && s.ballInPlay; i++)
+			step(s);
+
+		return s.endState;
+	}
+
+	/**
+	 * Computes the ball's position and velocity at the current time, resolves any
+	 * collision with the floor, the agent, the paddle, or the ceiling, and then
+	 * advances the clock by one TICK.
+	 * 
+	 * The positions of the paddle and the agent are read from the state, so
+	 * callers driving them from elsewhere must copy them in beforehand.
+	 * 
+	 * @param s The state to advance
+	 * @return The events that occurred during the tick (EVENT_* flags)
+	 */
+	public static int stepBall(ppSimState s)
+	{
+		if (!s.ballInPlay)
+			return EVENT_NONE;
+
+		int events = EVENT_NONE;
+		double KEx;
+		double KEy;
+
+		// Get current position and velocity (equivalent to xDisp, yDisp, xVel and yVel, without calling exp() every tick)
+		ppDecayKernel.evaluate(s);
+
+		// Collision with floor
+		if (s.vy < 0 && s.y - BALL_RAD <= 0)
+		{
+			KEx = 0.5 * BALL_MASS * s.vx * s.vx * (1 - s.loss);
+			KEy = 0.5 * BALL_MASS * s.vy * s.vy * (1 - s.loss);
+
+			// If the ball is hitting the floor (i.e. no potential energy) and has negligible kinetic energy, end round immediately
+			if (KEx + KEy < KE_MIN)
+				return end(s, s.vx < 0 ? EndState.NO_ENERGY_PLAYER : EndState.NO_ENERGY_AGENT, events | EVENT_FLOOR);
+
+			s.v0x = Math.sqrt(2 * KEx / BALL_MASS);
+			s.v0y = Math.sqrt(2 * KEy / BALL_MASS);
+
+			if (s.vx < 0)
+				s.v0x = -s.v0x;
+
+			s.x0 = s.x;
+			s.y0 = BALL_RAD;
+			s.y = s.y0;
+			s.vx = s.v0x; // Update vx and vy in case the ball also hits a wall in the same tick (i.e. corner collision)
+			s.vy = s.v0y;
+			s.t = 0;
+			ppDecayKernel.start(s);
+			events |= EVENT_FLOOR;
+		}
+		// Collision with agent or with left boundary
+		if (s.vx < 0 && s.x - BALL_RAD <= s.agentX + PADDLE_WIDTH / 2)
+		{
+			if (!contact(s.agentX, s.agentY, s.agentX - PADDLE_WIDTH / 2 + BALL_RAD, s.y, true))
+				return end(s, EndState.OUT_LEFT, events);
+
+			// The agent's y-velocity is scaled down to keep the ball's velocity within a reasonable range
+			s.v0x = collisionVox(s.vx, AGENT_VX, s.config);
+			s.v0y = collisionVoy(s.vy, s.agentVyFactor * s.agentVy, s.config);
+
+			s.x0 = X_LEFT_WALL + BALL_RAD;
+			s.x = s.x0;
+			s.y0 = s.y;
+			s.vx = s.v0x;
+			s.vy = s.v0y;
+			s.t = 0;
+			ppDecayKernel.start(s);
+			s.volley++;
+			events |= EVENT_AGENT;
+		}
+		// Collision with paddle or with right boundary
+		if (s.vx > 0 && s.x + BALL_RAD >= s.paddleX - PADDLE_WIDTH / 2)
+		{
+			if (!contact(s.paddleX, s.paddleY, s.paddleX + PADDLE_WIDTH / 2 - BALL_RAD, s.y, false))
+				return end(s, EndState.OUT_RIGHT, events);
+
+			// The player's paddle's y-velocity is reduced to keep the ball's velocity within a reasonable range
+			if (!Double.isNaN(s.paddleContactVy))
+				s.paddleVy = s.paddleContactVy;
+			s.v0x = collisionVox(s.vx, PADDLE_VX, s.config);
+			s.v0y = collisionVoy(s.vy, s.paddleVyFactor * s.paddleVy, s.config);
+
+			s.x0 = s.paddleX - PADDLE_WIDTH / 2 - BALL_RAD;
+			s.x = s.x0;
+			s.y0 = s.y;
+			s.vx = s.v0x;
+			s.vy = s.v0y;
+			s.t = 0;
+			ppDecayKernel.start(s);
+			s.volley++;
+			events |= EVENT_PADDLE;
+		}
+		// Collision with ceiling
+		if (s.vy > 0 && s.y + BALL_RAD >= YMAX)
+			return end(s, s.vx < 0 ? EndState.TOP_PLAYER : EndState.TOP_AGENT, events);
+
+		s.t += TICK;
+		ppDecayKernel.advance(s);
+		s.tick++;
+		s.time += TICK;
+
+		return events;
+	}
+
+	/**
+	 * Advances the agent by one TICK. At intervals of <code>agentDelay</code>
+	 * ticks, the agent updates its prediction of where it should be to intercept
+	 * the ball and chooses a velocity accordingly; in every tick, it moves based on
+	 * that velocity. The agent does not move while no ball is in play.
+	 * 
+	 * @param s The state to advance
+	 * @return The time until the ball reaches the agent, as predicted in this
+	 *         tick (-1 if it is not approaching), or NaN if the agent did not
+	 *         update its prediction in this tick
+	 */
+	public static double stepAgent(ppSimState s)
+	{
+		double timeToCollision = Double.NaN;
+
+		if (!s.ballInPlay)
+			return timeToCollision;
+
+		// Update the prediction
+		if (s.agentCounter % s.agentDelay == s.agentDelay - 1)
+			timeToCollision = decideAgent(s);
+
+		// Move the agent according to its current y velocity
+		s.agentY = clampPaddleY(s.agentY + TICK * s.agentVy);
+
+		// Increment the counter (mod agentDelay so that the velocity is updated at set intervals)
+		s.agentCounter = (s.agentCounter + 1) % s.agentDelay;
+		return timeToCollision;
+	}
+
+	/**
+	 * Advances the player's paddle by one TICK when it is controlled like the
+	 * agent (mirrored to the right side of the table), so that rallies can be
+	 * played without a human.
+	 * 
+	 * @param s The state to advance
+	 */
+	public static void stepPaddleAgent(ppSimState s)
+	{
+		if (!s.ballInPlay)
+			return;
+
+		if (s.paddleCounter % s.paddleDelay == s.paddleDelay - 1)
+			decidePaddleAgent(s);
+
+		s.paddleY = clampPaddleY(s.paddleY + TICK * s.paddleVy);
+		s.paddleCounter = (s.paddleCounter + 1) % s.paddleDelay;
+	}
+
+	/**
+	 * Updates the agent's target and velocity from the ball's current state. A
+	 * ball predicted to arrive later than the agent's horizon is treated as not
+	 * approaching yet.
+	 * 
+	 * @param s The state to update
+	 * @return The predicted time until the ball reaches the agent (in seconds), or
+	 *         -1 if it is not approaching (or not within the horizon)
+	 */
+	static double decideAgent(ppSimState s)
+	{
+		double timeToCollision = s.agentPredictor.predict(s, s.agentX);
+		s.agentTargetY = s.agentPredictor.getTargetY();
+		if (timeToCollision > s.agentHorizon)
+		{
+			timeToCollision = -1;
+			s.agentTargetY = AGENT_YINIT;
+		}
+		s.agentVy = agentVelocity(s.agentY, s.agentTargetY, timeToCollision, s.agentMaxSpeed);
+		return timeToCollision;
+	}
+
+	/**
+	 * Updates the target and velocity of the agent-controlled player's paddle
+	 * from the ball's current state.
+	 * 
+	 * @param s The state to update
+	 */
+	static void decidePaddleAgent(ppSimState s)
+	{
+		double timeToCollision = s.paddlePredictor.predict(s, s.paddleX);
+		s.paddleTargetY = s.paddlePredictor.getTargetY();
+		if (timeToCollision > s.paddleHorizon)
+		{
+			timeToCollision = -1;
+			s.paddleTargetY = PADDLE_YINIT;
+		}
+		s.paddleVy = agentVelocity(s.paddleY, s.paddleTargetY, timeToCollision, s.paddleMaxSpeed);
+	}
+
+	/**
+	 * Moves the player's paddle to the specified y-position (clamped to the table)
+	 * and sets its velocity from the displacement over one TICK.
+	 * 
+	 * @param s    The state to update
+	 * @param newY The y-position the center of the paddle should be moved to
+	 */
+	public static void movePaddle(ppSimState s, double newY)
+	{
+		double lastY = s.paddleY;
+		s.paddleY = clampPaddleY(newY);
+		s.paddleVy = (s.paddleY - lastY) / TICK;
+	}
+
+	/**
+	 * Moves the agent's paddle to the specified y-position, like movePaddle(),
+	 * when it is controlled by a second player instead of by stepAgent() (see
+	 * ppNetHost).
+	 * 
+	 * @param s    The state to update
+	 * @param newY The y-position the center of the agent's paddle should be moved
+	 *             to
+	 */
+	public static void moveAgent(ppSimState s, double newY)
+	{
+		double lastY = s.agentY;
+		s.agentY = clampPaddleY(newY);
+		s.agentVy = (s.agentY - lastY) / TICK;
+	}
+
+	/**
+	 * Sets the agent's reaction time.
+	 * 
+	 * @param s      The state to update
+	 * @param millis The new reaction time (in milliseconds)
+	 */
+	public static void setReactTime(ppSimState s, int millis)
+	{
+		s.agentDelay = Math.max(1, (int) Math.round(millis / (1000 * TICK)));
+		s.agentCounter %= s.agentDelay;
+	}
+
+	/**
+	 * Makes the player's paddle play like the agent, with the given reaction time.
+	 * 
+	 * @param s      The state to update
+	 * @param millis The paddle's reaction time (in milliseconds)
+	 */
+	public static void setPaddleAgent(ppSimState s, int millis)
+	{
+		s.paddleAgent = true;
+		s.paddleDelay = Math.max(1, (int) Math.round(millis / (1000 * TICK)));
+		s.paddleCounter %= s.paddleDelay;
+	}
+
+	/**
+	 * Ends the rally.
+	 * 
+	 * @param s      The state to update
+	 * @param state  The reason the rally ended
+	 * @param events The events that already occurred during the current tick
+	 * @return <code>events</code> with the EVENT_END flag added
+	 */
+	private static int end(ppSimState s, EndState state, int events)
+	{
+		s.ballInPlay = false;
+		s.endState = state;
+		s.agentVy = 0;
+		if (s.paddleAgent)
+			s.paddleVy = 0;
+		return events | EVENT_END;
+	}
+
+	/**
+	 * Restricts a paddle's y-position so that it does not go through the floor or
+	 * the ceiling.
+	 * 
+	 * @param y The requested y-position of the center of the paddle (in m)
+	 * @return The closest allowed y-position (in m)
+	 */
+	static double clampPaddleY(double y)
+	{
+		if (y <= PADDLE_HEIGHT / 2)
+			return PADDLE_HEIGHT / 2;
+		else if (y >= YMAX - PADDLE_HEIGHT / 2)
+			return YMAX - PADDLE_HEIGHT / 2;
+		else
+			return y;
+	}
+
+	/**
+	 * Determines whether a ball at point (Sx, Sy) is "in contact" with a paddle
+	 * centered at (paddleX, paddleY).
+	 * 
+	 * If the center of the ball is vertically between the top and bottom of the
+	 * paddle, it is considered "in contact" on the assumption that the x-coordinate
+	 * is such that the ball is at or past the paddle.
+	 * 
+	 * Otherwise, the distance from the ball's center to the nearest corner of the
+	 * paddle is calculated. The ball is in contact with the paddle if and only if
+	 * that distance is less than or equal to its radius.
+	 * 
+	 * @param paddleX       The x-coordinate of the center of the paddle (in meters)
+	 * @param paddleY       The y-coordinate of the center of the paddle (in meters)
+	 * @param Sx            The x-coordinate of the ball's center (in meters)
+	 * @param Sy            The y-coordinate of the ball's center (in meters)
+	 * @param ballFromRight TRUE if the ball is approaching the paddle from the
+	 *                      right and FALSE otherwise
+	 * @return TRUE if the ball at (Sx, Sy) is "in contact" with the paddle
+	 */
+	static boolean contact(double paddleX, double paddleY, double Sx, double Sy, boolean ballFromRight)
+	{
+		double paddleTop = paddleY + PADDLE_HEIGHT / 2;
+		double paddleBot = paddleY - PADDLE_HEIGHT / 2;
+		double paddleFront = (ballFromRight ? paddleX + PADDLE_WIDTH / 2 : paddleX - PADDLE_WIDTH / 2);
+
+		if (Sy >= paddleBot && Sy <= paddleTop)
+			return true;
+		else if (Sy < paddleBot)
+			return dist(Sx, Sy, paddleFront, paddleBot) <= BALL_RAD;
+		else
+			return dist(Sx, Sy, paddleFront, paddleTop) <= BALL_RAD;
+	}
+
+	/**
+	 * Calculates the distance between two points
+	 * 
+	 * @param x0 The x-coordinate of the first point (in meters)
+	 * @param y0 The y-coordinate of the first point (in meters)
+	 * @param x1 The x-coordinate of the second point (in meters)
+	 * @param y1 The y-coordinate of the second point (in meters)
+	 * @return The distance between (x0, y0) and (x1, y1) (in meters)
+	 */
+	private static double dist(double x0, double y0, double x1, double y1)
+	{
+		return Math.sqrt((x1 - x0) * (x1 - x0) + (y1 - y0) * (y1 - y0));
+	}
+
+	/**
+	 * Predicts the time until the ball will reach the agent.
+	 * 
+	 * The estimate is made based on the ball's current x-position and velocity,
+	 * assuming constant speed
+	 * 
+	 * @param ballX  The x-coordinate of the ball (in meters)
+	 * @param ballVx The x-component of the ball's velocity (in m/s)
+	 * @return The time until the ball will reach the agent (in seconds) or -1 if
+	 *         the ball is not approaching the agent
+	 */
+	static double predictTime(double ballX, double ballVx)
+	{
+		if (ballVx >= 0)
+			return -1;
+		else
+			return (ballX - AGENT_XINIT - PADDLE_WIDTH / 2) / -ballVx;
+	}
+
+	/**
+	 * Predicts the time until the ball will reach a paddle on the right side of the
+	 * table, in the same way as predictTime() does for the agent.
+	 * 
+	 * @param ballX   The x-coordinate of the ball (in meters)
+	 * @param ballVx  The x-component of the ball's velocity (in m/s)
+	 * @param paddleX The x-coordinate of the center of the paddle (in meters)
+	 * @return The time until the ball will reach the paddle (in seconds) or -1 if
+	 *         the ball is not approaching the paddle
+	 */
+	static double predictTimeRight(double ballX, double ballVx, double paddleX)
+	{
+		if (ballVx <= 0)
+			return -1;
+		else
+			return (paddleX - PADDLE_WIDTH / 2 - ballX) / ballVx;
+	}
+
+	/**
+	 * Determines where the agent should go to intercept the ball.
+	 * 
+	 * An estimate of the ball's y-position when it reaches the agent is obtained
+	 * based on the ball's current y-position and velocity, assuming constant speed.
+	 * If the ball is not approaching the agent, the agent returns to the center of
+	 * the table. If the predicted position is below the floor or above the ceiling,
+	 * the agent aims for the exact bottom or top of the table, respectively.
+	 * 
+	 * @param ballY           The y-coordinate of the ball (in meters)
+	 * @param ballVy          The y-component of the ball's velocity (in m/s)
+	 * @param timeToCollision The time (in seconds) until the ball reaches the agent
+	 *                        or -1 if the ball is not approaching the agent
+	 * @return The y-position (in meters) the agent should try to reach
+	 */
+	static double predictY(double ballY, double ballVy, double timeToCollision)
+	{
+		if (timeToCollision == -1)
+			return AGENT_YINIT;
+		else
+			return clampPaddleY(ballY + timeToCollision * ballVy);
+	}
+
+	/**
+	 * Determines the velocity the agent needs to reach its target in time (up to
+	 * the max speed specified in ppSimParams). If the ball is not approaching, the
+	 * agent drifts back towards the center of the table.
+	 * 
+	 * @param currentY        The current y-position of the agent (in meters)
+	 * @param targetY         The y-position the agent is aiming for (in meters)
+	 * @param timeToCollision The time (in seconds) until the ball reaches the agent
+	 *                        or -1 if the ball is not approaching the agent
+	 * @return The agent's new y-velocity (in m/s)
+	 */
+	static double agentVelocity(double currentY, double targetY, double timeToCollision)
+	{
+		return agentVelocity(currentY, targetY, timeToCollision, AGENT_MAX_SPEED);
+	}
+
+	/**
+	 * Same as agentVelocity() above, for an agent with a different max speed.
+	 * 
+	 * @param currentY        The current y-position of the agent (in meters)
+	 * @param targetY         The y-position the agent is aiming for (in meters)
+	 * @param timeToCollision The time (in seconds) until the ball reaches the agent
+	 *                        or -1 if the ball is not approaching the agent
+	 * @param maxSpeed        The agent's max speed (in m/s)
+	 * @return The agent's new y-velocity (in m/s)
+	 */
+	static double agentVelocity(double currentY, double targetY, double timeToCollision, double maxSpeed)
+	{
+		if (timeToCollision == -1)
+			return maxSpeed * (AGENT_YINIT - currentY);
+
+		int sgnVy = (targetY >= currentY ? 1 : -1);
+		return sgnVy * Math.min(maxSpeed, Math.abs((targetY - currentY) / timeToCollision));
+	}
+
+	/**
+	 * Calculates the ball's displacement in the x-direction at a given time
+	 * 
+	 * Formula provided by Prof. Ferrie
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0x Initial x-velocity (in m/s)
+	 * @return The ball's displacement in the x-direction after <code>t</code>
+	 *         seconds
+	 */
+	static double xDisp(double t, double v0x)
+	{
+		return xDisp(t, v0x, VT);
+	}
+
+	/**
+	 * Same as xDisp() above, for a ball with a different terminal velocity.
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0x Initial x-velocity (in m/s)
+	 * @param vt  Terminal velocity (in m/s)
+	 * @return The ball's displacement in the x-direction after <code>t</code> seconds
+	 */
+	static double xDisp(double t, double v0x, double vt)
+	{
+		return vt * v0x / G * (1 - StrictMath.exp(-G * t / vt));
+	}
+
+	/**
+	 * Calculates the ball's displacement in the y-direction at a given time
+	 * 
+	 * Formula provided by Prof. Ferrie
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0y Initial y-velocity (in m/s)
+	 * @return The ball's displacement in the y-direction after <code>t</code>
+	 *         seconds
+	 */
+	static double yDisp(double t, double v0y)
+	{
+		return yDisp(t, v0y, VT);
+	}
+
+	/**
+	 * Same as yDisp() above, for a ball with a different terminal velocity.
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0y Initial y-velocity (in m/s)
+	 * @param vt  Terminal velocity (in m/s)
+	 * @return The ball's displacement in the y-direction after <code>t</code> seconds
+	 */
+	static double yDisp(double t, double v0y, double vt)
+	{
+		return vt / G * (vt + v0y) * (1 - StrictMath.exp(-G * t / vt)) - vt * t;
+	}
+
+	/**
+	 * Calculates the x-component of the ball's velocity at a given time
+	 * 
+	 * Formula provided by Prof. Ferrie
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0x Initial x-velocity (in m/s)
+	 * @return The x-component of the ball's velocity after <code>t</code> seconds
+	 */
+	static double xVel(double t, double v0x)
+	{
+		return xVel(t, v0x, VT);
+	}
+
+	/**
+	 * Same as xVel() above, for a ball with a different terminal velocity.
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0x Initial x-velocity (in m/s)
+	 * @param vt  Terminal velocity (in m/s)
+	 * @return The ball's x-velocity after <code>t</code> seconds
+	 */
+	static double xVel(double t, double v0x, double vt)
+	{
+		return v0x * StrictMath.exp(-G * t / vt);
+	}
+
+	/**
+	 * Calculates the y-component of the ball's velocity at a given time
+	 * 
+	 * Formula provided by Prof. Ferrie
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0y Initial y-velocity
+	 * @return The y-component of the ball's velocity after <code>t</code> seconds
+	 */
+	static double yVel(double t, double v0y)
+	{
+		return yVel(t, v0y, VT);
+	}
+
+	/**
+	 * Same as yVel() above, for a ball with a different terminal velocity.
+	 * 
+	 * @param t   Time (in sec)
+	 * @param v0y Initial y-velocity (in m/s)
+	 * @param vt  Terminal velocity (in m/s)
+	 * @return The ball's y-velocity after <code>t</code> seconds
+	 */
+	static double yVel(double t, double v0y, double vt)
+	{
+		return StrictMath.exp(-G * t / vt) * (v0y + vt) - vt;
+	}
+
+	/**
+	 * Calculates the x-component of the ball's velocity after striking the player's
+	 * paddle or the agent. If the speed exceeds the maximum horizontal speed
+	 * specified in ppSimParams, that max speed is returned instead (with the
+	 * appropriate sign).
+	 * 
+	 * The collision is modeled as perfectly elastic, with only the kinetic energy
+	 * from the ball's horizontal velocity being considered. For the purposes of
+	 * this calculation, the paddle and the agent are both considered to have some
+	 * non-zero x-velocity.
+	 * 
+	 * @param ballVx   The x-component of the ball's velocity (in m/s)
+	 * @param paddleVx The x-component of the paddle's velocity (in m/s)
+	 * @return The ball's x-velocity (in m/s) immediately after striking the paddle
+	 */
+	static double collisionVox(double ballVx, double paddleVx)
+	{
+		return collisionVox(ballVx, paddleVx, ppSimConfig.DEFAULT);
+	}
+
+	/**
+	 * Same as collisionVox() above, with the paddle mass and the max speed of a
+	 * run-time configuration.
+	 * 
+	 * @param ballVx   The x-component of the ball's velocity (in m/s)
+	 * @param paddleVx The x-component of the paddle's velocity (in m/s)
+	 * @param config   The configuration
+	 * @return The ball's x-velocity (in m/s) immediately after striking the paddle
+	 */
+	static double collisionVox(double ballVx, double paddleVx, ppSimConfig config)
+	{
+		double v0x;
+		double sgn;
+
+		double m = BALL_MASS / config.paddleMass;
+		double a = m * (1 + m);
+		double b = -2 * m * (m * ballVx + paddleVx);
+		double c = (m * ballVx + paddleVx) * (m * ballVx + paddleVx)
+				- (m * ballVx * ballVx + paddleVx * paddleVx);
+
+		// If the paddle is "moving" to the right, take the larger (more positive) root
+		if (paddleVx > 0)
+			sgn = 1;
+		// If the paddle is "moving" to the left, take the smaller (more negative) root
+		else
+			sgn = -1;
+
+		v0x = (-b + sgn * Math.sqrt(b * b - 4 * a * c)) / (2 * a);
+
+		if (Math.abs(v0x) > config.vxMax)
+			return sgn * config.vxMax;
+		else
+			return v0x;
+	}
+
+	/**
+	 * Calculates the y-component of the ball's velocity after striking the player's
+	 * paddle or the agent. If the speed exceeds the maximum vertical speed
+	 * specified in ppSimParams, that max speed is returned instead (with the
+	 * appropriate sign).
+	 * 
+	 * The collision is modeled as perfectly elastic, with only the kinetic energy
+	 * from the ball's vertical velocity being considered.
+	 * 
+	 * @param ballVy   The y-component of the ball's velocity (in m/s)
+	 * @param paddleVy The y-component of the paddle's velocity (in m/s)
+	 * @return The ball's y-velocity (in m/s) immediately after striking the paddle
+	 */
+	static double collisionVoy(double ballVy, double paddleVy)
+	{
+		return collisionVoy(ballVy, paddleVy, ppSimConfig.DEFAULT);
+	}
+
+	/**
+	 * Same as collisionVoy() above, with the paddle mass and the max speed of a
+	 * run-time configuration.
+	 * 
+	 * @param ballVy   The y-component of the ball's velocity (in m/s)
+	 * @param paddleVy The y-component of the paddle's velocity (in m/s)
+	 * @param config   The configuration
+	 * @return The ball's y-velocity (in m/s) immediately after striking the paddle
+	 */
+	static double collisionVoy(double ballVy, double paddleVy, ppSimConfig config)
+	{
+		double v0y;
+		double sgn;
+
+		double m = BALL_MASS / config.paddleMass;
+		double a = m * (1 + m);
+		double b = -2 * m * (m * ballVy + paddleVy);
+		double c = (m * ballVy + paddleVy) * (m * ballVy + paddleVy)
+				- (m * ballVy * ballVy + paddleVy * paddleVy);
+
+		// If the paddle is moving up or the paddle is stationary and the ball is moving up, take the positive root
+		if (paddleVy > 0 || (paddleVy == 0 && ballVy > 0))
+			sgn = 1;
+		// If the paddle is moving down or the paddle is stationary and the ball is moving down, take the negative root
+		else
+			sgn = -1;
+
+		v0y = (-b + sgn * Math.sqrt(b * b - 4 * a * c)) / (2 * a);
+
+		if (Math.abs(v0y) > config.vyMax)
+			return sgn * config.vyMax;
+		else
+			return v0y;
+	}
+}
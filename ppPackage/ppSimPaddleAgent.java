@@ -7,11 +7,15 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
 import javax.swing.BorderFactory;
 import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JSlider;
 import javax.swing.JTextField;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
 
 /**
  * The main class for the program. Serves as the entry pointsetting up the user
@@ -25,6 +29,11 @@ public class ppSimPaddleAgent extends GraphicsProgram
 	private ppPaddleAgent agent;
 	private ppTable table;
 	private ppBall ball;
+	private ppGameLoop loop;
+	private ppRenderPanel renderer; // Draws the table when ACTIVE_RENDER is set
+	private ppStatsOverlay statsOverlay; // Shows the tick latencies when SHOW_TICK_STATS is set
+	private final ppMouseInput mouse = new ppMouseInput();
+	private final ppVelocityEstimator paddleVelocity = new ppVelocityEstimator(PADDLE_VELOCITY_FILTER);
 	private RandomGenerator rgen = RandomGenerator.getInstance();
 	private boolean traceOn;
 	private int agentScore;
@@ -32,6 +41,7 @@ public class ppSimPaddleAgent extends GraphicsProgram
 	private int playerScore;
 	private JLabel playerScoreBoard;
 	private JSlider timeFactor;
+	private volatile int timeFactorValue; // Value of the time factor slider, for the game loop and the renderer
 	private JSlider agentReactTime;
 
 	/**
@@ -69,6 +79,14 @@ public class ppSimPaddleAgent extends GraphicsProgram
 		// Slider to control game speed (i.e. conversion of real time to in-game time)
 		add(new JLabel("fast game"), SOUTH);
 		timeFactor = new JSlider(1500, 5000, 5000);
+		timeFactorValue = timeFactor.getValue();
+		timeFactor.addChangeListener(new ChangeListener()
+		{
+			public void stateChanged(ChangeEvent e)
+			{
+				timeFactorValue = timeFactor.getValue();
+			}
+		});
 		add(timeFactor, SOUTH);
 		add(new JLabel("slow game"), SOUTH);
 		// Space
@@ -105,12 +123,50 @@ public class ppSimPaddleAgent extends GraphicsProgram
 		addMouseListeners();
 		addActionListeners();
 
-		// Create table, paddle, and agent
+		// Create table, paddle, agent, and the loop that drives them
 		table = new ppTable(this);
 		paddle = new ppPaddle(PADDLE_XINIT, PADDLE_YINIT, PADDLE_COLOR, table);
-		paddle.start();
+		if (!DETERMINISTIC)
+			paddle.setVelocityEstimator(paddleVelocity); // Measured in real time, so it depends on the time factor and on when the mouse events arrive
 		agent = new ppPaddleAgent(AGENT_XINIT, AGENT_YINIT, AGENT_COLOR, table);
-		agent.start();
+		loop = new ppGameLoop(table, paddle, agent, mouse);
+		loop.getStats().register();
+		if (SHOW_TICK_STATS)
+		{
+			statsOverlay = new ppStatsOverlay(loop.getStats());
+			statsOverlay.setLocation(4, 20);
+		}
+		if (ACTIVE_RENDER)
+		{
+			// The canvas no longer repaints when the game objects move: the renderer draws over it
+			renderer = new ppRenderPanel(table, paddle, agent);
+			renderer.setOverlay(statsOverlay);
+			getGCanvas().add(renderer, 0, 0); // Stays on the canvas across rounds (see ppTable.newScreen())
+			getGCanvas().setAutoRepaintFlag(false);
+			renderer.start();
+		}
+		if (RECORD)
+		{
+			try
+			{
+				loop.setRecorder(new ppReplayRecorder(Paths.get(REPLAY_FILE)));
+
+				// Write the end of the recording however the program exits
+				Runtime.getRuntime().addShutdownHook(new Thread()
+				{
+					public void run()
+					{
+						loop.stopRecording();
+					}
+				});
+			}
+			catch (IOException e)
+			{
+				System.out.println("Could not create the replay file: " + e.getMessage());
+			}
+		}
+		ppInterceptTable.loadForDefaultAgent(); // Before the first decision of the agent
+		loop.start();
 
 		startRound();
 	}
@@ -147,6 +203,10 @@ public class ppSimPaddleAgent extends GraphicsProgram
 		ball = null; // Prevent "toggle trace" from showing previous trace
 		add(agent.getImage());
 		add(paddle.getImage());
+		if (statsOverlay != null)
+			add(statsOverlay);
+		if (renderer != null)
+			renderer.setBall(null);
 		paddle.unfreeze();
 	}
 
@@ -160,10 +220,11 @@ public class ppSimPaddleAgent extends GraphicsProgram
 		resetScreen();
 
 		ball = newBall();
-		agent.attachBall(ball);
-		agent.setReactTime(getAgentReactTime());
+		agent.setReactTime(getAgentReactTime()); // Applied by the game loop, which attaches the agent to the ball when it is served
+		if (renderer != null)
+			renderer.setBall(ball);
 
-		ball.start();
+		loop.serve(ball);
 	}
 
 	/**
@@ -205,13 +266,14 @@ public class ppSimPaddleAgent extends GraphicsProgram
 
 	/**
 	 * Provides access to the conversion factor from game time to real time, as
-	 * specified by the user through the onscreen slider.
+	 * specified by the user through the onscreen slider. May be called from any
+	 * thread: the value is copied from the slider by the event dispatch thread.
 	 * 
 	 * @return The conversion factor from TICK to milliseconds
 	 */
 	public int getTimeFactor()
 	{
-		return timeFactor.getValue();
+		return timeFactorValue;
 	}
 
 	/**
@@ -227,14 +289,18 @@ public class ppSimPaddleAgent extends GraphicsProgram
 
 	/**
 	 * When the user moves the mouse, the paddle is moved to the same location
-	 * (unless it is frozen)
+	 * (unless it is frozen). The position is only posted here; the game loop
+	 * moves the paddle at its next tick (see ppMouseInput). The position is also a
+	 * sample for the estimate of the paddle's velocity.
 	 * 
 	 * Provided primarily by Prof. Frank Ferrie
 	 */
 	public void mouseMoved(MouseEvent e)
 	{
-		if (!paddle.isFrozen())
-			paddle.setY(ppTable.scrToY((double) e.getY()));
+		double y = ppTable.scrToY((double) e.getY());
+
+		mouse.post(y);
+		paddleVelocity.addSample(System.nanoTime(), ppSimEngine.clampPaddleY(y));
 	}
 
 	/**
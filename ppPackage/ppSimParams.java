@@ -14,6 +14,17 @@ public class ppSimParams
 	static final boolean TEST = false; // When TRUE, the time, position, and velocity are printed at each time step
 	static final boolean DEBUG = false; // Enable debug messages and single step if true (?? only single step is actually implemented, and is never even used)
 	static final boolean SHOW_TRACE = false; // Whether or not to add a dotted line to mark the ball's trajectory
+	static final boolean RECORD = false; // When TRUE, every tick of the match is recorded to REPLAY_FILE
+	static final String REPLAY_FILE = "match.ppr"; // File the match is recorded to (see ppReplayRecorder)
+	static final String TOURNAMENT_FILE = "tournament.txt"; // File the standings of ppTournament are written to
+	static final String SWEEP_FILE = "sweep.csv"; // File the results table of ppSweep is written to
+	static final boolean ACTIVE_RENDER = false; // When TRUE, the table is drawn by ppRenderPanel instead of by the ACM canvas
+	static final double RENDER_HZ = 144; // Frame rate of ppRenderPanel
+	static final double RENDER_BUDGET_MS = 4; // Work per frame above which ppRenderPanel skips the next frame (in ms)
+	static final boolean RENDER_INTERPOLATE = true; // If TRUE, ppRenderPanel draws the ball between the two last ticks instead of at the last one
+	static final boolean SHOW_TICK_STATS = false; // When TRUE, the latency percentiles of the game loop are shown over the table (see ppTickStats)
+	static final boolean JFR_EVENTS = false; // When TRUE, game events are emitted to the Java Flight Recorder, if the JVM has one and ppJfrEvents was compiled (see ppFlightEvents)
+	static final boolean DETERMINISTIC = false; // When TRUE, the GUI takes the player's paddle velocity per tick instead of from the mouse timestamps, and prints the state hash of every rally (see ppStateHash)
 
 	// Physical constants
 	static final double G = 9.8; // Gravitational acceleration (in m/s)
@@ -30,7 +41,14 @@ public class ppSimParams
 	static final double AGENT_VX = 1.2;
 	static final double PADDLE_VX = -1.2;
 	static final double AGENT_VY_FACTOR = 0.4;
+	static final ppInterceptPredictor.Strategy AGENT_STRATEGY = ppInterceptPredictor.Strategy.PHYSICS; // How the agent predicts where to intercept the ball
+	static final String INTERCEPT_TABLE = "intercept.ppt"; // File the intercept table of the TABLE strategy is saved to by ppInterceptTable.main(), and loaded from at startup
+	static final boolean INTERCEPT_INTERPOLATE = true; // If TRUE, the intercept table is interpolated, else the nearest cell is used
 	static final double PLAYER_VY_FACTOR = 0.8;
+	static final ppVelocityEstimator.Filter PADDLE_VELOCITY_FILTER = ppVelocityEstimator.Filter.REGRESSION; // How the player's paddle velocity is estimated from the mouse
+	static final double VELOCITY_WINDOW_MS = 50; // Samples used by the REGRESSION filter (in ms of real time)
+	static final double VELOCITY_EMA_MS = 20; // Time constant of the EMA filter (in ms of real time)
+	static final double VELOCITY_STALE_MS = 40; // The paddle is considered still when the mouse has not moved for this long (in ms of real time)
 	static final double VX_MAX = 9;
 	static final double VY_MAX = 7;
 
@@ -48,6 +66,8 @@ public class ppSimParams
 	static final double X_LEFT_WALL = 0.1; // Distance from the left side of the applet to the left wall (in m)
 	static final double WALL_THICKNESS_PX = 2; // Thickness of the walls and floor (in pixel units)
 	static final double PD = 1; // Diameter of trace points (in pixel units)
+	static final int TRACE_CAPACITY = 4096; // Maximum number of points kept in the trace
+	static final double TRACE_TOLERANCE = 0.5; // Maximum distance by which simplifying the trace may move it (in pixel units)
 	static final double PADDLE_XINIT = XMAX - PADDLE_WIDTH / 2; // The initial x-position of the paddle's center (in m)
 	static final double PADDLE_YINIT = YMAX / 2; // The initial y-position of the paddle's center (in m)
 	static final double AGENT_XINIT = X_LEFT_WALL + PADDLE_WIDTH / 2;
@@ -63,4 +83,12 @@ public class ppSimParams
 	static final double THETA_MAX = 20; // Maximum for randomly-generated launch angle
 	static final double YINIT_MIN = 0.25 * YMAX; // Minimum for randomly-generated initial y-position
 	static final double YINIT_MAX = 0.75 * YMAX; // Maximum for randomly-generated initial x-position
+
+	// Network play (see ppNetHost and ppNetClient)
+	static final int NET_PORT = 5050; // UDP port the host listens on
+	static final int NET_HISTORY = 64; // Snapshots and inputs kept by each side, for delta baselines and replays (in ticks, power of 2)
+	static final int NET_INPUT_REDUNDANCY = 32; // Most unacknowledged inputs repeated in each input packet, so a lost packet costs nothing
+	static final int NET_MAX_BACKLOG = 4; // Inputs the host lets queue up before it skips to the latest one (in ticks)
+	static final int NET_SERVE_TICKS = 150; // Ticks between the end of a rally and the next serve
+	static final double NET_TIMEOUT = 5; // The connection is considered lost after this long without a packet (in sec)
 }
@@ -0,0 +1,213 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import ppPackage.ppBall.EndState;
+
+/**
+ * Plain container for the complete state of one rally: the ball's current
+ * closed-form trajectory segment, the player's paddle, and the agent.
+ * 
+ * The state is mutated in place by ppSimEngine so that a rally can be stepped
+ * without any allocation and without a display. The fields are package-private
+ * on purpose: the engine and the thin renderers (ppBall, ppPaddle,
+ * ppPaddleAgent) are the only intended users.
+ */
+public class ppSimState
+{
+	// Ball trajectory segment (restarted at every collision)
+	double x0; // x-position of the ball at the start of the segment (in m)
+	double y0; // y-position of the ball at the start of the segment (in m)
+	double v0x; // x-velocity of the ball at the start of the segment (in m/s)
+	double v0y; // y-velocity of the ball at the start of the segment (in m/s)
+	double t; // Time since the start of the segment (in sec)
+	double loss; // Collision energy loss factor of the ball
+	ppSimConfig config; // Physics constants the rally is simulated with
+	double decay; // exp(-G * t / VT), maintained incrementally by ppDecayKernel
+	int decayTicks; // Ticks since the decay factor was last computed exactly
+
+	// Ball position and velocity at the most recent tick
+	double x, y, vx, vy;
+	boolean ballInPlay;
+	EndState endState;
+	long tick; // Number of ticks simulated since the serve
+	double time; // Time since the serve (in sec)
+	long volley; // Number of times the ball was served or hit by a paddle (predictions stay valid until it changes)
+
+	// Player's paddle
+	double paddleX, paddleY, paddleVy;
+	boolean paddleAgent; // If TRUE, the player's paddle is controlled like the agent (used as a reference opponent)
+	int paddleDelay; // Same as agentDelay, when paddleAgent is TRUE
+	int paddleCounter; // Same as agentCounter, when paddleAgent is TRUE
+	double paddleTargetY; // Same as agentTargetY, when paddleAgent is TRUE
+	double paddleMaxSpeed; // Same as agentMaxSpeed, when paddleAgent is TRUE
+	double paddleVyFactor; // Fraction of the paddle's y-velocity passed on to the ball on contact
+	double paddleHorizon; // Same as agentHorizon, when paddleAgent is TRUE
+	double paddleContactVy; // If not NaN, the y-velocity passed on to the ball at a contact instead of paddleVy (set every tick by ppBall, see ppPaddle.getContactVy())
+	final ppInterceptPredictor paddlePredictor = new ppInterceptPredictor(false, AGENT_STRATEGY); // Used when paddleAgent is TRUE
+
+	// Agent
+	double agentX, agentY, agentVy;
+	int agentDelay; // Number of ticks between two updates of the agent's prediction
+	int agentCounter; // Ticks since the last update of the agent's prediction (mod agentDelay)
+	double agentTargetY; // y-position the agent is currently aiming for (in m)
+	double agentMaxSpeed; // Highest y-velocity the agent moves at (in m/s)
+	double agentVyFactor; // Fraction of the agent's y-velocity passed on to the ball on contact
+	double agentHorizon; // The agent ignores a ball predicted to reach it later than this (in sec)
+	final ppInterceptPredictor agentPredictor = new ppInterceptPredictor(true, AGENT_STRATEGY);
+
+	/**
+	 * Creates a state with both paddles at their initial positions, an agent that
+	 * reacts instantly, and no ball in play.
+	 */
+	public ppSimState()
+	{
+		config = ppSimConfig.DEFAULT;
+		paddleX = PADDLE_XINIT;
+		paddleY = PADDLE_YINIT;
+		agentX = AGENT_XINIT;
+		agentY = AGENT_YINIT;
+		agentDelay = 1;
+		agentTargetY = AGENT_YINIT;
+		paddleDelay = 1;
+		paddleTargetY = PADDLE_YINIT;
+		paddleMaxSpeed = AGENT_MAX_SPEED;
+		paddleVyFactor = PLAYER_VY_FACTOR;
+		paddleHorizon = Double.POSITIVE_INFINITY;
+		paddleContactVy = Double.NaN;
+		agentMaxSpeed = AGENT_MAX_SPEED;
+		agentVyFactor = AGENT_VY_FACTOR;
+		agentHorizon = Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Copies every field of another state into this one.
+	 * 
+	 * @param other The state to copy
+	 */
+	public void copyFrom(ppSimState other)
+	{
+		x0 = other.x0;
+		y0 = other.y0;
+		v0x = other.v0x;
+		v0y = other.v0y;
+		t = other.t;
+		loss = other.loss;
+		config = other.config;
+		decay = other.decay;
+		decayTicks = other.decayTicks;
+		x = other.x;
+		y = other.y;
+		vx = other.vx;
+		vy = other.vy;
+		ballInPlay = other.ballInPlay;
+		endState = other.endState;
+		tick = other.tick;
+		time = other.time;
+		volley = other.volley;
+		paddleX = other.paddleX;
+		paddleY = other.paddleY;
+		paddleVy = other.paddleVy;
+		paddleAgent = other.paddleAgent;
+		paddleDelay = other.paddleDelay;
+		paddleCounter = other.paddleCounter;
+		paddleTargetY = other.paddleTargetY;
+		paddleMaxSpeed = other.paddleMaxSpeed;
+		paddleVyFactor = other.paddleVyFactor;
+		paddleHorizon = other.paddleHorizon;
+		paddleContactVy = other.paddleContactVy;
+		paddlePredictor.copyFrom(other.paddlePredictor);
+		agentX = other.agentX;
+		agentY = other.agentY;
+		agentVy = other.agentVy;
+		agentDelay = other.agentDelay;
+		agentCounter = other.agentCounter;
+		agentTargetY = other.agentTargetY;
+		agentMaxSpeed = other.agentMaxSpeed;
+		agentVyFactor = other.agentVyFactor;
+		agentHorizon = other.agentHorizon;
+		agentPredictor.copyFrom(other.agentPredictor);
+	}
+
+	/**
+	 * @return TRUE if the ball is still in play and FALSE otherwise
+	 */
+	public boolean ballInPlay()
+	{
+		return ballInPlay;
+	}
+
+	/**
+	 * @return The physics constants the rally is simulated with
+	 */
+	public ppSimConfig getConfig()
+	{
+		return config;
+	}
+
+	/**
+	 * Changes the physics constants. Takes effect at the next serve (a rally in
+	 * progress would mix the decay factors of both).
+	 * 
+	 * @param config The new constants
+	 */
+	public void setConfig(ppSimConfig config)
+	{
+		this.config = config;
+	}
+
+	/**
+	 * @return The reason the rally ended, or null if it is still in progress
+	 */
+	public EndState getEndState()
+	{
+		return endState;
+	}
+
+	/**
+	 * @return The number of ticks simulated since the serve
+	 */
+	public long getTick()
+	{
+		return tick;
+	}
+
+	/**
+	 * @return The time since the serve (in seconds)
+	 */
+	public double getTime()
+	{
+		return time;
+	}
+
+	/**
+	 * @return The current x-coordinate of the ball (in meters)
+	 */
+	public double getX()
+	{
+		return x;
+	}
+
+	/**
+	 * @return The current y-coordinate of the ball (in meters)
+	 */
+	public double getY()
+	{
+		return y;
+	}
+
+	/**
+	 * @return The x-component of the ball's velocity (in m/s)
+	 */
+	public double getVx()
+	{
+		return vx;
+	}
+
+	/**
+	 * @return The y-component of the ball's velocity (in m/s)
+	 */
+	public double getVy()
+	{
+		return vy;
+	}
+}
@@ -0,0 +1,230 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import ppPackage.ppSimConfig.Param;
+
+/**
+ * Rolling 64-bit hash of the match state, updated once per tick, so that two
+ * runs that should be identical (a replay and the original match, two lockstep
+ * peers, a regression run and its reference on another machine) can be checked
+ * by comparing one long per tick, or only the last one, instead of whole
+ * states.
+ * 
+ * Every field of the ppSimState that the next tick depends on is mixed in by
+ * its exact bits: the ball's trajectory segment and clocks, the decay factor,
+ * every constant of its ppSimConfig, both paddles, and the settings (reaction
+ * time, speed, velocity factor, horizon, prediction strategy) and decision
+ * state of the agents. The caches of the intercept predictors are left out,
+ * since they are derived from those fields.
+ * Two states therefore hash alike only if they are identical bit for bit (up
+ * to collisions), and since each tick's hash also covers the previous one, two
+ * runs that diverged once never agree again.
+ * 
+ * Fields are combined with a multiply and rotate per field, and the result of
+ * each tick goes through the finalizer of SplitMix64 (as in ppRandom).
+ * 
+ * Running main() plays the same match on several threads at once and checks
+ * that every run gives the same hash after every rally, then prints the final
+ * hash, which must be the same on any machine and JVM.
+ */
+public class ppStateHash
+{
+	private static final long INITIAL = 0x9e3779b97f4a7c15L; // Value before the first tick
+	private static final long PRIME = 0x9fb21c651e98df25L; // Multiplier applied to each field
+	private static final Param[] PARAMS = Param.values(); // Constants of a ppSimConfig (cached, since values() copies the array)
+
+	private long value = INITIAL;
+	private long ticks;
+
+	/**
+	 * Mixes the state at the end of a tick into the hash.
+	 * 
+	 * @param s The state
+	 * @return The new value of the hash
+	 */
+	public long update(ppSimState s)
+	{
+		ticks++;
+		value = hash(value, s);
+		return value;
+	}
+
+	/**
+	 * @return The hash of every tick since the last reset
+	 */
+	public long getValue()
+	{
+		return value;
+	}
+
+	/**
+	 * @return The number of ticks hashed since the last reset
+	 */
+	public long getTicks()
+	{
+		return ticks;
+	}
+
+	/**
+	 * Starts over, as if no tick had been hashed.
+	 */
+	public void reset()
+	{
+		value = INITIAL;
+		ticks = 0;
+	}
+
+	/**
+	 * @return The hash and the number of ticks, in hexadecimal
+	 */
+	public String toString()
+	{
+		return String.format("%016x after %d ticks", value, ticks);
+	}
+
+	/**
+	 * @param h The hash of the previous ticks
+	 * @param s The state at the end of a tick
+	 * @return The hash of the previous ticks and this one
+	 */
+	static long hash(long h, ppSimState s)
+	{
+		h = mix(h, s.x0);
+		h = mix(h, s.y0);
+		h = mix(h, s.v0x);
+		h = mix(h, s.v0y);
+		h = mix(h, s.t);
+		h = mix(h, s.loss);
+		for (Param p : PARAMS)
+			h = mix(h, s.config.get(p));
+		h = mix(h, s.decay);
+		h = mix(h, s.decayTicks);
+		h = mix(h, s.x);
+		h = mix(h, s.y);
+		h = mix(h, s.vx);
+		h = mix(h, s.vy);
+		h = mix(h, s.ballInPlay ? 1 : 0);
+		h = mix(h, s.endState == null ? -1 : s.endState.ordinal());
+		h = mix(h, s.tick);
+		h = mix(h, s.time);
+		h = mix(h, s.volley);
+		h = mix(h, s.paddleX);
+		h = mix(h, s.paddleY);
+		h = mix(h, s.paddleVy);
+		h = mix(h, s.paddleContactVy);
+		h = mix(h, s.paddleAgent ? 1 : 0);
+		h = mix(h, s.paddleDelay);
+		h = mix(h, s.paddleCounter);
+		h = mix(h, s.paddleTargetY);
+		h = mix(h, s.paddleMaxSpeed);
+		h = mix(h, s.paddleVyFactor);
+		h = mix(h, s.paddleHorizon);
+		h = mix(h, s.paddlePredictor.getStrategy().ordinal());
+		h = mix(h, s.agentX);
+		h = mix(h, s.agentY);
+		h = mix(h, s.agentVy);
+		h = mix(h, s.agentDelay);
+		h = mix(h, s.agentCounter);
+		h = mix(h, s.agentTargetY);
+		h = mix(h, s.agentMaxSpeed);
+		h = mix(h, s.agentVyFactor);
+		h = mix(h, s.agentHorizon);
+		h = mix(h, s.agentPredictor.getStrategy().ordinal());
+
+		// SplitMix64 finalizer
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+	/**
+	 * @param h     The hash so far
+	 * @param value A double field (its raw bits, so that 0.0 and -0.0 differ)
+	 * @return The hash with the field mixed in
+	 */
+	private static long mix(long h, double value)
+	{
+		return mix(h, Double.doubleToRawLongBits(value));
+	}
+
+	/**
+	 * @param h     The hash so far
+	 * @param value An integer field
+	 * @return The hash with the field mixed in
+	 */
+	private static long mix(long h, long value)
+	{
+		return Long.rotateLeft((h ^ value) * PRIME, 31);
+	}
+
+	/**
+	 * Plays a match of the agent against the reference opponent, hashing every
+	 * tick.
+	 * 
+	 * @param rallies The number of serves
+	 * @return The hash after each rally
+	 */
+	static long[] play(int rallies)
+	{
+		ppSimState s = new ppSimState();
+		ppRandom rgen = new ppRandom(RSEED);
+		ppStateHash hash = new ppStateHash();
+		long[] hashes = new long[rallies];
+
+		ppAgentConfig.getDefault(200).applyLeft(s);
+		ppAgentConfig.getReference(100).applyRight(s);
+		for (int r = 0; r < rallies; r++)
+		{
+			ppBatchRunner.serveRandom(s, rgen);
+			while (s.ballInPlay && s.tick < ppBatchRunner.MAX_TICKS)
+			{
+				ppSimEngine.step(s);
+				hash.update(s);
+			}
+			hashes[r] = hash.getValue();
+		}
+		return hashes;
+	}
+
+	/**
+	 * Plays the same match on every core at once, compares the hashes of the
+	 * runs after every rally, and prints the hash of the whole match.
+	 * 
+	 * @param args The number of serves (default 2000)
+	 * @throws Exception If a run fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		final int rallies = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+		int runs = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(runs);
+		List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+
+		for (int k = 0; k < runs; k++)
+			results.add(pool.submit(() -> play(rallies)));
+		long[] reference = results.get(0).get();
+		int diverged = 0;
+		for (int k = 1; k < runs; k++)
+		{
+			long[] hashes = results.get(k).get();
+			for (int r = 0; r < rallies; r++)
+			{
+				if (hashes[r] != reference[r])
+				{
+					System.out.printf("Run %d diverged from run 0 in rally %d\n", k, r);
+					diverged++;
+					break;
+				}
+			}
+		}
+		pool.shutdown();
+
+		System.out.printf("%d concurrent runs of %d rallies: %d diverged\n", runs, rallies, diverged);
+		System.out.printf("Match hash: %016x\n", reference[rallies - 1]);
+	}
+}
@@ -0,0 +1,68 @@
+package ppPackage;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics;
+import acm.graphics.GObject;
+import acm.graphics.GRectangle;
+
+/**
+ * Text overlay showing the percentiles of ppTickStats in a corner of the table.
+ * 
+ * The text is formatted again at most every REFRESH_NS, however often the
+ * canvas repaints, so the overlay itself costs next to nothing per frame.
+ */
+@SuppressWarnings("serial")
+public class ppStatsOverlay extends GObject
+{
+	private static final long REFRESH_NS = 500000000; // Time between two updates of the text (0.5 s)
+	private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 11);
+	private static final int LINE_HEIGHT = 13;
+	private static final int WIDTH = 480;
+	private static final int ROWS = 7; // Lines of ppTickStats.getLines()
+
+	private final ppTickStats stats;
+	private String[] lines = new String[0];
+	private long refreshed;
+
+	/**
+	 * Creates the overlay.
+	 * 
+	 * @param stats The statistics to show
+	 */
+	public ppStatsOverlay(ppTickStats stats)
+	{
+		this.stats = stats;
+		setColor(Color.DARK_GRAY);
+	}
+
+	/**
+	 * Draws the lines of text, formatting them again if they are old enough.
+	 * 
+	 * @param g The graphics context to draw on
+	 */
+	public synchronized void paint(Graphics g)
+	{
+		long now = System.nanoTime();
+		if (now - refreshed >= REFRESH_NS)
+		{
+			lines = stats.getLines();
+			refreshed = now;
+		}
+
+		int x = (int) Math.round(getX());
+		int y = (int) Math.round(getY());
+		g.setFont(FONT);
+		g.setColor(getColor());
+		for (int i = 0; i < lines.length; i++)
+			g.drawString(lines[i], x, y + (i + 1) * LINE_HEIGHT);
+	}
+
+	/**
+	 * @return The area covered by the text
+	 */
+	public GRectangle getBounds()
+	{
+		return new GRectangle(getX(), getY(), WIDTH, (ROWS + 1) * LINE_HEIGHT);
+	}
+}
@@ -0,0 +1,305 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import ppPackage.ppBall.EndState;
+import ppPackage.ppSimConfig.Param;
+
+/**
+ * Headless sweep of the physics constants of ppSimConfig: plays a batch of
+ * serves (as ppBatchRunner does) for every point of a grid of values, and
+ * streams one row of results per point (mean rally length, agent win rate, and
+ * the fraction of rallies that ended in each way). A point where every rally
+ * was cut off (unfinished equal to serves) has 0 for the win rate and the
+ * fractions.
+ * 
+ * The batches of all the points are submitted to the pool at once, and their
+ * blocks of serves are played in parallel on all cores; the rows are written in
+ * the order of the grid, each as soon as its batch and those before it are
+ * done. Every point is played with the same seeds, so the differences between
+ * two rows come from the constants and not from the serves drawn (the serves
+ * themselves are drawn from each point's ranges).
+ * 
+ * The grid is given on the command line as one argument per swept parameter,
+ * "NAME=min:max:count" (count evenly spaced values, ends included),
+ * "NAME=v1,v2,..." or "NAME=value", where NAME is a ppSimConfig.Param. Points
+ * whose values are not a valid configuration (e.g. LOSS_MIN > LOSS_MAX) are
+ * skipped.
+ */
+public class ppSweep
+{
+	private final Param[] params; // Swept parameters, the first one varying slowest
+	private final double[][] values; // Values of each swept parameter
+
+	/**
+	 * @param params The swept parameters
+	 * @param values The values of each of them
+	 */
+	public ppSweep(Param[] params, double[][] values)
+	{
+		this.params = params.clone();
+		this.values = values.clone();
+	}
+
+	/**
+	 * @return The number of points in the grid
+	 */
+	public int getPoints()
+	{
+		int points = 1;
+		for (double[] v : values)
+			points *= v.length;
+		return points;
+	}
+
+	/**
+	 * @param point Index of a point of the grid
+	 * @return The configuration at that point
+	 * @throws IllegalArgumentException If it is not a valid configuration
+	 */
+	public ppSimConfig getConfig(int point)
+	{
+		double[] pointValues = new double[params.length];
+
+		for (int p = params.length - 1; p >= 0; p--)
+		{
+			pointValues[p] = values[p][point % values[p].length];
+			point /= values[p].length;
+		}
+		return ppSimConfig.DEFAULT.with(params, pointValues);
+	}
+
+	/**
+	 * Plays the batches of every point of the grid and writes a row for each.
+	 * 
+	 * @param seed         Seed of the batches
+	 * @param serves       The number of serves per point
+	 * @param agentMillis  The agent's reaction time (in milliseconds)
+	 * @param paddleMillis The reaction time of the opponent on the player's side
+	 *                     (in milliseconds)
+	 * @param pool         The pool in which to play the serves
+	 * @param out          The writer to stream the rows to (flushed after each)
+	 */
+	public void run(long seed, int serves, int agentMillis, int paddleMillis, ForkJoinPool pool, PrintWriter out)
+	{
+		long[] blockSeeds = ppBatchRunner.blockSeeds(seed, serves);
+		ppAgentConfig agent = ppAgentConfig.getDefault(agentMillis);
+		ppAgentConfig opponent = ppAgentConfig.getReference(paddleMillis);
+		int points = getPoints();
+		List<ForkJoinTask<ppBatchRunner.Result>> batches = new ArrayList<ForkJoinTask<ppBatchRunner.Result>>(points);
+		List<String> skipped = new ArrayList<String>();
+
+		for (int point = 0; point < points; point++)
+		{
+			try
+			{
+				batches.add(pool.submit(ppBatchRunner.batch(getConfig(point), agent, opponent, blockSeeds, 0, blockSeeds.length, serves)));
+			}
+			catch (IllegalArgumentException e)
+			{
+				batches.add(null);
+				skipped.add(e.getMessage());
+			}
+		}
+
+		printHeader(out);
+		for (int point = 0; point < points; point++)
+		{
+			if (batches.get(point) != null)
+				printRow(out, point, batches.get(point).join());
+			batches.set(point, null); // Let the result be collected
+		}
+		for (String reason : skipped)
+			out.println("# Skipped: " + reason);
+		out.flush();
+	}
+
+	/**
+	 * @param out The writer to print the header to
+	 */
+	private void printHeader(PrintWriter out)
+	{
+		StringBuilder b = new StringBuilder();
+
+		for (Param param : params)
+			b.append(param).append(',');
+		b.append("serves,agent_win_rate,mean_rally_s,unfinished");
+		for (EndState end : EndState.values())
+			b.append(',').append(end);
+		out.println(b);
+		out.flush();
+	}
+
+	/**
+	 * @param out    The writer to print the row to
+	 * @param point  Index of the point of the grid
+	 * @param result The outcome of the point's batch
+	 */
+	private void printRow(PrintWriter out, int point, ppBatchRunner.Result result)
+	{
+		ppSimConfig config = getConfig(point);
+		long finished = result.getFinished();
+		StringBuilder b = new StringBuilder();
+
+		for (Param param : params)
+			b.append(config.get(param)).append(',');
+		b.append(finished + result.getUnfinished());
+		b.append(String.format(Locale.ROOT, ",%.4f,%.3f,%d", result.getAgentWinRate(), result.getMeanRallyTime(), result.getUnfinished()));
+		for (EndState end : EndState.values())
+			b.append(String.format(Locale.ROOT, ",%.4f", finished == 0 ? 0 : (double) result.getCount(end) / finished));
+		out.println(b);
+		out.flush();
+	}
+
+	/**
+	 * Parses the values of a swept parameter.
+	 * 
+	 * @param spec "min:max:count", "v1,v2,..." or "value"
+	 * @return The values
+	 * @throws IllegalArgumentException If the values cannot be parsed
+	 */
+	static double[] parseValues(String spec)
+	{
+		String[] range = spec.split(":");
+
+		if (range.length == 3)
+		{
+			double min = Double.parseDouble(range[0]);
+			double max = Double.parseDouble(range[1]);
+			int count = Integer.parseInt(range[2]);
+			if (count < 1)
+				throw new IllegalArgumentException("Need at least one value: " + spec);
+
+			double[] v = new double[count];
+			for (int i = 0; i < count; i++)
+				v[i] = (count == 1 ? min : min + (max - min) * i / (count - 1));
+			return v;
+		}
+		if (range.length != 1)
+			throw new IllegalArgumentException("Expected min:max:count, a list or a value: " + spec);
+
+		String[] list = spec.split(",");
+		double[] v = new double[list.length];
+		for (int i = 0; i < list.length; i++)
+			v[i] = Double.parseDouble(list[i]);
+		return v;
+	}
+
+	/**
+	 * Runs a sweep and writes the table to the console and to a file.
+	 * 
+	 * @param args One "NAME=..." argument per swept parameter (see above; default
+	 *             K=0.10:0.16:7 VX_MAX=6:12:7), and optionally serves=... per
+	 *             point (default 2000), threads=... (default: all cores),
+	 *             agent=... and paddle=... reaction times in ms (default 200 and
+	 *             100), seed=... (default RSEED), file=... (default SWEEP_FILE)
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		List<Param> params = new ArrayList<Param>();
+		List<double[]> values = new ArrayList<double[]>();
+		int serves = 2000;
+		int threads = Runtime.getRuntime().availableProcessors();
+		int agentMillis = 200;
+		int paddleMillis = 100;
+		long seed = RSEED;
+		String file = SWEEP_FILE;
+
+		for (String arg : args)
+		{
+			int eq = arg.indexOf('=');
+			if (eq < 0)
+				throw new IllegalArgumentException("Expected NAME=VALUE: " + arg);
+			String name = arg.substring(0, eq);
+			String value = arg.substring(eq + 1);
+
+			if (name.equals("serves"))
+				serves = Integer.parseInt(value);
+			else if (name.equals("threads"))
+				threads = Integer.parseInt(value);
+			else if (name.equals("agent"))
+				agentMillis = Integer.parseInt(value);
+			else if (name.equals("paddle"))
+				paddleMillis = Integer.parseInt(value);
+			else if (name.equals("seed"))
+				seed = Long.parseLong(value);
+			else if (name.equals("file"))
+				file = value;
+			else
+			{
+				params.add(Param.valueOf(name));
+				values.add(parseValues(value));
+			}
+		}
+		if (params.isEmpty())
+		{
+			params.add(Param.K);
+			values.add(parseValues("0.10:0.16:7"));
+			params.add(Param.VX_MAX);
+			values.add(parseValues("6:12:7"));
+		}
+
+		ppSweep sweep = new ppSweep(params.toArray(new Param[0]), values.toArray(new double[0][]));
+		ppInterceptTable.loadForDefaultAgent();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)))
+		{
+			sweep.run(seed, serves, agentMillis, paddleMillis, pool, new PrintWriter(new TeeWriter(out, new PrintWriter(System.out))));
+		}
+		pool.shutdown();
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long rallies = (long) sweep.getPoints() * serves;
+		System.out.printf("%d points, %d serves on %d threads in %.1f s (%.0f serves/s), written to %s\n", sweep.getPoints(), rallies, threads, seconds, rallies / seconds, file);
+	}
+
+	/**
+	 * Writer that copies everything to two writers.
+	 */
+	private static class TeeWriter extends Writer
+	{
+		private final Writer first;
+		private final Writer second;
+
+		/**
+		 * @param first  The first writer
+		 * @param second The second writer
+		 */
+		TeeWriter(Writer first, Writer second)
+		{
+			this.first = first;
+			this.second = second;
+		}
+
+		public void write(char[] buf, int off, int len) throws IOException
+		{
+			first.write(buf, off, len);
+			second.write(buf, off, len);
+		}
+
+		public void flush() throws IOException
+		{
+			first.flush();
+			second.flush();
+		}
+
+		public void close() throws IOException
+		{
+			first.close();
+			second.flush();
+		}
+	}
+}
@@ -2,39 +2,74 @@ package ppPackage;
 
 import static ppPackage.ppSimParams.*;
 import java.awt.Color;
+import java.awt.Graphics;
 import acm.graphics.GRect;
+import acm.program.GraphicsProgram;
 
 /**
  * Utility class for displaying the simulation
  */
 public class ppTable
 {
-	private ppSimPaddleAgent dispRef;
+	private GraphicsProgram dispRef;
+	private ppSimPaddleAgent game; // The game played on the display, or null if the display only shows a match
+	private final GRect floor;
 
 	/**
 	 * Connects the ppTable to an instance of ppSimPaddle (i.e. the actual display)
-	 * and draws the floor
+	 * and creates the floor (drawn by newScreen())
 	 * 
 	 * @param dispRef A reference to an instance of ppSimPaddle which controls the
 	 *                applet display
 	 */
 	public ppTable(ppSimPaddleAgent dispRef)
+	{
+		this((GraphicsProgram) dispRef);
+		game = dispRef;
+	}
+
+	/**
+	 * Connects the ppTable to a display which only shows a match played elsewhere
+	 * (such as ppReplayViewer or ppNetGame) and creates the floor (drawn by
+	 * newScreen()). getGame() returns null for such a table.
+	 * 
+	 * @param dispRef A reference to the GraphicsProgram which controls the applet
+	 *                display
+	 */
+	public ppTable(GraphicsProgram dispRef)
 	{
 		this.dispRef = dispRef;
+
+		floor = new GRect(0, SCR_HEIGHT, SCR_WIDTH + BORDER, WALL_THICKNESS_PX);
+		floor.setFilled(true);
+		floor.setColor(Color.BLACK);
 	}
 
+	/**
+	 * Clears the display and draws the table. Only the graphical objects are
+	 * removed: Swing components on the canvas (such as the active renderer) stay.
+	 */
 	public void newScreen()
 	{
 		// Clear all existing images
-		dispRef.removeAll();
+		for (int i = dispRef.getElementCount() - 1; i >= 0; i--)
+			dispRef.remove(dispRef.getElement(i));
 
 		// Add floor
-		GRect floor = new GRect(0, SCR_HEIGHT, SCR_WIDTH + BORDER, WALL_THICKNESS_PX);
-		floor.setFilled(true);
-		floor.setColor(Color.BLACK);
 		dispRef.add(floor);
 	}
 
+	/**
+	 * Paints the table, as drawn by newScreen(), on a graphics context other than
+	 * the display's (used by ppRenderPanel, which covers the display).
+	 * 
+	 * @param g The graphics context, in the pixel coordinates of the display
+	 */
+	public void paint(Graphics g)
+	{
+		floor.paint(g);
+	}
+
 	/**
 	 * Converts an x-coordinate in meters to its corresponding x-coordinate in ACM
 	 * pixel units
@@ -94,11 +129,23 @@ public class ppTable
 	/**
 	 * Allows other classes to access the simulation display
 	 * 
-	 * @return A reference to the ppSimPaddle object (extending GraphicsProgram)
-	 *         which controls the simulation display
+	 * @return A reference to the GraphicsProgram which controls the simulation
+	 *         display
 	 */
-	public ppSimPaddleAgent getDisplay()
+	public GraphicsProgram getDisplay()
 	{
 		return dispRef;
 	}
+
+	/**
+	 * Allows the simulation to access the game settings (time factor, score) of
+	 * the display
+	 * 
+	 * @return A reference to the ppSimPaddle object which controls the simulation
+	 *         display, or null if the display only shows a match
+	 */
+	public ppSimPaddleAgent getGame()
+	{
+		return game;
+	}
 }
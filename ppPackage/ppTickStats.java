@@ -0,0 +1,153 @@
+package ppPackage;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms of the game loop: the time spent computing each part of a
+ * tick, how late the loop wakes up after each deadline, and the time between
+ * the starts of two ticks.
+ * 
+ * The histograms are recorded by ppGameLoop at every tick, and read by the
+ * on-screen overlay (ppStatsOverlay) and by JMX clients, under the name
+ * OBJECT_NAME once register() was called.
+ */
+public class ppTickStats implements ppTickStatsMBean
+{
+	public static final String OBJECT_NAME = "ppPackage:type=ppTickStats";
+
+	final ppLatencyHistogram compute = new ppLatencyHistogram(); // Whole tick (ball, paddle and agent)
+	final ppLatencyHistogram ballCompute = new ppLatencyHistogram();
+	final ppLatencyHistogram paddleCompute = new ppLatencyHistogram();
+	final ppLatencyHistogram agentCompute = new ppLatencyHistogram();
+	final ppLatencyHistogram overshoot = new ppLatencyHistogram(); // Wake-up time minus deadline
+	final ppLatencyHistogram period = new ppLatencyHistogram(); // Between the starts of two ticks
+
+	/**
+	 * Registers the statistics with the platform MBean server. Failures (e.g.
+	 * a second game in the same JVM) are reported and otherwise ignored.
+	 */
+	public void register()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		}
+		catch (JMException e)
+		{
+			System.out.println("Could not register the tick statistics with JMX: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return One line per histogram (median, 99th and 99.9th percentiles and
+	 *         maximum, in microseconds), with a header line
+	 */
+	public String[] getLines()
+	{
+		return new String[] { String.format("%-16s %8s %8s %8s %8s   (us, %d ticks)", "", "p50", "p99", "p99.9", "max", getTicks()),
+				line("tick compute", compute), line("  ball", ballCompute), line("  paddle", paddleCompute), line("  agent", agentCompute),
+				line("sleep overshoot", overshoot), line("tick period", period) };
+	}
+
+	/**
+	 * @param name The name of the histogram
+	 * @param h    The histogram
+	 * @return A line of getLines()
+	 */
+	private static String line(String name, ppLatencyHistogram h)
+	{
+		return String.format("%-16s %8.1f %8.1f %8.1f %8.1f", name, micros(h.percentile(0.5)), micros(h.percentile(0.99)), micros(h.percentile(0.999)),
+				micros(h.getMax()));
+	}
+
+	/**
+	 * @param nanos A time (in ns)
+	 * @return The same time in microseconds
+	 */
+	private static double micros(long nanos)
+	{
+		return nanos / 1e3;
+	}
+
+	public long getTicks()
+	{
+		return compute.getCount();
+	}
+
+	public double getComputeP50()
+	{
+		return micros(compute.percentile(0.5));
+	}
+
+	public double getComputeP99()
+	{
+		return micros(compute.percentile(0.99));
+	}
+
+	public double getComputeP999()
+	{
+		return micros(compute.percentile(0.999));
+	}
+
+	public double getComputeMax()
+	{
+		return micros(compute.getMax());
+	}
+
+	public double getBallComputeP99()
+	{
+		return micros(ballCompute.percentile(0.99));
+	}
+
+	public double getPaddleComputeP99()
+	{
+		return micros(paddleCompute.percentile(0.99));
+	}
+
+	public double getAgentComputeP99()
+	{
+		return micros(agentCompute.percentile(0.99));
+	}
+
+	public double getOvershootP50()
+	{
+		return micros(overshoot.percentile(0.5));
+	}
+
+	public double getOvershootP99()
+	{
+		return micros(overshoot.percentile(0.99));
+	}
+
+	public double getOvershootMax()
+	{
+		return micros(overshoot.getMax());
+	}
+
+	public double getPeriodP50()
+	{
+		return micros(period.percentile(0.5));
+	}
+
+	public double getPeriodP99()
+	{
+		return micros(period.percentile(0.99));
+	}
+
+	public double getPeriodMax()
+	{
+		return micros(period.getMax());
+	}
+
+	public void reset()
+	{
+		compute.reset();
+		ballCompute.reset();
+		paddleCompute.reset();
+		agentCompute.reset();
+		overshoot.reset();
+		period.reset();
+	}
+}
@@ -0,0 +1,84 @@
+package ppPackage;
+
+/**
+ * Management interface of ppTickStats, for JMX clients (jconsole, VisualVM,
+ * monitoring agents). All times are in microseconds.
+ */
+public interface ppTickStatsMBean
+{
+	/**
+	 * @return The number of ticks measured since the last reset
+	 */
+	long getTicks();
+
+	/**
+	 * @return The median time spent computing a tick (ball, paddle and agent)
+	 */
+	double getComputeP50();
+
+	/**
+	 * @return The 99th percentile of the time spent computing a tick
+	 */
+	double getComputeP99();
+
+	/**
+	 * @return The 99.9th percentile of the time spent computing a tick
+	 */
+	double getComputeP999();
+
+	/**
+	 * @return The longest time spent computing a tick
+	 */
+	double getComputeMax();
+
+	/**
+	 * @return The 99th percentile of the time spent moving the ball
+	 */
+	double getBallComputeP99();
+
+	/**
+	 * @return The 99th percentile of the time spent moving the player's paddle
+	 */
+	double getPaddleComputeP99();
+
+	/**
+	 * @return The 99th percentile of the time spent moving the agent
+	 */
+	double getAgentComputeP99();
+
+	/**
+	 * @return The median time by which the loop woke up after its deadline
+	 */
+	double getOvershootP50();
+
+	/**
+	 * @return The 99th percentile of the time by which the loop woke up after its
+	 *         deadline
+	 */
+	double getOvershootP99();
+
+	/**
+	 * @return The longest time by which the loop woke up after its deadline
+	 */
+	double getOvershootMax();
+
+	/**
+	 * @return The median time between the starts of two ticks
+	 */
+	double getPeriodP50();
+
+	/**
+	 * @return The 99th percentile of the time between the starts of two ticks
+	 */
+	double getPeriodP99();
+
+	/**
+	 * @return The longest time between the starts of two ticks
+	 */
+	double getPeriodMax();
+
+	/**
+	 * Clears every histogram.
+	 */
+	void reset();
+}
@@ -0,0 +1,316 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless round-robin tournament between variants of the agent, ranked by Elo
+ * rating.
+ * 
+ * In every round, each agent plays each other agent twice, once on each side of
+ * the table (the serve always goes to the right side first, and the agent and
+ * player sides hit with different spin, so the sides are not equivalent). A
+ * match is a number of random serves played by ppSimEngine, with the player's
+ * paddle controlled like an agent. The matches of a round are played in
+ * parallel on all cores.
+ * 
+ * Each match gets its own ppRandom, split from the tournament seed in the order
+ * of the schedule, and the ratings are only updated once all the matches of a
+ * round are over, in the same order, from the ratings at the start of the
+ * round. The results for a given seed are therefore identical no matter how
+ * many threads play the matches.
+ */
+public class ppTournament
+{
+	static final double ELO_INIT = 1500; // Rating of every agent before the first round
+	static final double ELO_K = 16; // Largest change of rating from one match
+
+	private final ppAgentConfig[] agents;
+	private final double[] elo;
+	private final long[] won; // Rallies won by each agent
+	private final long[] lost; // Rallies lost by each agent
+	private final long[] leftWon; // Rallies won by each agent on the left side
+	private final long[] leftPlayed; // Finished rallies played by each agent on the left side
+	private final long[] rightWon;
+	private final long[] rightPlayed;
+	private final long[] ticks; // Ticks played by each agent
+	private long rallies; // Rallies played so far
+	private long unfinished; // Rallies cut off after ppBatchRunner.MAX_TICKS
+	private int rounds; // Rounds played so far
+
+	/**
+	 * Creates a tournament in which no round has been played yet.
+	 * 
+	 * @param agents The agents taking part (at least two)
+	 */
+	public ppTournament(ppAgentConfig[] agents)
+	{
+		if (agents.length < 2)
+			throw new IllegalArgumentException("A tournament needs at least two agents");
+
+		int n = agents.length;
+		this.agents = agents.clone();
+		elo = new double[n];
+		Arrays.fill(elo, ELO_INIT);
+		won = new long[n];
+		lost = new long[n];
+		leftWon = new long[n];
+		leftPlayed = new long[n];
+		rightWon = new long[n];
+		rightPlayed = new long[n];
+		ticks = new long[n];
+	}
+
+	/**
+	 * Plays one round: every ordered pair of agents plays a match, the first
+	 * agent on the left side and the second on the right side.
+	 * 
+	 * @param rgen   The random stream the seeds of the matches are split from
+	 * @param serves The number of serves in each match
+	 * @param pool   The pool in which to play the matches
+	 */
+	public void playRound(ppRandom rgen, int serves, ForkJoinPool pool)
+	{
+		int n = agents.length;
+		int[] left = new int[n * (n - 1)];
+		int[] right = new int[left.length];
+		long[] seeds = new long[left.length];
+
+		for (int i = 0, m = 0; i < n; i++)
+		{
+			for (int j = 0; j < n; j++)
+			{
+				if (i == j)
+					continue;
+				left[m] = i;
+				right[m] = j;
+				seeds[m] = rgen.split().getSeed();
+				m++;
+			}
+		}
+
+		ppBatchRunner.Result[] results = new ppBatchRunner.Result[left.length];
+		pool.invoke(new Matches(left, right, seeds, serves, results, 0, left.length));
+
+		// Elo expectations are all computed from the ratings at the start of the round
+		double[] delta = new double[n];
+		for (int m = 0; m < results.length; m++)
+		{
+			ppBatchRunner.Result r = results[m];
+			int i = left[m];
+			int j = right[m];
+			long finished = r.getFinished();
+			long iWon = r.getAgentWins();
+
+			won[i] += iWon;
+			lost[i] += finished - iWon;
+			won[j] += finished - iWon;
+			lost[j] += iWon;
+			leftWon[i] += iWon;
+			leftPlayed[i] += finished;
+			rightWon[j] += finished - iWon;
+			rightPlayed[j] += finished;
+			ticks[i] += r.ticks;
+			ticks[j] += r.ticks;
+			rallies += finished + r.getUnfinished();
+			unfinished += r.getUnfinished();
+
+			if (finished == 0)
+				continue;
+			double change = ELO_K * ((double) iWon / finished - expectedScore(elo[i], elo[j]));
+			delta[i] += change;
+			delta[j] -= change;
+		}
+		for (int i = 0; i < n; i++)
+			elo[i] += delta[i];
+		rounds++;
+	}
+
+	/**
+	 * @param rating      The rating of a player
+	 * @param otherRating The rating of the opponent
+	 * @return The expected fraction of the points won by the player
+	 */
+	static double expectedScore(double rating, double otherRating)
+	{
+		return 1 / (1 + Math.pow(10, (otherRating - rating) / 400));
+	}
+
+	/**
+	 * Plays one match on the calling thread.
+	 * 
+	 * @param left   The agent on the left side
+	 * @param right  The agent on the right side
+	 * @param seed   Seed of the match's random stream
+	 * @param serves The number of serves
+	 * @return The outcome of the match, in which the "agent" is the left side
+	 */
+	static ppBatchRunner.Result playMatch(ppAgentConfig left, ppAgentConfig right, long seed, int serves)
+	{
+		return ppBatchRunner.playBlock(ppSimConfig.DEFAULT, left, right, seed, serves);
+	}
+
+	/**
+	 * Splits a range of matches in half until a single match is left, which is
+	 * then played directly. Each match writes its own slot of the results.
+	 */
+	@SuppressWarnings("serial")
+	private class Matches extends RecursiveAction
+	{
+		private final int[] left;
+		private final int[] right;
+		private final long[] seeds;
+		private final int serves;
+		private final ppBatchRunner.Result[] results;
+		private final int from;
+		private final int to;
+
+		/**
+		 * @param left    Index of the left agent of each match of the round
+		 * @param right   Index of the right agent of each match of the round
+		 * @param seeds   Seed of each match of the round
+		 * @param serves  The number of serves in each match
+		 * @param results The outcomes of the matches of the round
+		 * @param from    Index of the first match to play
+		 * @param to      Index after the last match to play
+		 */
+		Matches(int[] left, int[] right, long[] seeds, int serves, ppBatchRunner.Result[] results, int from, int to)
+		{
+			this.left = left;
+			this.right = right;
+			this.seeds = seeds;
+			this.serves = serves;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute()
+		{
+			if (to - from == 1)
+			{
+				results[from] = playMatch(agents[left[from]], agents[right[from]], seeds[from], serves);
+				return;
+			}
+
+			int mid = (from + to) >>> 1;
+			invokeAll(new Matches(left, right, seeds, serves, results, from, mid), new Matches(left, right, seeds, serves, results, mid, to));
+		}
+	}
+
+	/**
+	 * @return The number of rallies played so far
+	 */
+	public long getRallies()
+	{
+		return rallies;
+	}
+
+	/**
+	 * @param agent Index of an agent
+	 * @return The current rating of the agent
+	 */
+	public double getElo(int agent)
+	{
+		return elo[agent];
+	}
+
+	/**
+	 * Writes the standings, best rating first.
+	 * 
+	 * @param out The writer to print the table to
+	 */
+	public void printTable(PrintWriter out)
+	{
+		Integer[] order = new Integer[agents.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Double.compare(elo[b], elo[a]));
+
+		out.printf("%d rounds, %d rallies (%d unfinished)\n", rounds, rallies, unfinished);
+		out.printf("%4s  %-26s %7s %10s %10s %7s %7s %7s %8s\n", "Rank", "Agent", "Elo", "Won", "Lost", "Win", "Left", "Right", "Rally");
+		for (int k = 0; k < order.length; k++)
+		{
+			int i = order[k];
+			long finished = won[i] + lost[i];
+			out.printf("%4d  %-26s %7.1f %10d %10d %6.2f%% %6.2f%% %6.2f%% %7.2fs\n", k + 1, agents[i], elo[i], won[i], lost[i], percent(won[i], finished),
+					percent(leftWon[i], leftPlayed[i]), percent(rightWon[i], rightPlayed[i]), finished == 0 ? 0 : ticks[i] * TICK / finished);
+		}
+		out.flush();
+	}
+
+	/**
+	 * @param count A number of rallies
+	 * @param total The number of rallies it is a part of
+	 * @return <code>count</code> as a percentage of <code>total</code>
+	 */
+	private static double percent(long count, long total)
+	{
+		return (total == 0 ? 0 : 100.0 * count / total);
+	}
+
+	/**
+	 * @return The default field: every combination of a few max speeds, reaction
+	 *         times and prediction strategies
+	 */
+	static ppAgentConfig[] defaultAgents()
+	{
+		List<ppAgentConfig> agents = new ArrayList<ppAgentConfig>();
+
+		for (ppInterceptPredictor.Strategy strategy : new ppInterceptPredictor.Strategy[] { ppInterceptPredictor.Strategy.PHYSICS, ppInterceptPredictor.Strategy.LINEAR })
+			for (double maxSpeed : new double[] { 4, 6, 8 })
+				for (int reactMillis : new int[] { 100, 200, 300 })
+					agents.add(new ppAgentConfig(maxSpeed, reactMillis, AGENT_VY_FACTOR, strategy));
+		return agents.toArray(new ppAgentConfig[0]);
+	}
+
+	/**
+	 * Plays a tournament between the default agents, prints the standings after
+	 * each round and writes the final ones to a file.
+	 * 
+	 * @param args Number of rounds (default 20), number of serves per match
+	 *             (default 200), number of threads (default: all cores), seed
+	 *             (default RSEED), file to write the standings to (default
+	 *             TOURNAMENT_FILE)
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		int rounds = (args.length > 0 ? Integer.parseInt(args[0]) : 20);
+		int serves = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+		int threads = (args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+		long seed = (args.length > 3 ? Long.parseLong(args[3]) : RSEED);
+		String file = (args.length > 4 ? args[4] : TOURNAMENT_FILE);
+
+		ppTournament tournament = new ppTournament(defaultAgents());
+		ppRandom rgen = new ppRandom(seed);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		PrintWriter console = new PrintWriter(System.out);
+		long start = System.nanoTime();
+
+		for (int r = 0; r < rounds; r++)
+		{
+			tournament.playRound(rgen, serves, pool);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("\nRound %d: %d rallies on %d threads in %.1f s (%.0f rallies/s)\n", r + 1, tournament.getRallies(), threads, seconds, tournament.getRallies() / seconds);
+			if (r == rounds - 1 || (r + 1) % 10 == 0)
+				tournament.printTable(console);
+		}
+		pool.shutdown();
+
+		try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)))
+		{
+			tournament.printTable(out);
+		}
+		System.out.println("Standings written to " + file);
+	}
+}
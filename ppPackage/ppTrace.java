@@ -0,0 +1,273 @@
+package ppPackage;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import acm.graphics.GObject;
+import acm.graphics.GRectangle;
+
+/**
+ * Trace of the ball's trajectory, drawn as a single canvas object with one
+ * polyline per volley.
+ * 
+ * Points are kept in a buffer of fixed capacity, oldest first. When it fills up,
+ * every volley is simplified (Douglas-Peucker, with a tolerance below one
+ * pixel) and the points kept are moved back to the start of the buffer; only if
+ * that is not enough are the oldest points dropped. The cost
+ * of a repaint therefore stays bounded no matter how long the rally lasts, and
+ * showing or hiding the trace is a single setVisible() call.
+ * 
+ * Points are added by the game loop and painted on the event dispatch thread,
+ * so all access to the buffer is synchronized.
+ */
+@SuppressWarnings("serial")
+public class ppTrace extends GObject
+{
+	private final float[] xs, ys; // Points of the trace (in pixel units), from index 0 to size - 1
+	private final boolean[] breaks; // TRUE where a point starts a new volley
+	private int size;
+	private boolean volleyStart;
+	private final double tolerance; // Maximum distance (in pixel units) between the simplified and the original trace
+
+	// Scratch space for simplifying and drawing (allocated once)
+	private final float[] tmpX, tmpY;
+	private final boolean[] tmpBreaks, keep;
+	private final int[] stack;
+	private final int[] polyX, polyY;
+
+	/**
+	 * Creates an empty trace.
+	 * 
+	 * @param capacity  The maximum number of points kept
+	 * @param tolerance Maximum distance (in pixel units) by which simplification
+	 *                  may move the trace
+	 */
+	public ppTrace(int capacity, double tolerance)
+	{
+		xs = new float[capacity];
+		ys = new float[capacity];
+		breaks = new boolean[capacity];
+		tmpX = new float[capacity];
+		tmpY = new float[capacity];
+		tmpBreaks = new boolean[capacity];
+		keep = new boolean[capacity];
+		stack = new int[2 * capacity];
+		polyX = new int[capacity];
+		polyY = new int[capacity];
+		this.tolerance = tolerance;
+		this.volleyStart = true;
+		setColor(Color.BLACK);
+	}
+
+	/**
+	 * Adds a point at the end of the current volley.
+	 * 
+	 * @param x The x-coordinate of the point (in pixel units)
+	 * @param y The y-coordinate of the point (in pixel units)
+	 */
+	public synchronized void addPoint(double x, double y)
+	{
+		if (size == xs.length)
+			makeRoom();
+
+		xs[size] = (float) x;
+		ys[size] = (float) y;
+		breaks[size] = volleyStart;
+		volleyStart = false;
+		size++;
+
+		repaint();
+	}
+
+	/**
+	 * Ends the current volley. The next point starts a new polyline.
+	 */
+	public synchronized void newVolley()
+	{
+		volleyStart = true;
+	}
+
+	/**
+	 * @return The number of points currently kept
+	 */
+	public synchronized int getPointCount()
+	{
+		return size;
+	}
+
+	/**
+	 * Draws one polyline per volley.
+	 * 
+	 * @param g The graphics context to draw on
+	 */
+	public synchronized void paint(Graphics g)
+	{
+		int n = 0;
+
+		for (int i = 0; i < size; i++)
+		{
+			if (breaks[i] && n > 0)
+			{
+				drawPolyline(g, n);
+				n = 0;
+			}
+			polyX[n] = Math.round(xs[i]);
+			polyY[n] = Math.round(ys[i]);
+			n++;
+		}
+		drawPolyline(g, n);
+	}
+
+	/**
+	 * @return The smallest rectangle containing every point of the trace
+	 */
+	public synchronized GRectangle getBounds()
+	{
+		if (size == 0)
+			return new GRectangle();
+
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+		for (int i = 0; i < size; i++)
+		{
+			minX = Math.min(minX, xs[i]);
+			minY = Math.min(minY, ys[i]);
+			maxX = Math.max(maxX, xs[i]);
+			maxY = Math.max(maxY, ys[i]);
+		}
+		return new GRectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+
+	/**
+	 * Draws the first n points of the polyline buffer (a single point as a dot).
+	 * 
+	 * @param g The graphics context to draw on
+	 * @param n The number of points
+	 */
+	private void drawPolyline(Graphics g, int n)
+	{
+		if (n == 1)
+			g.drawLine(polyX[0], polyY[0], polyX[0], polyY[0]);
+		else if (n > 1)
+			g.drawPolyline(polyX, polyY, n);
+	}
+
+	/**
+	 * Frees space in the full buffer: simplifies every volley, then drops the
+	 * oldest points if less than a quarter of the buffer could be freed.
+	 */
+	private void makeRoom()
+	{
+		int n = 0;
+
+		// Copy the points into the scratch arrays, from which the kept ones are copied back
+		System.arraycopy(xs, 0, tmpX, 0, size);
+		System.arraycopy(ys, 0, tmpY, 0, size);
+		System.arraycopy(breaks, 0, tmpBreaks, 0, size);
+
+		// Simplify each volley separately
+		int start = 0;
+		for (int k = 1; k <= size; k++)
+		{
+			if (k == size || tmpBreaks[k])
+			{
+				simplify(start, k - 1);
+				start = k;
+			}
+		}
+
+		// If simplifying did not help enough, drop the oldest quarter
+		int kept = 0;
+		for (int k = 0; k < size; k++)
+			if (keep[k])
+				kept++;
+		int drop = (kept > xs.length * 3 / 4 ? kept - xs.length * 3 / 4 : 0);
+
+		boolean pendingBreak = false;
+		for (int k = 0; k < size; k++)
+		{
+			if (!keep[k])
+				continue;
+			if (drop > 0)
+			{
+				drop--;
+				pendingBreak = true;
+				continue;
+			}
+			xs[n] = tmpX[k];
+			ys[n] = tmpY[k];
+			breaks[n] = tmpBreaks[k] || pendingBreak;
+			pendingBreak = false;
+			n++;
+		}
+
+		size = n;
+	}
+
+	/**
+	 * Marks which points of one volley (in the scratch arrays) to keep, using the
+	 * Douglas-Peucker algorithm with an explicit stack.
+	 * 
+	 * @param first Index of the first point of the volley
+	 * @param last  Index of the last point of the volley
+	 */
+	private void simplify(int first, int last)
+	{
+		int top = 0;
+
+		for (int k = first; k <= last; k++)
+			keep[k] = false;
+		keep[first] = true;
+		keep[last] = true;
+
+		stack[top++] = first;
+		stack[top++] = last;
+		while (top > 0)
+		{
+			int b = stack[--top];
+			int a = stack[--top];
+			double maxDist = tolerance;
+			int farthest = -1;
+
+			for (int k = a + 1; k < b; k++)
+			{
+				double d = distToSegment(tmpX[k], tmpY[k], tmpX[a], tmpY[a], tmpX[b], tmpY[b]);
+				if (d > maxDist)
+				{
+					maxDist = d;
+					farthest = k;
+				}
+			}
+
+			if (farthest != -1)
+			{
+				keep[farthest] = true;
+				stack[top++] = a;
+				stack[top++] = farthest;
+				stack[top++] = farthest;
+				stack[top++] = b;
+			}
+		}
+	}
+
+	/**
+	 * Calculates the distance from a point to a line segment
+	 * 
+	 * @param px The x-coordinate of the point
+	 * @param py The y-coordinate of the point
+	 * @param ax The x-coordinate of one end of the segment
+	 * @param ay The y-coordinate of one end of the segment
+	 * @param bx The x-coordinate of the other end of the segment
+	 * @param by The y-coordinate of the other end of the segment
+	 * @return The distance from (px, py) to the closest point of the segment
+	 */
+	private static double distToSegment(double px, double py, double ax, double ay, double bx, double by)
+	{
+		double dx = bx - ax;
+		double dy = by - ay;
+		double len2 = dx * dx + dy * dy;
+		double u = (len2 == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / len2)));
+		double cx = ax + u * dx - px;
+		double cy = ay + u * dy - py;
+
+		return Math.sqrt(cx * cx + cy * cy);
+	}
+}
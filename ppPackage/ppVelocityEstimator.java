@@ -0,0 +1,127 @@
+package ppPackage;
+
+import static ppPackage.ppSimParams.*;
+
+/**
+ * Estimates the velocity of the player's paddle from the timestamped positions
+ * of the mouse, instead of from the difference between two positions one TICK
+ * apart.
+ * 
+ * The difference between ticks depends on when each tick happens to run and on
+ * how many mouse events arrived in between, so the spin given to the ball by
+ * the same stroke varied from one hit to the next. Here every mouse event is a
+ * sample (System.nanoTime() at the event, position), and the velocity is
+ * computed from the samples when it is needed, with one of two filters:
+ * <ul>
+ * <li>REGRESSION: the slope of the least-squares line through the samples of
+ * the last VELOCITY_WINDOW_MS;</li>
+ * <li>EMA: an exponential moving average of the velocity between consecutive
+ * samples, with a time constant of VELOCITY_EMA_MS.</li>
+ * </ul>
+ * In both cases, a paddle that has not moved for VELOCITY_STALE_MS is still.
+ * 
+ * The velocity is in meters per second of real time; the caller scales it to
+ * game time. Samples are added by the event dispatch thread and the velocity
+ * is read by the game loop, so both methods are synchronized (the lock is
+ * almost never contended and neither method allocates).
+ */
+public class ppVelocityEstimator
+{
+	/**
+	 * How the samples are filtered
+	 */
+	public enum Filter
+	{
+		EMA, REGRESSION
+	}
+
+	static final int CAPACITY = 64; // Samples kept (mice poll at up to 1000 Hz, so this covers VELOCITY_WINDOW_MS at any rate in use)
+
+	private final Filter filter;
+	private final long[] times = new long[CAPACITY]; // Ring buffer of the sample times (in ns)
+	private final double[] ys = new double[CAPACITY]; // Ring buffer of the sample positions (in m)
+	private int count;
+	private int next;
+	private double ema; // Average velocity (EMA only, in m/s)
+
+	/**
+	 * Creates an estimator with no samples (the paddle is still).
+	 * 
+	 * @param filter How the samples are filtered
+	 */
+	public ppVelocityEstimator(Filter filter)
+	{
+		this.filter = filter;
+	}
+
+	/**
+	 * Adds a sample.
+	 * 
+	 * @param nanos The time of the sample (System.nanoTime(), in ns)
+	 * @param y     The position of the paddle (in m)
+	 */
+	public synchronized void addSample(long nanos, double y)
+	{
+		if (count > 0)
+		{
+			int last = (next + CAPACITY - 1) % CAPACITY;
+			double dt = (nanos - times[last]) / 1e9;
+
+			if (dt <= 0)
+			{
+				// Same timestamp as the previous sample: keep only the latest position
+				ys[last] = y;
+				return;
+			}
+			double v = (y - ys[last]) / dt;
+			ema += (1 - Math.exp(-dt / (VELOCITY_EMA_MS / 1000.0))) * (v - ema);
+		}
+
+		times[next] = nanos;
+		ys[next] = y;
+		next = (next + 1) % CAPACITY;
+		count = Math.min(count + 1, CAPACITY);
+	}
+
+	/**
+	 * @param nanos The current time (System.nanoTime(), in ns)
+	 * @return The velocity of the paddle (in m/s of real time)
+	 */
+	public synchronized double velocity(long nanos)
+	{
+		if (count < 2)
+			return 0;
+
+		int last = (next + CAPACITY - 1) % CAPACITY;
+		if (nanos - times[last] > VELOCITY_STALE_MS * 1000000L)
+			return 0;
+		if (filter == Filter.EMA)
+			return ema;
+
+		// Least-squares slope of the samples in the window (times relative to the latest sample, to keep the sums small)
+		double n = 0, sumT = 0, sumY = 0, sumTT = 0, sumTY = 0;
+		for (int k = 0; k < count; k++)
+		{
+			int i = (last + CAPACITY - k) % CAPACITY;
+			double t = (times[i] - times[last]) / 1e9;
+			if (-t > VELOCITY_WINDOW_MS / 1000.0)
+				break;
+			n++;
+			sumT += t;
+			sumY += ys[i];
+			sumTT += t * t;
+			sumTY += t * ys[i];
+		}
+
+		double d = n * sumTT - sumT * sumT;
+		return (n < 2 || d == 0 ? 0 : (n * sumTY - sumT * sumY) / d);
+	}
+
+	/**
+	 * @return The filter used
+	 */
+	public Filter getFilter()
+	{
+		return filter;
+	}
+}